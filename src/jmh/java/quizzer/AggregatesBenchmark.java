@@ -0,0 +1,76 @@
+package quizzer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The leaderboard and population statistics, over many users' histories.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class AggregatesBenchmark {
+
+    /**
+     * Questions in each user's history
+     */
+    private static final int QUESTIONS = 20;
+
+    @Param({"10000", "100000"})
+    public int users;
+
+    private File root;
+    private int next;
+
+    @Setup
+    public void setup() {
+        root = BenchData.useScratchData();
+        for (int i = 0; i < users; i++) BenchData.writeHistory("user" + i, QUESTIONS, i);
+        // Builds the shared index from the user store, outside of the measurement
+        UserAggregates.shared();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchData.delete(root);
+    }
+
+    @Benchmark
+    public String leaderboard() {
+        return User.leaderboard();
+    }
+
+    @Benchmark
+    public double stdDev() {
+        return User.stdDev();
+    }
+
+    /**
+     * A user finishing a round, which moves them on the leaderboard and appends to the index file.
+     */
+    @Benchmark
+    public void update() {
+        int user = next++ % users;
+        UserAggregates.shared().update("user" + user, QUESTIONS + next % 7, next % QUESTIONS);
+    }
+
+    /**
+     * Building the index from every user's history, as happens when it is missing.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public UserAggregates rebuild() {
+        File index = new File(root, "rebuilt.txt");
+        index.delete();
+        return new UserAggregates(index, UserStore.shared());
+    }
+}
@@ -0,0 +1,131 @@
+package quizzer;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Compares two benchmark reports, written by JMH with {@code -rf csv}, and flags regressions.
+ * <p>
+ * A benchmark only counts as changed if the difference is larger than both the threshold and
+ * the two runs' error margins combined, so noise between runs is not reported as a regression.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar quizzer.BenchCompare <baseline.csv> <candidate.csv> [thresholdPercent]}
+ * <br>
+ * Exits with status 1 if any benchmark regressed.
+ */
+public class BenchCompare {
+
+    /**
+     * Change below which a difference is ignored, in percent
+     */
+    public static final double DEFAULT_THRESHOLD = 5;
+
+    /**
+     * One row of a report.
+     *
+     * @param key   The benchmark name and its parameters
+     * @param mode  The JMH mode, such as avgt or thrpt
+     * @param score The measured score
+     * @param error The score's error margin
+     * @param unit  The score's unit
+     */
+    private record Result(String key, String mode, double score, double error, String unit) {
+        /**
+         * @return If a higher score is better, as for throughput
+         */
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchCompare <baseline.csv> <candidate.csv> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        LinkedHashMap<String, Result> baseline = read(args[0]);
+        LinkedHashMap<String, Result> candidate = read(args[1]);
+
+        int regressions = 0;
+        System.out.printf("%-64s %14s %14s %9s%n", "Benchmark", "Baseline", "Candidate", "Change");
+        for (Result now : candidate.values()) {
+            Result before = baseline.get(now.key());
+            if (before == null) {
+                System.out.printf("%-64s %14s %14.3f %9s  new%n", now.key(), "-", now.score(), "");
+                continue;
+            }
+            double change = 100 * (now.score() - before.score()) / before.score();
+            boolean significant = Math.abs(change) > threshold
+                    && Math.abs(now.score() - before.score()) > before.error() + now.error();
+            String verdict = "";
+            if (significant) {
+                boolean worse = now.higherIsBetter() ? change < 0 : change > 0;
+                verdict = worse ? "REGRESSION" : "improved";
+                if (worse) regressions++;
+            }
+            System.out.printf("%-64s %14.3f %14.3f %+8.1f%%  %s %s%n",
+                    now.key(), before.score(), now.score(), change, now.unit(), verdict);
+        }
+        for (String key : baseline.keySet()) {
+            if (!candidate.containsKey(key)) System.out.printf("%-64s  missing from candidate%n", key);
+        }
+        System.out.printf("%d regression(s) beyond %.1f%%%n", regressions, threshold);
+        if (regressions > 0) System.exit(1);
+    }
+
+    /**
+     * Reads a JMH CSV report, keyed by benchmark name and parameters.
+     */
+    private static LinkedHashMap<String, Result> read(String path) {
+        LinkedHashMap<String, Result> results = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            List<String> header = split(reader.readLine());
+            int score = header.indexOf("Score");
+            int unit = header.indexOf("Unit");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = split(line);
+                // Every benchmark is in this package, so the package name is left out
+                StringBuilder key = new StringBuilder(fields.get(0).replaceFirst("^quizzer\\.", ""));
+                // Parameters follow the fixed columns, with headers like "Param: lines"
+                for (int i = unit + 1; i < fields.size(); i++) {
+                    if (!fields.get(i).isEmpty()) {
+                        key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(fields.get(i));
+                    }
+                }
+                String error = fields.get(score + 1);
+                results.put(key.toString(), new Result(key.toString(), fields.get(1), Double.parseDouble(fields.get(score)),
+                        error.isEmpty() || error.equals("NaN") ? 0 : Double.parseDouble(error), fields.get(unit)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Splits a CSV line, removing the quotes around fields.
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
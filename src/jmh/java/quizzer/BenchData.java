@@ -0,0 +1,102 @@
+package quizzer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic question banks and user histories for the benchmarks.
+ * Everything is generated from fixed seeds, so every run measures the same data.
+ */
+final class BenchData {
+
+    private BenchData() {
+    }
+
+    /**
+     * @param i Index of the question
+     * @return A question line in the topic file format, unique to the index
+     */
+    static String line(int i) {
+        Question.Difficulty difficulty = Question.Difficulty.values()[i % Question.Difficulty.values().length];
+        return "Which of the following is the answer to question " + i + "?|Answer " + i
+                + "|Wrong answer " + (i + 1) + "|Wrong answer " + (i + 2) + "|Wrong answer " + (i + 3)
+                + "|" + difficulty;
+    }
+
+    /**
+     * Writes a topic file of generated questions.
+     *
+     * @param folder Folder to write the topic into
+     * @param topic  Name of the topic
+     * @param lines  Number of questions to write
+     * @return The topic file
+     */
+    static File writeBank(File folder, String topic, int lines) {
+        File file = new File(folder, topic + ".txt");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            for (int i = 0; i < lines; i++) writer.println(line(i));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return file;
+    }
+
+    /**
+     * Stores a user history in which each question has been answered wrongly a random number of times.
+     *
+     * @param name      The user to store the history for
+     * @param questions Number of questions in the history
+     * @param seed      Seed for the number of wrong answers
+     */
+    static void writeHistory(String name, int questions, long seed) {
+        Random random = new Random(seed);
+        History history = new History();
+        for (int i = 0; i < questions; i++) {
+            history.put("Which of the following is the answer to question " + i + "?", random.nextInt(5));
+        }
+        history.setRounds(1 + questions / 20);
+        UserStore.shared().put(name, HistoryJournal.encode(history.snapshot(), 0, List.of(), 0));
+    }
+
+    /**
+     * Creates an empty scratch folder and points {@link GameData} at it, so benchmarks never touch real users.
+     * Must be called before anything reads from the data folder.
+     *
+     * @return The new data folder
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    static File useScratchData() {
+        File root = tempDir("quizzer-data");
+        System.setProperty(GameData.PROPERTY, root.getPath());
+        GameData.root().mkdirs();
+        return root;
+    }
+
+    static File tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix).toFile();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes a folder and everything in it.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    static void delete(File folder) {
+        try (Stream<File> files = Files.walk(folder.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile)) {
+            files.forEach(File::delete);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
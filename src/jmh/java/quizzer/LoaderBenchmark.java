@@ -0,0 +1,74 @@
+package quizzer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a topic: parsing the text file, opening a compiled bank, and hitting the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+
+    private static final String TOPIC = "Bench";
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int lines;
+
+    private File root;
+    private File questions;
+    private File compiled;
+    private File noCompiled;
+    private QuestionLoader cached;
+
+    @Setup
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public void setup() {
+        root = BenchData.tempDir("quizzer-bank");
+        questions = new File(root, "questions");
+        compiled = new File(root, "compiled");
+        noCompiled = new File(root, "missing");
+        questions.mkdirs();
+        File source = BenchData.writeBank(questions, TOPIC, lines);
+        BankCompiler.compile(source, new File(compiled, TOPIC + ".qbank"));
+        cached = new QuestionLoader(questions, noCompiled, 1);
+        cached.getEntries(TOPIC);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchData.delete(root);
+    }
+
+    /**
+     * A cache miss with no compiled bank, so every line is read and parsed.
+     */
+    @Benchmark
+    public List<Question> parseText() {
+        return new QuestionLoader(questions, noCompiled, 1).getEntries(TOPIC);
+    }
+
+    /**
+     * A cache miss served from the compiled bank, then reading every question as a quiz would.
+     */
+    @Benchmark
+    public int readCompiled() {
+        List<Question> entries = new QuestionLoader(questions, compiled, 1).getEntries(TOPIC);
+        int length = 0;
+        for (Question q : entries) length += q.question().length();
+        return length;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public List<Question> cacheHit() {
+        return cached.getEntries(TOPIC);
+    }
+}
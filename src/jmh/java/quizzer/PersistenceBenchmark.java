@@ -0,0 +1,83 @@
+package quizzer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving a user's history while they play: journalling answers, finishing rounds, and compacting the journal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    /**
+     * Questions asked in each round
+     */
+    private static final int ROUND_LENGTH = Quiz.QUICK_LENGTH;
+
+    @Param({"1000", "100000"})
+    public int questions;
+
+    private File root;
+    private User user;
+    private final List<Question> round = new ArrayList<>();
+    private final Random random = new Random(1);
+    private int next;
+
+    @Setup
+    public void setup() {
+        root = BenchData.useScratchData();
+        BenchData.writeHistory("bench", questions, 1);
+        user = new User("bench");
+        // Half of each round is questions already in the history, half are new to the user
+        for (int i = 0; i < ROUND_LENGTH; i++) {
+            round.add(new Question(BenchData.line(i % 2 == 0 ? i : questions + i)));
+        }
+    }
+
+    /**
+     * Keeps the journal from growing without bound in the benchmarks that never finish a round.
+     */
+    @TearDown(Level.Iteration)
+    public void compact() throws ExecutionException, InterruptedException {
+        user.save().get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchData.delete(root);
+    }
+
+    @Benchmark
+    public void recordWrong() {
+        user.recordAnswer(round.get(next++ % ROUND_LENGTH).question(), false);
+    }
+
+    /**
+     * A whole round played through a {@link QuizSession}, as the console and server do.
+     */
+    @Benchmark
+    public QuizSession.Summary playRound() {
+        QuizSession session = new QuizSession("Bench", Gamemode.QUICK, round, user, random);
+        while (!session.isFinished()) session.submitAnswer(random.nextInt(4));
+        return session.summary();
+    }
+
+    /**
+     * Writing the whole history and starting a new journal.
+     */
+    @Benchmark
+    public void save() throws ExecutionException, InterruptedException {
+        user.save().get();
+    }
+}
@@ -0,0 +1,37 @@
+package quizzer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a single line of a topic file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class QuestionBenchmark {
+
+    private String line;
+    private Question question;
+
+    @Setup
+    public void setup() {
+        line = BenchData.line(42);
+        question = new Question(line);
+    }
+
+    @Benchmark
+    public Question parse() {
+        return new Question(line);
+    }
+
+    @Benchmark
+    public List<String> possibilities() {
+        return question.possibilities();
+    }
+}
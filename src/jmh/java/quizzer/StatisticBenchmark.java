@@ -0,0 +1,47 @@
+package quizzer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Querying each {@link Statistic} of a user with a large history.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class StatisticBenchmark {
+
+    /**
+     * Every statistic, since none are listed
+     */
+    @Param
+    public Statistic statistic;
+
+    @Param({"1000", "100000"})
+    public int questions;
+
+    private File root;
+    private User user;
+
+    @Setup
+    public void setup() {
+        root = BenchData.useScratchData();
+        BenchData.writeHistory("bench", questions, 1);
+        user = new User("bench");
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchData.delete(root);
+    }
+
+    @Benchmark
+    public double getStatistic() {
+        return user.getStatistic(statistic);
+    }
+}
@@ -0,0 +1,124 @@
+package quizzer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Offline tool that compiles topic text files into the binary format read by {@link CompiledBank}.
+ * <p>
+ * The text files remain the source of truth: a compiled bank records the size and
+ * modification time of the file it came from, and is ignored once the text file changes.
+ * <p>
+ * Usage: {@code java quizzer.BankCompiler [questionFolder] [outputFolder]}
+ */
+public class BankCompiler {
+
+    public static void main(String[] args) {
+        File source = new File(args.length > 0 ? args[0] : "res/questions/");
+        File output = new File(args.length > 1 ? args[1] : "res/compiled/");
+        for (File topic : Objects.requireNonNull(source.listFiles((dir, name) -> name.endsWith(".txt")))) {
+            String name = topic.getName().split("\\.")[0];
+            File target = new File(output, name + ".qbank");
+            int count = compile(topic, target);
+            System.out.printf("Compiled %d questions from %s into %s%n", count, topic, target);
+        }
+    }
+
+    /**
+     * Compiles a single topic file.
+     *
+     * @param source The topic's text file
+     * @param target The compiled bank to write. Replaced atomically once fully written
+     * @return The number of questions compiled
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public static int compile(File source, File target) {
+        long length = source.length();
+        long modified = source.lastModified();
+        Question.Difficulty[] difficulties = Question.Difficulty.values();
+        ArrayList<ArrayList<Integer>> tiers = new ArrayList<>();
+        for (int i = 0; i < difficulties.length; i++) tiers.add(new ArrayList<>());
+        // Records are written to memory first, since the difficulty index precedes them
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        DataOutputStream pool = new DataOutputStream(poolBytes);
+        HashMap<String, Integer> offsets = new HashMap<>();
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Skipped just as QuestionLoader skips them, so the bank matches the text
+                if (line.isBlank()) continue;
+                Question q;
+                try {
+                    q = new Question(line);
+                } catch (Question.FormatException e) {
+                    continue;
+                }
+                records.writeInt(intern(q.question(), offsets, pool));
+                records.writeInt(intern(q.answer(), offsets, pool));
+                for (String wrong : q.wrongs()) records.writeInt(intern(wrong, offsets, pool));
+                records.writeInt(q.difficulty().ordinal());
+                records.writeInt(q.tags().length == 0 ? -1 : intern(String.join(",", q.tags()), offsets, pool));
+                tiers.get(q.difficulty().ordinal()).add(count++);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        target.getParentFile().mkdirs();
+        File temp = new File(target.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(CompiledBank.MAGIC);
+            out.writeInt(CompiledBank.VERSION);
+            out.writeInt(count);
+            out.writeLong(length);
+            out.writeLong(modified);
+            for (ArrayList<Integer> tier : tiers) {
+                out.writeInt(tier.size());
+                for (int index : tier) out.writeInt(index);
+            }
+            recordBytes.writeTo(out);
+            poolBytes.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Adds a string to the pool, unless an identical string is already there.
+     *
+     * @return The string's offset within the pool
+     */
+    private static int intern(String s, HashMap<String, Integer> offsets, DataOutputStream pool) throws IOException {
+        Integer existing = offsets.get(s);
+        if (existing != null) return existing;
+        int offset = pool.size();
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        pool.writeInt(bytes.length);
+        pool.write(bytes);
+        offsets.put(s, offset);
+        return offset;
+    }
+}
@@ -0,0 +1,481 @@
+package quizzer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Imports large question dumps into topic files, checking every line on the way.
+ * <p>
+ * Each input file is read a window at a time, one chunk per thread, so memory use stays bounded however large the
+ * dump. Windows are split into chunks at line boundaries, and the chunks are parsed and validated in parallel
+ * on a fork-join pool, then written out before the next window is read. Valid questions are deduplicated by their question text, ignoring case and spacing,
+ * keeping the first of each. They are written to one topic file per input name, and optionally compiled into banks.
+ * Bad lines never stop an import: each is reported with its file, line number and reason.
+ * <p>
+ * Usage: {@code java quizzer.BulkImporter [--out folder] [--compiled folder] [--report file] [--threads n] input...}
+ * <br>
+ * Inputs are topic files, or folders of them. Files with the same name are merged into one topic.
+ * Topics are written to {@code res/questions/} and the report to {@code import-report.tsv} unless told otherwise.
+ */
+public class BulkImporter implements Closeable {
+
+    /**
+     * Chunks are split in two until they are no larger than this
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+    /**
+     * Issues listed for each topic. Any more are counted, but not listed
+     */
+    public static final int MAX_ISSUES = 10_000;
+
+    /**
+     * Why a line was not imported.
+     */
+    public enum Problem {
+        /**
+         * The line could not be parsed as a question
+         */
+        MALFORMED,
+        /**
+         * The line parsed, but the question can't be played, e.g. an option is repeated
+         */
+        INVALID,
+        /**
+         * The same question was already imported
+         */
+        DUPLICATE
+    }
+
+    /**
+     * A line that was not imported.
+     *
+     * @param file    The input file
+     * @param line    The line number, starting at 1
+     * @param problem Why the line was rejected
+     * @param detail  A description of the problem
+     */
+    public record Issue(String file, long line, Problem problem, String detail) {
+    }
+
+    /**
+     * The outcome of importing one topic.
+     *
+     * @param topic      The topic's name
+     * @param lines      Lines read from every input of the topic, including blank lines
+     * @param imported   Questions written to the topic file
+     * @param malformed  Lines rejected as {@link Problem#MALFORMED}
+     * @param invalid    Lines rejected as {@link Problem#INVALID}
+     * @param duplicates Lines rejected as {@link Problem#DUPLICATE}
+     */
+    public record TopicResult(String topic, long lines, long imported, long malformed, long invalid, long duplicates) {
+    }
+
+    /**
+     * The outcome of an import.
+     *
+     * @param topics A result for each topic, in the order they were imported
+     * @param issues Up to {@link #MAX_ISSUES} issues for each topic, in file and line order
+     */
+    public record Report(List<TopicResult> topics, List<Issue> issues) {
+
+        /**
+         * Writes the report as tab-separated values: a commented summary of each topic, then one line per issue.
+         *
+         * @param file The file to write
+         */
+        public void write(File file) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+                writer.println("# topic\tlines\timported\tmalformed\tinvalid\tduplicates");
+                for (TopicResult t : topics) {
+                    writer.printf("# %s\t%d\t%d\t%d\t%d\t%d%n",
+                            t.topic(), t.lines(), t.imported(), t.malformed(), t.invalid(), t.duplicates());
+                }
+                writer.println("file\tline\tproblem\tdetail");
+                for (Issue issue : issues) {
+                    writer.printf("%s\t%d\t%s\t%s%n", issue.file(), issue.line(), issue.problem(),
+                            issue.detail().replace('\t', ' ').replace('\n', ' '));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Where a question was first seen, for reporting its duplicates.
+     */
+    private record Origin(String file, long line) {
+    }
+
+    /**
+     * A valid question and its line number.
+     * The line number is relative to the start of the chunk until chunks are joined, and then to the start of the window.
+     */
+    private static class Entry {
+        long line;
+        final Question question;
+
+        Entry(long line, Question question) {
+            this.line = line;
+            this.question = question;
+        }
+    }
+
+    /**
+     * The result of parsing a run of lines.
+     */
+    private static class Chunk {
+        long lines;
+        long malformed;
+        long invalid;
+        final ArrayList<Entry> entries = new ArrayList<>();
+        final ArrayList<Issue> issues = new ArrayList<>();
+
+        void reject(String file, Problem problem, String detail) {
+            if (problem == Problem.MALFORMED) malformed++;
+            else invalid++;
+            if (issues.size() < MAX_ISSUES) issues.add(new Issue(file, lines, problem, detail));
+        }
+
+        /**
+         * Appends the chunk that follows this one in the file, renumbering its lines to follow on from this one's.
+         */
+        Chunk append(Chunk next) {
+            for (Entry entry : next.entries) entry.line += lines;
+            entries.addAll(next.entries);
+            for (Issue issue : next.issues) {
+                if (issues.size() >= MAX_ISSUES) break;
+                issues.add(new Issue(issue.file(), issue.line() + lines, issue.problem(), issue.detail()));
+            }
+            lines += next.lines;
+            malformed += next.malformed;
+            invalid += next.invalid;
+            return this;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+    /**
+     * Bytes of a file parsed before its questions are written, enough for a chunk per thread
+     */
+    private final long windowBytes;
+    /**
+     * The charset topic files are read with by {@link QuestionLoader}
+     */
+    private final Charset charset = Charset.defaultCharset();
+
+    /**
+     * @param parallelism Number of threads to parse with
+     */
+    public BulkImporter(int parallelism) {
+        this(parallelism, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param parallelism Number of threads to parse with
+     * @param chunkBytes  Largest chunk parsed by a single task
+     */
+    public BulkImporter(int parallelism, int chunkBytes) {
+        pool = new ForkJoinPool(parallelism);
+        this.chunkBytes = chunkBytes;
+        windowBytes = (long) chunkBytes * parallelism;
+    }
+
+    /**
+     * Stops the threads used to parse.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) {
+        File out = new File("res/questions/");
+        File compiled = null;
+        File reportFile = new File("import-report.tsv");
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--out" -> out = new File(args[++i]);
+                case "--compiled" -> compiled = new File(args[++i]);
+                case "--report" -> reportFile = new File(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> inputs.add(new File(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: BulkImporter [--out folder] [--compiled folder] [--report file] [--threads n] input...");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        Report report;
+        try (BulkImporter importer = new BulkImporter(threads)) {
+            report = importer.importTopics(inputs, out, compiled);
+        }
+        report.write(reportFile);
+        for (TopicResult t : report.topics()) {
+            System.out.printf("%s: %d lines, %d imported, %d malformed, %d invalid, %d duplicates%n",
+                    t.topic(), t.lines(), t.imported(), t.malformed(), t.invalid(), t.duplicates());
+        }
+        System.out.printf("Imported into %s in %.1f s, report written to %s%n",
+                out, (System.nanoTime() - start) / 1e9, reportFile);
+    }
+
+    /**
+     * Imports every input, writing one topic file for each distinct input name.
+     * Existing topic files with the same names are replaced.
+     *
+     * @param inputs         Topic files, or folders of them
+     * @param outFolder      Folder to write topic files into
+     * @param compiledFolder Folder to write compiled banks into, or null to only write topic files
+     * @return What was imported, and every line that was not
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public Report importTopics(List<File> inputs, File outFolder, File compiledFolder) {
+        outFolder.mkdirs();
+        List<TopicResult> results = new ArrayList<>();
+        List<Issue> issues = new ArrayList<>();
+        group(inputs).forEach((topic, files) -> {
+            List<Issue> topicIssues = new ArrayList<>();
+            results.add(importTopic(topic, files, outFolder, topicIssues));
+            issues.addAll(topicIssues);
+            if (compiledFolder != null) {
+                BankCompiler.compile(new File(outFolder, topic + ".txt"), new File(compiledFolder, topic + ".qbank"));
+            }
+        });
+        return new Report(results, issues);
+    }
+
+    private TopicResult importTopic(String topic, List<File> files, File outFolder, List<Issue> issues) {
+        long lines = 0, imported = 0, malformed = 0, invalid = 0, duplicates = 0;
+        HashMap<String, Origin> seen = new HashMap<>();
+        File target = new File(outFolder, topic + ".txt");
+        File temp = new File(outFolder, topic + ".txt.tmp");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temp, charset))) {
+            for (File file : files) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    // Lines before the current window, which its line numbers follow on from
+                    long before = 0;
+                    for (long start = 0; start < size; ) {
+                        long end = start + windowBytes >= size ? size : lineStart(channel, start + windowBytes, size);
+                        Chunk chunk = pool.invoke(new ParseTask(channel, file.getPath(), start, end));
+                        malformed += chunk.malformed;
+                        invalid += chunk.invalid;
+                        // Deduplicated in file order, so the first copy of a question is the one kept
+                        List<Issue> windowIssues = new ArrayList<>();
+                        for (Issue issue : chunk.issues) {
+                            windowIssues.add(new Issue(issue.file(), issue.line() + before, issue.problem(),
+                                    issue.detail()));
+                        }
+                        for (Entry entry : chunk.entries) {
+                            long line = entry.line + before;
+                            Origin origin = new Origin(file.getPath(), line);
+                            Origin first = seen.putIfAbsent(key(entry.question.question()), origin);
+                            if (first != null) {
+                                duplicates++;
+                                if (windowIssues.size() < MAX_ISSUES) {
+                                    windowIssues.add(new Issue(file.getPath(), line, Problem.DUPLICATE,
+                                            "Same question as " + first.file() + " line " + first.line()));
+                                }
+                                continue;
+                            }
+                            writer.println(entry.question.toLine());
+                            imported++;
+                        }
+                        windowIssues.sort(Comparator.comparingLong(Issue::line));
+                        for (Issue issue : windowIssues) {
+                            if (issues.size() >= MAX_ISSUES) break;
+                            issues.add(issue);
+                        }
+                        before += chunk.lines;
+                        start = end;
+                    }
+                    lines += before;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new TopicResult(topic, lines, imported, malformed, invalid, duplicates);
+    }
+
+    /**
+     * @return The start of the first line at or after the given position, or `end` if there is none before it
+     */
+    private static long lineStart(FileChannel channel, long from, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        // A line starts wherever the previous byte is a newline
+        long position = from - 1;
+        while (position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return Math.min(position + i + 1, end);
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    /**
+     * Parses a range of a file, splitting it in two at a line boundary while it is larger than the chunk size.
+     * Reads are positional, so every task shares the same channel.
+     */
+    private class ParseTask extends RecursiveTask<Chunk> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final String file;
+        private final long start;
+        private final long end;
+
+        ParseTask(FileChannel channel, String file, long start, long end) {
+            this.channel = channel;
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Chunk compute() {
+            try {
+                if (end - start > chunkBytes) {
+                    long split = lineStart(channel, start + (end - start) / 2, end);
+                    if (split < end) {
+                        ParseTask next = new ParseTask(channel, file, split, end);
+                        next.fork();
+                        Chunk first = new ParseTask(channel, file, start, split).compute();
+                        return first.append(next.join());
+                    }
+                }
+                return parseLines(read(start, end));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String read(long from, long to) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(to - from));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) break;
+            }
+            // Newlines never occur inside a multi-byte character, so chunks decode independently
+            return new String(buffer.array(), 0, buffer.position(), charset);
+        }
+
+        private Chunk parseLines(String text) {
+            Chunk chunk = new Chunk();
+            int lineStart = 0;
+            while (lineStart < text.length()) {
+                int newline = text.indexOf('\n', lineStart);
+                int lineEnd = newline < 0 ? text.length() : newline;
+                chunk.lines++;
+                if (!isBlank(text, lineStart, lineEnd)) {
+                    try {
+                        Question question = new Question(text, lineStart, lineEnd);
+                        String problem = validate(question);
+                        if (problem == null) {
+                            chunk.entries.add(new Entry(chunk.lines, question));
+                        } else {
+                            chunk.reject(file, Problem.INVALID, problem);
+                        }
+                    } catch (Question.FormatException e) {
+                        chunk.reject(file, Problem.MALFORMED, e.getMessage());
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * Checks that a parsed question can be played.
+     *
+     * @return A description of the problem, or null if the question is valid
+     */
+    static String validate(Question question) {
+        List<String> options = question.possibilities();
+        for (int i = 0; i < options.size(); i++) {
+            if (options.get(i).isBlank()) return "Option " + (i + 1) + " is blank";
+            for (int j = 0; j < i; j++) {
+                if (options.get(i).equalsIgnoreCase(options.get(j))) return "Option repeated: " + options.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Normalises question text for deduplication: case is ignored, and runs of whitespace count as one space.
+     */
+    static String key(String question) {
+        StringBuilder key = new StringBuilder(question.length());
+        boolean space = false;
+        for (int i = 0; i < question.length(); i++) {
+            char c = question.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = !key.isEmpty();
+                continue;
+            }
+            if (space) key.append(' ');
+            space = false;
+            key.append(c);
+        }
+        return key.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isBlank(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Groups input files by topic name, expanding folders into the topic files they contain.
+     */
+    private static LinkedHashMap<String, List<File>> group(List<File> inputs) {
+        LinkedHashMap<String, List<File>> topics = new LinkedHashMap<>();
+        for (File input : inputs) {
+            File[] files = input.isDirectory()
+                    ? Objects.requireNonNull(input.listFiles((dir, name) -> name.endsWith(".txt")))
+                    : new File[]{input};
+            Arrays.sort(files);
+            for (File file : files) {
+                String topic = file.getName().split("\\.")[0];
+                topics.computeIfAbsent(topic, t -> new ArrayList<>()).add(file);
+            }
+        }
+        return topics;
+    }
+}
@@ -0,0 +1,200 @@
+package quizzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A topic read from a compiled question bank, as written by {@link BankCompiler}.
+ * <p>
+ * The file is memory-mapped and nothing is decoded up front, so opening a bank
+ * costs the same regardless of how many questions it holds.
+ * {@link #get(int)} hands out small {@link Question} views that decode their text on first use.
+ * <p>
+ * Layout, all integers big-endian:
+ * <pre>{@code
+ * header      magic, version, count, sourceLength (long), sourceModified (long)
+ * difficulty  for each Difficulty: count, then that many question indices
+ * records     for each question: question, answer, wrong x3 (string offsets), difficulty,
+ *             tags (string offset of the comma-separated tags, or -1 if none)
+ * pool        length-prefixed UTF-8 strings, shared between identical strings}</pre>
+ */
+public class CompiledBank extends AbstractList<Question> implements RandomAccess {
+
+    static final int MAGIC = 0x51424E4B; // "QBNK"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+    /**
+     * Number of ints in each question record
+     */
+    static final int RECORD_INTS = 7;
+    static final int RECORD_SIZE = RECORD_INTS * 4;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    /**
+     * Position of the first index of each difficulty, plus one past the last
+     */
+    private final int[] tierStarts;
+    private final int[] tierSizes;
+    private final int recordsStart;
+    private final int poolStart;
+
+    private CompiledBank(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a compiled question bank");
+        }
+        count = buffer.getInt(8);
+        Question.Difficulty[] difficulties = Question.Difficulty.values();
+        tierStarts = new int[difficulties.length];
+        tierSizes = new int[difficulties.length];
+        int position = HEADER_SIZE;
+        for (int i = 0; i < difficulties.length; i++) {
+            tierSizes[i] = buffer.getInt(position);
+            tierStarts[i] = position + 4;
+            position += 4 + tierSizes[i] * 4;
+        }
+        recordsStart = position;
+        poolStart = recordsStart + count * RECORD_SIZE;
+    }
+
+    /**
+     * Opens the compiled bank for a topic, if it exists and was compiled from the current source.
+     *
+     * @param compiled The compiled bank file
+     * @param source   The topic's text file, which is the source of truth
+     * @return The bank, or null if it is missing or out of date
+     */
+    public static CompiledBank open(File compiled, File source) {
+        if (!compiled.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(compiled.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE) return null;
+            // Banks in an older format are treated as out of date, until they are compiled again
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return null;
+            if (buffer.getLong(12) != source.length() || buffer.getLong(20) != source.lastModified()) {
+                return null;
+            }
+            return new CompiledBank(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Question get(int index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException(index);
+        int record = recordsStart + index * RECORD_SIZE;
+        Question.Difficulty difficulty = Question.Difficulty.values()[buffer.getInt(record + 5 * 4)];
+        return new View(this, record, difficulty);
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param difficulty The difficulty to count
+     * @return How many questions in the bank have the given difficulty
+     */
+    public int countOf(Question.Difficulty difficulty) {
+        return tierSizes[difficulty.ordinal()];
+    }
+
+    /**
+     * Returns the index of the i-th question of a difficulty, in file order.
+     *
+     * @param difficulty The difficulty to look up
+     * @param i          Position within that difficulty, less than {@link #countOf}
+     * @return The question's index in the bank
+     */
+    public int indexOf(Question.Difficulty difficulty, int i) {
+        if (i < 0 || i >= tierSizes[difficulty.ordinal()]) throw new IndexOutOfBoundsException(i);
+        return buffer.getInt(tierStarts[difficulty.ordinal()] + i * 4);
+    }
+
+    private String string(int offset) {
+        int position = poolStart + offset;
+        byte[] bytes = new byte[buffer.getInt(position)];
+        buffer.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A question backed by a record in the bank. Each string is decoded the first time it is asked for.
+     */
+    private static class View extends Question {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final transient CompiledBank bank;
+        private final int record;
+        private String question;
+        private String answer;
+        /**
+         * Volatile, since views are shared by sessions on other threads, and an array, unlike a string,
+         * could otherwise be seen before it is filled in
+         */
+        private volatile String[] wrongs;
+        private volatile String[] tags;
+
+        View(CompiledBank bank, int record, Difficulty difficulty) {
+            super(difficulty);
+            this.bank = bank;
+            this.record = record;
+        }
+
+        @Override
+        public String question() {
+            if (question == null) question = bank.string(bank.buffer.getInt(record));
+            return question;
+        }
+
+        @Override
+        public String answer() {
+            if (answer == null) answer = bank.string(bank.buffer.getInt(record + 4));
+            return answer;
+        }
+
+        @Override
+        public String[] wrongs() {
+            String[] wrongs = this.wrongs;
+            if (wrongs == null) {
+                wrongs = new String[3];
+                for (int i = 0; i < 3; i++) {
+                    wrongs[i] = bank.string(bank.buffer.getInt(record + (2 + i) * 4));
+                }
+                this.wrongs = wrongs;
+            }
+            return wrongs;
+        }
+
+        @Override
+        public String[] tags() {
+            String[] tags = this.tags;
+            if (tags == null) {
+                int offset = bank.buffer.getInt(record + 6 * 4);
+                tags = offset < 0 ? new String[0] : bank.string(offset).split(",");
+                this.tags = tags;
+            }
+            return tags;
+        }
+
+        /**
+         * Serializes as a plain question, since the bank itself is not serializable.
+         */
+        @Serial
+        private Object writeReplace() {
+            return new Question(question(), answer(), wrongs(), difficulty(), tags());
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package quizzer;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores usernames and salted password hashes in an on-disk hash table.
+ * <p>
+ * Nothing is loaded at startup: each lookup reads the few slots it probes straight from the file.
+ * Passwords are hashed with PBKDF2 on a bounded pool of worker threads,
+ * so a slow hash never blocks the calling thread; the blocking methods simply wait for the pool.
+ * A successful login returns a session token, which can be checked again later without hashing.
+ * <p>
+ * File layout: a header of {@code magic, version, capacity, count}, followed by `capacity` fixed-size slots
+ * holding {@code used, nameLength, name, iterations, salt, hash}. Collisions are resolved by linear probing.
+ * Accounts imported from the old {@code name,hashCode} users file are stored with 0 iterations,
+ * and are upgraded to PBKDF2 the next time they log in.
+ */
+public class CredentialStore implements Closeable {
+
+    static final int MAGIC = 0x51435244; // "QCRD"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int MAX_NAME_BYTES = 64;
+    static final int SALT_BYTES = 16;
+    static final int HASH_BYTES = 32;
+    static final int SLOT_SIZE = 128;
+    static final int INITIAL_CAPACITY = 64;
+    /**
+     * Default PBKDF2 iteration count, tunable per store
+     */
+    public static final int DEFAULT_ITERATIONS = 120_000;
+    /**
+     * How long a session token stays valid, in milliseconds
+     */
+    public static final long TOKEN_LIFETIME = TimeUnit.HOURS.toMillis(12);
+    /**
+     * How often expired session tokens that were never presented again are dropped, in milliseconds
+     */
+    static final long PURGE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private record Account(int iterations, byte[] salt, byte[] hash) {
+    }
+
+    private record Session(String name, long expires) {
+    }
+
+    private final File file;
+    private RandomAccessFile index;
+    private final int iterations;
+    private final ThreadPoolExecutor hashPool;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurge = new AtomicLong();
+    private final SecureRandom random = new SecureRandom();
+    private int capacity;
+    private int count;
+
+    /**
+     * Opens the store, creating it if needed.
+     *
+     * @param file        The index file
+     * @param legacyFile  Users file in the old {@code name,hashCode} format, imported if the index is new.
+     *                    It does not need to exist
+     * @param iterations  PBKDF2 iterations for newly hashed passwords
+     * @param hashThreads Number of threads used to hash passwords
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public CredentialStore(File file, File legacyFile, int iterations, int hashThreads) {
+        this.file = file;
+        this.iterations = iterations;
+        boolean exists = file.exists();
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try {
+            index = new RandomAccessFile(file, "rw");
+            if (exists) {
+                if (index.readInt() != MAGIC || index.readInt() != VERSION) {
+                    throw new IOException("Not a credential index: " + file);
+                }
+                capacity = index.readInt();
+                count = index.readInt();
+            } else {
+                initialise(index, INITIAL_CAPACITY);
+                capacity = INITIAL_CAPACITY;
+                if (legacyFile.exists()) importLegacy(legacyFile);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        hashPool = new ThreadPoolExecutor(hashThreads, hashThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(hashThreads * 64), r -> {
+            Thread thread = new Thread(r, "password-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates an account, unless the name is taken.
+     *
+     * @param name     The username
+     * @param password The password
+     * @return Completes with true if the account was created, or false if the name is taken
+     */
+    public CompletableFuture<Boolean> register(String name, String password) {
+        if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Username is too long"));
+        }
+        if (exists(name)) return CompletableFuture.completedFuture(false);
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        // Another registration for the same name may finish first, so insertion checks again
+        return hash(password, salt, iterations)
+                .thenApply(hash -> insert(name, new Account(iterations, salt, hash)));
+    }
+
+    /**
+     * Checks a username and password, returning a session token if they match.
+     *
+     * @param name     The username
+     * @param password The password
+     * @return Completes with a session token, or null if the name or password is wrong
+     */
+    public CompletableFuture<String> login(String name, String password) {
+        Account account = find(name);
+        if (account == null) return CompletableFuture.completedFuture(null);
+        if (account.iterations() == 0) {
+            // Imported from the old users file, which stored String.hashCode()
+            if (!MessageDigest.isEqual(account.hash(), legacyHash(password))) {
+                return CompletableFuture.completedFuture(null);
+            }
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            return hash(password, salt, iterations).thenApply(hash -> {
+                replace(name, new Account(iterations, salt, hash));
+                return issueToken(name);
+            });
+        }
+        return hash(password, account.salt(), account.iterations())
+                .thenApply(hash -> MessageDigest.isEqual(hash, account.hash()) ? issueToken(name) : null);
+    }
+
+    /**
+     * Checks a session token, without hashing anything.
+     *
+     * @param token A token returned by {@link #login}
+     * @return The username the token was issued to, or null if it is unknown or has expired
+     */
+    public String authenticate(String token) {
+        Session session = sessions.get(token);
+        if (session == null) return null;
+        if (session.expires() < System.currentTimeMillis()) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session.name();
+    }
+
+    /**
+     * Invalidates a session token.
+     *
+     * @param token A token returned by {@link #login}
+     */
+    public void logout(String token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * @param name The username
+     * @return If an account with this name exists
+     */
+    public boolean exists(String name) {
+        return find(name) != null;
+    }
+
+    /**
+     * @return The number of password hashes waiting for a worker thread
+     */
+    public int pendingHashes() {
+        return hashPool.getQueue().size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        hashPool.shutdown();
+        index.close();
+    }
+
+    private String issueToken(String name) {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long now = System.currentTimeMillis();
+        sessions.put(token, new Session(name, now + TOKEN_LIFETIME));
+        purge(now);
+        return token;
+    }
+
+    /**
+     * Drops expired sessions, at most once per {@link #PURGE_INTERVAL}, so tokens that are never
+     * presented again don't pile up.
+     */
+    private void purge(long now) {
+        long next = nextPurge.get();
+        if (now < next || !nextPurge.compareAndSet(next, now + PURGE_INTERVAL)) return;
+        sessions.values().removeIf(session -> session.expires() < now);
+    }
+
+    private CompletableFuture<byte[]> hash(String password, byte[] salt, int iterations) {
+        try {
+            return CompletableFuture.supplyAsync(() -> pbkdf2(password, salt, iterations), hashPool);
+        } catch (RejectedExecutionException e) {
+            // Every worker is busy and the queue is full, so fail fast rather than block the caller
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] legacyHash(String password) {
+        return legacyHash(password.hashCode());
+    }
+
+    private static byte[] legacyHash(int hashCode) {
+        byte[] out = new byte[HASH_BYTES];
+        out[0] = (byte) (hashCode >>> 24);
+        out[1] = (byte) (hashCode >>> 16);
+        out[2] = (byte) (hashCode >>> 8);
+        out[3] = (byte) hashCode;
+        return out;
+    }
+
+    private void importLegacy(File legacyFile) throws IOException {
+        int lineNumber = 0;
+        int skipped = 0;
+        int firstError = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(legacyFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comma = line.lastIndexOf(',');
+                if (comma < 0) continue;
+                String name = line.substring(0, comma);
+                // Names too long for a slot could never have been registered, so they are left behind
+                if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) continue;
+                int hashCode;
+                try {
+                    hashCode = Integer.parseInt(line.substring(comma + 1));
+                } catch (NumberFormatException e) {
+                    if (skipped++ == 0) firstError = lineNumber;
+                    continue;
+                }
+                Account account = new Account(0, new byte[SALT_BYTES], legacyHash(hashCode));
+                // The old file allowed duplicate names, and the last one won when it was loaded
+                if (!insert(name, account)) replace(name, account);
+            }
+        }
+        if (skipped > 0) {
+            System.err.printf("Skipped %d malformed line(s) in %s, first at line %d%n", skipped, legacyFile, firstError);
+        }
+    }
+
+    private synchronized Account find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        try {
+            int slot = probe(index, capacity, key);
+            if (slot < 0) return null;
+            return readAccount(index, slot);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private synchronized boolean insert(String name, Account account) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (probe(index, capacity, key) >= 0) return false;
+            if ((count + 1) * 10 > capacity * 7) grow();
+            writeSlot(index, firstFree(index, capacity, key), key, account);
+            count++;
+            index.seek(12);
+            index.writeInt(count);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    private synchronized void replace(String name, Account account) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        try {
+            int slot = probe(index, capacity, key);
+            if (slot >= 0) writeSlot(index, slot, key, account);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Rehashes every account into a file with twice the capacity, then swaps it in.
+     */
+    private void grow() throws IOException {
+        int newCapacity = capacity * 2;
+        File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile grown = new RandomAccessFile(temp, "rw")) {
+            grown.setLength(0);
+            initialise(grown, newCapacity);
+            for (int slot = 0; slot < capacity; slot++) {
+                byte[] key = readKey(index, slot);
+                if (key == null) continue;
+                writeSlot(grown, firstFree(grown, newCapacity, key), key, readAccount(index, slot));
+            }
+            grown.seek(12);
+            grown.writeInt(count);
+            grown.getFD().sync();
+        }
+        // The old file is untouched until the move, so a crash leaves one or the other
+        index.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = new RandomAccessFile(file, "rw");
+        capacity = newCapacity;
+    }
+
+    private static void initialise(RandomAccessFile raf, int capacity) throws IOException {
+        raf.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(VERSION);
+        raf.writeInt(capacity);
+        raf.writeInt(0);
+    }
+
+    private static int home(byte[] key, int capacity) {
+        int h = Arrays.hashCode(key);
+        h ^= h >>> 16;
+        return Math.floorMod(h * 0x9E3779B9, capacity);
+    }
+
+    /**
+     * @return The slot holding the key, or -1 if it is not present
+     */
+    private static int probe(RandomAccessFile raf, int capacity, byte[] key) throws IOException {
+        int slot = home(key, capacity);
+        for (int i = 0; i < capacity; i++) {
+            byte[] existing = readKey(raf, slot);
+            if (existing == null) return -1;
+            if (Arrays.equals(existing, key)) return slot;
+            slot = (slot + 1) % capacity;
+        }
+        return -1;
+    }
+
+    private static int firstFree(RandomAccessFile raf, int capacity, byte[] key) throws IOException {
+        int slot = home(key, capacity);
+        while (readKey(raf, slot) != null) slot = (slot + 1) % capacity;
+        return slot;
+    }
+
+    private static long offset(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    /**
+     * @return The name stored in a slot, or null if the slot is empty
+     */
+    private static byte[] readKey(RandomAccessFile raf, int slot) throws IOException {
+        raf.seek(offset(slot));
+        if (raf.readByte() == 0) return null;
+        byte[] key = new byte[raf.readUnsignedByte()];
+        raf.readFully(key);
+        return key;
+    }
+
+    private static Account readAccount(RandomAccessFile raf, int slot) throws IOException {
+        raf.seek(offset(slot) + 2 + MAX_NAME_BYTES);
+        int iterations = raf.readInt();
+        byte[] salt = new byte[SALT_BYTES];
+        raf.readFully(salt);
+        byte[] hash = new byte[HASH_BYTES];
+        raf.readFully(hash);
+        return new Account(iterations, salt, hash);
+    }
+
+    private static void writeSlot(RandomAccessFile raf, int slot, byte[] key, Account account) throws IOException {
+        byte[] bytes = new byte[SLOT_SIZE];
+        bytes[0] = 1;
+        bytes[1] = (byte) key.length;
+        System.arraycopy(key, 0, bytes, 2, key.length);
+        int position = 2 + MAX_NAME_BYTES;
+        int iterations = account.iterations();
+        bytes[position++] = (byte) (iterations >>> 24);
+        bytes[position++] = (byte) (iterations >>> 16);
+        bytes[position++] = (byte) (iterations >>> 8);
+        bytes[position++] = (byte) iterations;
+        System.arraycopy(account.salt(), 0, bytes, position, SALT_BYTES);
+        System.arraycopy(account.hash(), 0, bytes, position + SALT_BYTES, HASH_BYTES);
+        raf.seek(offset(slot));
+        raf.write(bytes);
+    }
+}
@@ -0,0 +1,350 @@
+package quizzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Measures how hard each question really is, from every user's history, and compares it with the labelled
+ * {@link Question.Difficulty}.
+ * <p>
+ * The {@link UserStore} is scanned once, in file order, and batches of users are tallied on a pool of threads,
+ * each adding into a tally of its own, which are merged at the end. Only the scan holds the store's lock,
+ * and at most two batches per thread are waiting at once, so memory stays flat however many users there are.
+ * Answers still in users' journals, since their last snapshot, are not counted.
+ * <p>
+ * Following the history's model, each question in a user's history was asked once per round they played.
+ * For each question this gives:
+ * <pre>{@code
+ * correct rate    the fraction of all its answers that were correct
+ * missed by       the fraction of the users who answered it that got it wrong at least once
+ * discrimination  the correlation, over users, between their correct rate on the question and over all questions
+ * }</pre>
+ * A question answered by at least {@value #MIN_USERS} users is measured as NOVICE if its correct rate is at least
+ * {@value #NOVICE_RATE}, EXPERT if it is below {@value #EXPERT_RATE}, and INTERMEDIATE otherwise,
+ * and is flagged if that disagrees with its label. The measured tiers can be written for {@link DifficultyTiers}.
+ * <p>
+ * Usage: {@code java quizzer.DifficultyAnalytics [--questions folder] [--threads n] [--write]}
+ * <br>
+ * Prints the flagged questions, and with {@code --write} saves the measured tiers to {@code GameData/difficulty.txt}.
+ */
+public class DifficultyAnalytics {
+
+    public static final int MIN_USERS = 20;
+    public static final double NOVICE_RATE = 0.8;
+    public static final double EXPERT_RATE = 0.5;
+    /**
+     * Users handed to a thread at a time
+     */
+    private static final int BATCH = 256;
+
+    /**
+     * What was measured for one question.
+     *
+     * @param topic          The topic the question is in
+     * @param question       The question, with its labelled difficulty
+     * @param users          Users who have answered it
+     * @param answers        Times it has been answered
+     * @param wrongs         Times it has been answered wrongly
+     * @param missedBy       Fraction of its users who answered it wrongly at least once
+     * @param discrimination From -1 to 1, how well getting it right predicts doing well overall
+     * @param measured       The difficulty its correct rate suggests, or null if too few users have answered it
+     */
+    public record QuestionStats(String topic, Question question, int users, long answers, long wrongs,
+                                double missedBy, double discrimination, Question.Difficulty measured) {
+        public double correctRate() {
+            return answers == 0 ? 0 : 1 - (double) wrongs / answers;
+        }
+
+        /**
+         * @return If enough users have answered it, and its measured difficulty differs from its label
+         */
+        public boolean flagged() {
+            return measured != null && measured != question.difficulty();
+        }
+    }
+
+    /**
+     * The result of a run.
+     *
+     * @param users     Users scanned
+     * @param entries   History entries tallied, one per question per user
+     * @param questions Every question answered by at least one user, by topic then file order
+     * @param nanos     How long the run took
+     */
+    public record Report(int users, long entries, List<QuestionStats> questions, long nanos) {
+        /**
+         * @return The questions whose measured difficulty disagrees with their label
+         */
+        public List<QuestionStats> flagged() {
+            return questions.stream().filter(QuestionStats::flagged).toList();
+        }
+
+        /**
+         * Writes the measured difficulty of every question with one, in the format read by {@link DifficultyTiers},
+         * replacing the file atomically.
+         *
+         * @param file The file to write
+         */
+        @SuppressWarnings("ResultOfMethodCallIgnored")
+        public void writeTiers(File file) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            File temp = new File(file.getPath() + ".tmp");
+            try (PrintWriter writer = new PrintWriter(temp, StandardCharsets.UTF_8)) {
+                for (QuestionStats stats : questions) {
+                    if (stats.measured() == null) continue;
+                    writer.println(Integer.toHexString(stats.question().id()) + "|" + stats.measured());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Running sums for the questions seen by one thread, in parallel arrays indexed by row.
+     * Each question's sums over users of x, their correct rate on it, and y, their overall correct rate,
+     * give its discrimination as a Pearson correlation without a second pass.
+     */
+    private static class Tally {
+        final IntIntMap rows = new IntIntMap(1024);
+        int[] ids = new int[256];
+        int[] users = new int[256];
+        int[] missedBy = new int[256];
+        long[] answers = new long[256];
+        long[] wrongs = new long[256];
+        double[] sumX = new double[256];
+        double[] sumY = new double[256];
+        double[] sumXX = new double[256];
+        double[] sumYY = new double[256];
+        double[] sumXY = new double[256];
+        int size;
+        int scanned;
+        long entries;
+
+        int row(int id) {
+            int row = rows.getOrDefault(id, -1);
+            if (row >= 0) return row;
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                users = Arrays.copyOf(users, capacity);
+                missedBy = Arrays.copyOf(missedBy, capacity);
+                answers = Arrays.copyOf(answers, capacity);
+                wrongs = Arrays.copyOf(wrongs, capacity);
+                sumX = Arrays.copyOf(sumX, capacity);
+                sumY = Arrays.copyOf(sumY, capacity);
+                sumXX = Arrays.copyOf(sumXX, capacity);
+                sumYY = Arrays.copyOf(sumYY, capacity);
+                sumXY = Arrays.copyOf(sumXY, capacity);
+            }
+            ids[size] = id;
+            rows.put(id, size);
+            return size++;
+        }
+
+        void add(History.Snapshot user) {
+            scanned++;
+            int rounds = user.rounds();
+            if (rounds == 0 || user.size() == 0) return;
+            long total = (long) rounds * user.size();
+            double overall = 1 - (double) user.wrongs().sum() / total;
+            user.wrongs().forEach((id, wrong) -> {
+                // A question answered wrongly more often than there were rounds was still asked at least that often
+                int asked = Math.max(rounds, wrong);
+                double x = 1 - (double) wrong / asked;
+                int row = row(id);
+                users[row]++;
+                if (wrong > 0) missedBy[row]++;
+                answers[row] += asked;
+                wrongs[row] += wrong;
+                sumX[row] += x;
+                sumY[row] += overall;
+                sumXX[row] += x * x;
+                sumYY[row] += overall * overall;
+                sumXY[row] += x * overall;
+                entries++;
+            });
+        }
+
+        void addAll(Tally other) {
+            scanned += other.scanned;
+            entries += other.entries;
+            for (int from = 0; from < other.size; from++) {
+                int row = row(other.ids[from]);
+                users[row] += other.users[from];
+                missedBy[row] += other.missedBy[from];
+                answers[row] += other.answers[from];
+                wrongs[row] += other.wrongs[from];
+                sumX[row] += other.sumX[from];
+                sumY[row] += other.sumY[from];
+                sumXX[row] += other.sumXX[from];
+                sumYY[row] += other.sumYY[from];
+                sumXY[row] += other.sumXY[from];
+            }
+        }
+
+        double discrimination(int row) {
+            int n = users[row];
+            double covariance = n * sumXY[row] - sumX[row] * sumY[row];
+            double variance = (n * sumXX[row] - sumX[row] * sumX[row]) * (n * sumYY[row] - sumY[row] * sumY[row]);
+            // Everyone scored the same on the question or overall, so it tells nothing apart
+            return variance <= 0 ? 0 : covariance / Math.sqrt(variance);
+        }
+    }
+
+    private final int threads;
+
+    /**
+     * @param threads Number of threads to tally users on
+     */
+    public DifficultyAnalytics(int threads) {
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+        File questions = new File("res/questions/");
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean write = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--questions" -> questions = new File(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--write" -> write = true;
+                default -> {
+                    System.err.println("Usage: DifficultyAnalytics [--questions folder] [--threads n] [--write]");
+                    System.exit(2);
+                }
+            }
+        }
+        Report report = new DifficultyAnalytics(threads).analyse(UserStore.shared(), new QuestionLoader(questions));
+        System.out.println("Topic \t Labelled \t Measured \t Correct \t Missed by \t Discrimination \t Users \t Question");
+        for (QuestionStats q : report.flagged()) {
+            System.out.printf("%s \t %s \t %s \t %.2f \t %.2f \t %.2f \t %d \t %s%n", q.topic(),
+                    q.question().difficulty(), q.measured(), q.correctRate(), q.missedBy(), q.discrimination(),
+                    q.users(), q.question().question());
+        }
+        System.out.printf("%d of %d questions flagged, from %d users and %d entries in %.1f s%n",
+                report.flagged().size(), report.questions().size(), report.users(), report.entries(),
+                report.nanos() / 1e9);
+        if (write) {
+            File tiers = GameData.file(DifficultyTiers.FILE);
+            report.writeTiers(tiers);
+            System.out.println("Measured difficulties written to " + tiers);
+        }
+    }
+
+    /**
+     * Measures every question in the loader's topics from every user in the store.
+     * Questions no longer in any topic are left out, as are generated topics.
+     *
+     * @param store  The users to scan
+     * @param loader The topics whose questions to measure
+     * @return What was measured
+     */
+    public Report analyse(UserStore store, QuestionLoader loader) {
+        long start = System.nanoTime();
+        Tally total = tally(store);
+        List<QuestionStats> out = new ArrayList<>();
+        for (String topic : loader.listTopics()) {
+            // Generated questions share their ids with the rest of their class, and are far too many to list
+            if (loader.isGenerated(topic)) continue;
+            List<Question> questions = loader.getEntries(topic);
+            for (Question question : questions) {
+                int row = total.rows.getOrDefault(question.id(), -1);
+                if (row < 0) continue;
+                int users = total.users[row];
+                double rate = 1 - (double) total.wrongs[row] / total.answers[row];
+                Question.Difficulty measured = users < MIN_USERS ? null
+                        : rate >= NOVICE_RATE ? Question.Difficulty.NOVICE
+                        : rate < EXPERT_RATE ? Question.Difficulty.EXPERT
+                        : Question.Difficulty.INTERMEDIATE;
+                out.add(new QuestionStats(topic, question, users, total.answers[row], total.wrongs[row],
+                        (double) total.missedBy[row] / users, total.discrimination(row), measured));
+            }
+        }
+        return new Report(total.scanned, total.entries, out, System.nanoTime() - start);
+    }
+
+    /**
+     * Scans the store, tallying each batch of users on the pool.
+     */
+    private Tally tally(UserStore store) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "difficulty-analytics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Queue<Tally> tallies = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Tally> local = ThreadLocal.withInitial(() -> {
+            Tally tally = new Tally();
+            tallies.add(tally);
+            return tally;
+        });
+        // Holds the scan back while every thread is busy, rather than queueing the whole store
+        Semaphore waiting = new Semaphore(2 * threads);
+        List<Future<?>> batches = new ArrayList<>();
+        List<byte[]> batch = new ArrayList<>(BATCH);
+        try {
+            store.scan(null, null, (name, stored) -> {
+                batch.add(stored);
+                if (batch.size() == BATCH) {
+                    batches.add(submit(pool, waiting, local, new ArrayList<>(batch)));
+                    batch.clear();
+                }
+            });
+            if (!batch.isEmpty()) batches.add(submit(pool, waiting, local, batch));
+            for (Future<?> future : batches) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        Tally total = new Tally();
+        // Merged largest first, so the total's table grows as few times as possible
+        tallies.stream().sorted(Comparator.comparingInt((Tally t) -> t.size).reversed()).forEach(total::addAll);
+        return total;
+    }
+
+    private static Future<?> submit(ExecutorService pool, Semaphore waiting, ThreadLocal<Tally> local,
+                                    List<byte[]> batch) {
+        waiting.acquireUninterruptibly();
+        try {
+            return pool.submit(() -> {
+                try {
+                    Tally tally = local.get();
+                    for (byte[] stored : batch) tally.add(HistoryJournal.decodeHistory(stored));
+                } finally {
+                    waiting.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            waiting.release();
+            throw e;
+        }
+    }
+}
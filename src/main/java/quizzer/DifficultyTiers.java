@@ -0,0 +1,73 @@
+package quizzer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Difficulties measured from users' results, which take the place of the labels in the topic files when ordering
+ * questions by difficulty.
+ * <p>
+ * They are written by {@link DifficultyAnalytics} to {@code GameData/difficulty.txt}, one question per line as
+ * {@code <id>|<DIFFICULTY>}, keyed by {@link Question#id()}. Questions not listed keep their labelled difficulty,
+ * as do all questions if the file doesn't exist. The shared tiers are read once, when first used.
+ */
+public class DifficultyTiers {
+
+    static final String FILE = "difficulty.txt";
+    private static final Question.Difficulty[] DIFFICULTIES = Question.Difficulty.values();
+
+    private static DifficultyTiers shared;
+
+    /**
+     * Ordinal of each question's measured difficulty, by id
+     */
+    private final IntIntMap tiers = new IntIntMap();
+
+    /**
+     * @param file File of measured difficulties, which need not exist
+     */
+    public DifficultyTiers(File file) {
+        if (!file.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int bar = line.indexOf('|');
+                if (bar < 0) continue;
+                try {
+                    tiers.put(Integer.parseUnsignedInt(line, 0, bar, 16),
+                            Question.Difficulty.valueOf(line.substring(bar + 1)).ordinal());
+                } catch (IllegalArgumentException ignored) {
+                    // Not a line this version wrote, so the question keeps its label
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The tiers for the data folder
+     */
+    public static synchronized DifficultyTiers shared() {
+        if (shared == null) shared = new DifficultyTiers(GameData.file(FILE));
+        return shared;
+    }
+
+    /**
+     * @return The question's measured difficulty, or its labelled one if it has not been measured
+     */
+    public Question.Difficulty of(Question question) {
+        // Looking up the id would decode a compiled question, and may assign it one, for nothing
+        if (tiers.size() == 0) return question.difficulty();
+        int tier = tiers.getOrDefault(question.id(), -1);
+        return tier < 0 ? question.difficulty() : DIFFICULTIES[tier];
+    }
+
+    /**
+     * @return The number of questions with a measured difficulty
+     */
+    public int size() {
+        return tiers.size();
+    }
+}
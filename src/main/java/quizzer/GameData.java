@@ -0,0 +1,35 @@
+package quizzer;
+
+import java.io.File;
+
+/**
+ * Locates the folder the app keeps its data in: credentials, user histories and indexes.
+ * <p>
+ * This is {@code GameData/} in the working directory, unless the {@value #PROPERTY} system property names another folder.
+ * Benchmarks and load tests use this to run against a scratch folder, leaving the real users alone.
+ */
+public final class GameData {
+
+    /**
+     * System property overriding the data folder
+     */
+    public static final String PROPERTY = "quizzer.data";
+
+    private GameData() {
+    }
+
+    /**
+     * @return The data folder
+     */
+    public static File root() {
+        return new File(System.getProperty(PROPERTY, "GameData"));
+    }
+
+    /**
+     * @param path A path relative to the data folder
+     * @return The file at that path
+     */
+    public static File file(String path) {
+        return new File(root(), path);
+    }
+}
@@ -0,0 +1,23 @@
+package quizzer;
+
+/**
+ * The orders in which a {@link Quiz} can ask its questions.
+ */
+public enum Gamemode {
+    RANDOM("Random"),
+    ESCALATION("Escalation"),
+    REDEMPTION("Redemption"),
+    QUICK(String.format("Quick (%d random questions)", Quiz.QUICK_LENGTH)),
+    QUICK_ESCALATION(String.format("Quick Escalation (%d questions per difficulty)", Quiz.QUICK_ESCALATION_LENGTH)),
+    TIMED(String.format("Timed (%d questions, %d seconds each, %d for the round)",
+            Quiz.QUICK_LENGTH, Quiz.TIMED_QUESTION_SECONDS, Quiz.TIMED_ROUND_SECONDS));
+
+    /**
+     * Name shown to the user
+     */
+    public final String label;
+
+    Gamemode(String label) {
+        this.label = label;
+    }
+}
@@ -0,0 +1,350 @@
+package quizzer;
+
+import java.io.Serial;
+import java.util.AbstractList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * A topic whose questions are made from templates, such as "What is {a} mod {b}?", rather than listed one by one.
+ * <p>
+ * A topic file ending in {@code .gen} holds one template per line, in the form
+ * {@code question|operation|variables|DIFFICULTY}, e.g.
+ * <pre>{@code
+ * What is {a} mod {b}?|mod|a=10..99,b=2..9|NOVICE}</pre>
+ * The two variables range over whole numbers, both bounds included, and the answer is the operation applied to the
+ * first and second of them, see {@link Operation}. Every combination of values is a question, so the topic is the
+ * templates' parameter spaces laid end to end, and {@link #get(int)} decodes an index into a template and its values.
+ * Nothing is held per question: each is made when it is asked for, with wrong answers seeded by its index,
+ * so the same index always gives the same question, options and all.
+ * <p>
+ * Since there may be billions of questions, histories are not kept per question text. Each question's
+ * {@link Question#historyKey()} is its template and parameter class, the number of digits of each value,
+ * so "What is 47 mod 6?" and "What is 83 mod 5?" are answered, reviewed and measured as one question.
+ * The key includes the template's difficulty, so templates with the same text at different difficulties,
+ * whose ranges may overlap, keep separate histories.
+ * <p>
+ * Topics this size must never be copied or ordered whole: take questions by index, with {@link #countOf} and
+ * {@link #indexOf} for a difficulty, or from {@link #stream(long)}.
+ */
+public class GeneratedTopic extends AbstractList<Question> implements RandomAccess {
+
+    /**
+     * Number of fields in a template line: question, operation, variables and difficulty
+     */
+    public static final int FIELDS = 4;
+
+    /**
+     * What a template asks of its two variables, a and b.
+     */
+    public enum Operation {
+        /**
+         * a + b
+         */
+        ADD,
+        /**
+         * a - b
+         */
+        SUBTRACT,
+        /**
+         * a × b
+         */
+        MULTIPLY,
+        /**
+         * a / b, rounded down. b must be positive
+         */
+        DIVIDE,
+        /**
+         * The remainder of a / b, never negative. b must be positive
+         */
+        MOD,
+        /**
+         * a to the power of b. b must not be negative
+         */
+        POWER,
+        /**
+         * The greatest common divisor of a and b
+         */
+        GCD;
+
+        long apply(long a, long b) {
+            return switch (this) {
+                case ADD -> a + b;
+                case SUBTRACT -> a - b;
+                case MULTIPLY -> a * b;
+                case DIVIDE -> Math.floorDiv(a, b);
+                case MOD -> Math.floorMod(a, b);
+                case POWER -> power(a, b);
+                case GCD -> gcd(a, b);
+            };
+        }
+
+        /**
+         * @return A wrong answer given by a common slip, such as giving the quotient for the remainder
+         */
+        long slip(long a, long b) {
+            return switch (this) {
+                case ADD -> a + b + 10;
+                case SUBTRACT -> b - a;
+                case MULTIPLY -> a * (b - 1);
+                case DIVIDE -> Math.floorMod(a, b);
+                case MOD -> Math.floorDiv(a, b);
+                case POWER -> a * b;
+                case GCD -> Math.abs(a * b) / Math.max(1, gcd(a, b));
+            };
+        }
+
+        private static long power(long a, long b) {
+            long result = 1;
+            for (long i = 0; i < b; i++) result *= a;
+            return result;
+        }
+
+        private static long gcd(long a, long b) {
+            a = Math.abs(a);
+            b = Math.abs(b);
+            while (b != 0) {
+                long r = a % b;
+                a = b;
+                b = r;
+            }
+            return a;
+        }
+    }
+
+    /**
+     * A variable of a template, ranging over {@code low..high}.
+     */
+    record Variable(String name, long low, long high) {
+        long count() {
+            return high - low + 1;
+        }
+    }
+
+    /**
+     * A line of a {@code .gen} file.
+     *
+     * @param size How many questions it makes, one per combination of values
+     */
+    record Template(String text, Operation operation, Variable a, Variable b, Question.Difficulty difficulty,
+                    long size) {
+
+        /**
+         * Parses a line of a {@code .gen} file, in the form {@code question|operation|variables|DIFFICULTY}.
+         *
+         * @throws Question.FormatException If the line is not a valid template
+         */
+        static Template parse(String line) {
+            String[] parts = line.strip().split("\\|", -1);
+            if (parts.length != FIELDS) {
+                throw new Question.FormatException("Expected " + FIELDS + " fields separated by |, found " + parts.length);
+            }
+            Operation operation;
+            Question.Difficulty difficulty;
+            try {
+                operation = Operation.valueOf(parts[1].strip().toUpperCase());
+                difficulty = Question.Difficulty.valueOf(parts[3].strip());
+            } catch (IllegalArgumentException e) {
+                throw new Question.FormatException("Unknown operation " + parts[1] + " or difficulty " + parts[3]);
+            }
+            String[] ranges = parts[2].split(",");
+            if (ranges.length != 2) throw new Question.FormatException("Expected two variables, found " + ranges.length);
+            Variable a = variable(ranges[0]);
+            Variable b = variable(ranges[1]);
+            if (a.name().equals(b.name())) throw new Question.FormatException("Both variables are called " + a.name());
+            for (Variable variable : new Variable[]{a, b}) {
+                if (!parts[0].contains("{" + variable.name() + "}")) {
+                    throw new Question.FormatException("The question never uses {" + variable.name() + "}");
+                }
+            }
+            if ((operation == Operation.DIVIDE || operation == Operation.MOD) && b.low() < 1) {
+                throw new Question.FormatException(b.name() + " must be positive to divide by");
+            }
+            if (operation == Operation.POWER && (b.low() < 0
+                    || b.high() * Math.log10(Math.max(2, Math.max(Math.abs(a.low()), Math.abs(a.high())))) > 17)) {
+                throw new Question.FormatException("Powers must have small, non-negative exponents");
+            }
+            long size;
+            try {
+                size = Math.multiplyExact(a.count(), b.count());
+            } catch (ArithmeticException e) {
+                throw new Question.FormatException("Too many combinations of values");
+            }
+            return new Template(parts[0], operation, a, b, difficulty, size);
+        }
+
+        private static Variable variable(String range) {
+            int equals = range.indexOf('=');
+            int dots = range.indexOf("..");
+            if (equals < 1 || dots < equals) throw new Question.FormatException("Expected name=low..high, found " + range);
+            String name = range.substring(0, equals).strip();
+            try {
+                long low = Long.parseLong(range.substring(equals + 1, dots).strip());
+                long high = Long.parseLong(range.substring(dots + 2).strip());
+                // Kept well inside a long, so sums, products and the slips can't overflow
+                if (low > high || Math.abs(low) > 1_000_000_000 || Math.abs(high) > 1_000_000_000) {
+                    throw new Question.FormatException("Bad range " + range);
+                }
+                return new Variable(name, low, high);
+            } catch (NumberFormatException e) {
+                throw new Question.FormatException("Bad range " + range);
+            }
+        }
+
+        Question question(long offset, long seed) {
+            long a = a().low() + offset % a().count();
+            long b = b().low() + offset / a().count();
+            String answer = Long.toString(operation.apply(a, b));
+            String shown = text.replace("{" + a().name() + "}", Long.toString(a))
+                    .replace("{" + b().name() + "}", Long.toString(b));
+            String key = text + " [" + difficulty + ":" + digits(a) + "," + digits(b) + "]";
+            return new Generated(shown, answer, wrongs(a, b, seed), difficulty, key);
+        }
+
+        /**
+         * Picks three wrong answers near the right one, the first a common slip if it differs from the answer.
+         */
+        private String[] wrongs(long a, long b, long seed) {
+            long answer = operation.apply(a, b);
+            Set<Long> wrongs = new LinkedHashSet<>();
+            long slip = operation.slip(a, b);
+            if (slip != answer && (answer < 0 || slip >= 0)) wrongs.add(slip);
+            SplittableRandom random = new SplittableRandom(seed);
+            // Far enough to have three candidates on either side, even for an answer of 0
+            long spread = Math.max(3, Math.abs(answer) / 10);
+            while (wrongs.size() < 3) {
+                long delta = 1 + random.nextLong(spread);
+                long wrong = random.nextBoolean() ? answer + delta : answer - delta;
+                // Negative options would give away a non-negative answer
+                if (answer >= 0 && wrong < 0) continue;
+                wrongs.add(wrong);
+            }
+            String[] out = new String[3];
+            int i = 0;
+            for (long wrong : wrongs) out[i++] = Long.toString(wrong);
+            return out;
+        }
+
+        private static int digits(long value) {
+            return Long.toString(Math.abs(value)).length();
+        }
+    }
+
+    private final Template[] templates;
+    /**
+     * Index of the first question of each template
+     */
+    private final long[] starts;
+    private final int size;
+    private final int[] tierSizes;
+
+    /**
+     * @param templates The templates, whose questions are numbered in this order
+     */
+    GeneratedTopic(List<Template> templates) {
+        this.templates = templates.toArray(new Template[0]);
+        starts = new long[this.templates.length];
+        tierSizes = new int[Question.Difficulty.values().length];
+        long total = 0;
+        for (int i = 0; i < this.templates.length; i++) {
+            starts[i] = total;
+            Template template = this.templates[i];
+            int tier = template.difficulty().ordinal();
+            tierSizes[tier] = (int) Math.min(Integer.MAX_VALUE, tierSizes[tier] + template.size());
+            total = Math.min(Long.MAX_VALUE / 2, total + template.size());
+        }
+        // Lists are indexed by int, so questions past that can't be asked for, though there are plenty before them
+        size = (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    /**
+     * Makes the question at an index. Always the same question for the same index.
+     */
+    @Override
+    public Question get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        int t = templates.length - 1;
+        while (starts[t] > index) t--;
+        return templates[t].question(index - starts[t], mix(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param difficulty The difficulty to count
+     * @return How many questions the templates of that difficulty make
+     */
+    public int countOf(Question.Difficulty difficulty) {
+        return tierSizes[difficulty.ordinal()];
+    }
+
+    /**
+     * Returns the index of the i-th question of a difficulty, in template order.
+     *
+     * @param difficulty The difficulty to look up
+     * @param i          Position within that difficulty, less than {@link #countOf}
+     * @return The question's index in the topic
+     */
+    public int indexOf(Question.Difficulty difficulty, int i) {
+        if (i < 0 || i >= countOf(difficulty)) throw new IndexOutOfBoundsException(i);
+        long left = i;
+        for (int t = 0; t < templates.length; t++) {
+            if (templates[t].difficulty() != difficulty) continue;
+            if (left < templates[t].size()) {
+                long index = starts[t] + left;
+                if (index >= size) break;
+                return (int) index;
+            }
+            left -= templates[t].size();
+        }
+        throw new IndexOutOfBoundsException(i);
+    }
+
+    /**
+     * Makes questions at random, with repeats, for as long as they are taken.
+     * The same seed always gives the same questions in the same order, sequential or parallel.
+     *
+     * @param seed Picks the questions
+     * @return An endless stream of questions, to be limited by the caller
+     */
+    public Stream<Question> stream(long seed) {
+        if (size == 0) return Stream.empty();
+        return LongStream.range(0, Long.MAX_VALUE).mapToObj(i -> get(Math.floorMod(mix(seed + mix(i)), size)));
+    }
+
+    /**
+     * Scrambles a number, so neighbouring indices and seeds give unrelated results (the SplitMix64 finalizer).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A question made from a template, whose history is kept under its template and parameter class.
+     */
+    private static class Generated extends Question {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final String key;
+
+        Generated(String question, String answer, String[] wrongs, Difficulty difficulty, String key) {
+            super(question, answer, wrongs, difficulty);
+            this.key = key;
+        }
+
+        @Override
+        public String historyKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package quizzer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A user's question history: how many times each question has been answered incorrectly,
+ * keyed by the question's id from {@link QuestionIds}, along with how many rounds have been played.
+ * <p>
+ * All changes go through this class, so that the user's {@link UserStats} stay up to date.
+ * Methods taking the question text look its id up first.
+ * <p>
+ * The history is safe to share between sessions. Questions are spread over independently locked stripes,
+ * so writers to different questions rarely wait for each other.
+ * {@link #snapshot()} copies the stripes without blocking writers, and retries if a write overlapped the copy,
+ * only locking every stripe if it keeps losing the race.
+ */
+public class History {
+
+    private static final int STRIPES = 16;
+    /**
+     * Optimistic snapshot attempts before falling back to locking every stripe
+     */
+    private static final int SNAPSHOT_ATTEMPTS = 8;
+    /**
+     * Returned by the maps for absent questions. Counts are never negative
+     */
+    private static final int ABSENT = -1;
+
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final IntIntMap map = new IntIntMap();
+    }
+
+    /**
+     * A consistent copy of a history.
+     *
+     * @param rounds The number of rounds played
+     * @param wrongs The number of wrong answers to each question, by id
+     */
+    public record Snapshot(int rounds, IntIntMap wrongs) {
+        /**
+         * @return The number of questions
+         */
+        public int size() {
+            return wrongs.size();
+        }
+
+        /**
+         * @return How many questions have been answered, counted as {@link UserStats#totalAnswered()} counts them
+         */
+        public long totalAnswered() {
+            return (long) rounds * wrongs.size();
+        }
+
+        /**
+         * @return How many questions have been answered correctly, as {@link UserStats#totalCorrect()}
+         */
+        public long totalCorrect() {
+            return totalAnswered() - wrongs.sum();
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    /**
+     * Guards {@link #rounds}, and counts as one more stripe when every stripe is locked
+     */
+    private final ReentrantLock roundsLock = new ReentrantLock();
+    private int rounds;
+    private final UserStats stats = new UserStats();
+    /**
+     * Writes in progress, and writes completed. Together they let a snapshot detect overlapping writes
+     */
+    private final AtomicInteger writing = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public History() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+    }
+
+    /**
+     * Sets the number of wrong answers to a question, adding it if needed.
+     */
+    public void put(int id, int wrongs) {
+        update(id, true, old -> wrongs);
+    }
+
+    public void put(String question, int wrongs) {
+        put(QuestionIds.shared().id(question), wrongs);
+    }
+
+    /**
+     * Sets the number of wrong answers to a question, only if it is already present.
+     */
+    public void replace(int id, int wrongs) {
+        update(id, false, old -> wrongs);
+    }
+
+    public void replace(String question, int wrongs) {
+        replace(QuestionIds.shared().id(question), wrongs);
+    }
+
+    /**
+     * Adds a question with the given number of wrong answers, if it is not already present.
+     *
+     * @return If the question was added
+     */
+    public boolean putIfAbsent(int id, int wrongs) {
+        Stripe stripe = stripe(id);
+        stripe.lock.lock();
+        try {
+            if (stripe.map.containsKey(id)) return false;
+        } finally {
+            stripe.lock.unlock();
+        }
+        // Checked again under the lock, in case another writer added it in between
+        return update(id, true, old -> old == ABSENT ? wrongs : old) == ABSENT;
+    }
+
+    public boolean putIfAbsent(String question, int wrongs) {
+        return putIfAbsent(QuestionIds.shared().id(question), wrongs);
+    }
+
+    /**
+     * Adds one to the number of wrong answers to a question, starting from zero if it is not present.
+     */
+    public void increment(int id) {
+        update(id, true, old -> old == ABSENT ? 1 : old + 1);
+    }
+
+    public void increment(String question) {
+        increment(QuestionIds.shared().id(question));
+    }
+
+    public int getOrDefault(int id, int defaultValue) {
+        Stripe stripe = stripe(id);
+        stripe.lock.lock();
+        try {
+            return stripe.map.getOrDefault(id, defaultValue);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public int getOrDefault(String question, int defaultValue) {
+        return getOrDefault(QuestionIds.shared().id(question), defaultValue);
+    }
+
+    public int rounds() {
+        roundsLock.lock();
+        try {
+            return rounds;
+        } finally {
+            roundsLock.unlock();
+        }
+    }
+
+    public void setRounds(int rounds) {
+        updateRounds(old -> rounds);
+    }
+
+    public void incrementRounds() {
+        updateRounds(old -> old + 1);
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * @return The number of questions
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return The ids of the questions at the time of the call
+     */
+    public int[] ids() {
+        return snapshot().wrongs().keys();
+    }
+
+    /**
+     * Calls the action with each question's id and number of wrong answers, from a {@link #snapshot()}.
+     */
+    public void forEach(IntIntMap.EntryConsumer action) {
+        snapshot().wrongs().forEach(action);
+    }
+
+    /**
+     * Returns a consistent copy of the history: every write either happened entirely before it, or not at all.
+     *
+     * @return A copy of the history
+     */
+    public Snapshot snapshot() {
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            long before = written.get();
+            if (writing.get() != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            IntIntMap copy = new IntIntMap(size.get());
+            for (Stripe stripe : stripes) {
+                // Each stripe is only locked long enough to copy it
+                stripe.lock.lock();
+                try {
+                    copy.putAll(stripe.map);
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            int copiedRounds = rounds();
+            if (writing.get() == 0 && written.get() == before) return new Snapshot(copiedRounds, copy);
+        }
+        for (Stripe stripe : stripes) stripe.lock.lock();
+        roundsLock.lock();
+        try {
+            IntIntMap copy = new IntIntMap(size.get());
+            for (Stripe stripe : stripes) copy.putAll(stripe.map);
+            return new Snapshot(rounds, copy);
+        } finally {
+            roundsLock.unlock();
+            for (Stripe stripe : stripes) stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Statistics over this history, updated as it changes
+     */
+    public UserStats stats() {
+        return stats;
+    }
+
+    private Stripe stripe(int id) {
+        // Ids are hashes already
+        return stripes[(id ^ (id >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Changes a question's count, keeping the statistics in step.
+     *
+     * @param id     The question to change
+     * @param insert If the question may be added when absent
+     * @param value  Computes the new count from the old one, which is {@link #ABSENT} if there was none
+     * @return The old count, or {@link #ABSENT}
+     */
+    private int update(int id, boolean insert, IntUnaryOperator value) {
+        Stripe stripe = stripe(id);
+        writing.incrementAndGet();
+        stripe.lock.lock();
+        try {
+            int old = stripe.map.getOrDefault(id, ABSENT);
+            if (old == ABSENT && !insert) return ABSENT;
+            int updated = value.applyAsInt(old);
+            stripe.map.put(id, updated);
+            if (old == ABSENT) size.incrementAndGet();
+            stats.update(old == ABSENT ? null : old, updated);
+            return old;
+        } finally {
+            stripe.lock.unlock();
+            // Counted as written before it stops counting as in progress, so a snapshot can't miss it
+            written.incrementAndGet();
+            writing.decrementAndGet();
+        }
+    }
+
+    private void updateRounds(IntUnaryOperator value) {
+        writing.incrementAndGet();
+        roundsLock.lock();
+        try {
+            rounds = value.applyAsInt(rounds);
+            stats.setRounds(rounds);
+        } finally {
+            roundsLock.unlock();
+            written.incrementAndGet();
+            writing.decrementAndGet();
+        }
+    }
+}
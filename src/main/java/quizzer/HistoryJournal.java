@@ -0,0 +1,592 @@
+package quizzer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of changes to a user's history, written as each question is answered.
+ * <p>
+ * The user's record in the {@link UserStore} acts as a snapshot of both their history and their
+ * {@link ReviewSchedule}, which is journalled alongside the history. It is binary, keyed by question id, and versioned:
+ * <pre>{@code
+ * int magic, short version, int generation covered, int rounds, int questions,
+ * then for each question: int id, int wrong answers,
+ * then int generation covered, int cards, then for each card: int length, the card as UTF-8}</pre>
+ * Journals are stored as {@code GameData/UserJournal/<name>.<generation>.log}.
+ * Recovery loads the snapshot, then replays every journal of the same or a later generation into it.
+ * Each generation's journal is created as soon as the generation starts, so the journals after a snapshot
+ * run without gaps, and are found one by one rather than by listing the folder.
+ * <p>
+ * Older versions kept each user's snapshots in files of their own: {@code UserHistory/<name>.dat} in the format
+ * above up to the questions, {@code UserHistory/<name>.txt} holding {@code question|wrongs} lines from before ids
+ * were used, and {@code UserSchedule/<name>.txt} holding the cards, whose first line records the generation
+ * it covers. These are moved into the store when the user is first loaded, or all at once by {@link #migrate}.
+ * <p>
+ * When the user is saved, the journal is compacted: a new generation is started, and the {@link HistoryWriter}
+ * writes a fresh snapshot and deletes the journals it covers.
+ * Each record carries a checksum, so a record cut short by a crash is ignored on recovery,
+ * and the user's next records are written to a new journal rather than after the damaged one.
+ */
+public class HistoryJournal {
+
+    /**
+     * Prefix of the header line of legacy history and schedule files
+     */
+    static final String HEADER = "#journal|";
+    /**
+     * "QHST", at the start of every snapshot
+     */
+    static final int MAGIC = 0x51485354;
+    static final short VERSION = 3;
+    /**
+     * Version of the history files kept before the store, which lack the schedule
+     */
+    static final short FILE_VERSION = 2;
+    /**
+     * Number of records after which the journal is compacted
+     */
+    static final int COMPACT_THRESHOLD = 1000;
+
+    /**
+     * Record types
+     */
+    private static final char WRONG = 'w';
+    private static final char CORRECT = 'c';
+    private static final char ROUND = 'R';
+    /**
+     * Record types from before ids were used, keyed by question text, still replayed
+     */
+    private static final char LEGACY_WRONG = 'W';
+    private static final char LEGACY_CORRECT = 'C';
+    private static final char REVIEW = 'V';
+
+    private final String name;
+    private final UserStore store;
+    private final File journalDir;
+    private int generation;
+    private int records;
+    /**
+     * Opened on the first append, so users that are only read don't hold a file open
+     */
+    private OutputStream out;
+
+    /**
+     * Creates a journal for the given user.
+     *
+     * @param name       The user's username
+     * @param store      The store holding the user's snapshot
+     * @param journalDir Folder holding journal files
+     */
+    public HistoryJournal(String name, UserStore store, File journalDir) {
+        this.name = name;
+        this.store = store;
+        this.journalDir = journalDir;
+    }
+
+    /**
+     * Loads the snapshot and replays the journals into the given history and schedule.
+     *
+     * @param history  An empty history to load into
+     * @param schedule An empty schedule to load into
+     */
+    public void recover(History history, ReviewSchedule schedule) {
+        recover(history, schedule, store.get(name));
+    }
+
+    /**
+     * As {@link #recover(History, ReviewSchedule)}, with the user's record already read from the store.
+     *
+     * @param stored The user's record, or null if they have none
+     */
+    public synchronized void recover(History history, ReviewSchedule schedule, byte[] stored) {
+        if (stored == null) {
+            File historyDir = GameData.file("UserHistory/");
+            File scheduleDir = GameData.file("UserSchedule/");
+            stored = readFiles(name, historyDir, scheduleDir);
+            if (stored == null) {
+                // Stored straight away, so new users are listed
+                stored = encode(new History().snapshot(), 0, List.of(), 0);
+                store.put(name, stored);
+            } else {
+                store.put(name, stored);
+                // The files are the only other copy, so the record must reach the disk before they are deleted
+                store.sync();
+                deleteFiles(name, historyDir, scheduleDir);
+            }
+        }
+        int[] covered = decode(stored, history, schedule);
+        // A compaction of files that stopped between writing the two snapshots leaves them covering different generations
+        int first = Math.min(covered[0], covered[1]);
+        int last = Math.max(covered[0], covered[1]);
+        // Left over from a compaction that finished its snapshot but not its cleanup
+        deleteBefore(first);
+        generation = first;
+        // The snapshot's own generation has no journal if nothing was written to it, as in a new user
+        for (int journal = first; journal <= last || journalFile(journal).exists(); journal++) {
+            File file = journalFile(journal);
+            if (!file.exists()) continue;
+            Replayed replayed = replay(file, journal >= covered[0] ? history : null,
+                    journal >= covered[1] ? schedule : null);
+            records += replayed.records();
+            generation = journal;
+            if (replayed.damaged()) {
+                // Records appended after a damaged one would never be replayed, so they go in a new journal
+                generation = journal + 1;
+                start(generation);
+            }
+        }
+        generation = Math.max(generation, last);
+    }
+
+    /**
+     * Moves every user with per-user files into the store, then deletes the files.
+     * Users already in the store keep their record, and only have their files deleted.
+     *
+     * @param store       The store to move users into
+     * @param historyDir  Folder of history files
+     * @param scheduleDir Folder of schedule files
+     * @return The number of users moved
+     */
+    public static int migrate(UserStore store, File historyDir, File scheduleDir) {
+        Set<String> names = new TreeSet<>();
+        for (File dir : new File[]{historyDir, scheduleDir}) {
+            String[] files = dir.list();
+            if (files == null) continue;
+            // A user in the middle of a save may have a temporary file too
+            for (String file : files) names.add(file.split("\\.")[0]);
+        }
+        int migrated = 0;
+        for (String name : names) {
+            if (store.contains(name)) continue;
+            byte[] stored = readFiles(name, historyDir, scheduleDir);
+            if (stored == null) continue;
+            store.put(name, stored);
+            migrated++;
+        }
+        // Nothing is deleted until every record is on disk
+        store.sync();
+        for (String name : names) deleteFiles(name, historyDir, scheduleDir);
+        return migrated;
+    }
+
+    public synchronized void recordWrong(int id) {
+        append(WRONG, Integer.toHexString(id));
+    }
+
+    public synchronized void recordCorrect(int id) {
+        append(CORRECT, Integer.toHexString(id));
+    }
+
+    public synchronized void recordRound() {
+        append(ROUND, "");
+    }
+
+    /**
+     * Records a review for the schedule, with the time it was made, so replaying it reschedules the same way.
+     */
+    public synchronized void recordReview(String topic, String question, boolean correct, long time) {
+        append(REVIEW, time + "|" + (correct ? 1 : 0) + "|" + topic + "|" + question);
+    }
+
+    /**
+     * @return If enough records have been written that the journal should be compacted
+     */
+    public synchronized boolean needsCompaction() {
+        return records >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Starts a new journal generation, for the given snapshots to be written by the {@link HistoryWriter}.
+     * The snapshots must include every record written so far.
+     *
+     * @param snapshot A copy of the user's history
+     * @param schedule The user's schedule, from {@link ReviewSchedule#snapshot()}
+     * @return The snapshots, to be written to the store
+     */
+    public synchronized Compaction compact(History.Snapshot snapshot, List<String> schedule) {
+        close();
+        generation++;
+        start(generation);
+        records = 0;
+        return new Compaction(snapshot, schedule, generation);
+    }
+
+    /**
+     * Snapshots covering every journal before a generation. Each user's compactions must be written in order.
+     */
+    class Compaction {
+        private final History.Snapshot snapshot;
+        private final List<String> schedule;
+        private final int covered;
+
+        private Compaction(History.Snapshot snapshot, List<String> schedule, int covered) {
+            this.snapshot = snapshot;
+            this.schedule = schedule;
+            this.covered = covered;
+        }
+
+        UserStore store() {
+            return store;
+        }
+
+        /**
+         * Puts the snapshots in the store. They are not on disk until the store is synced.
+         */
+        void write() {
+            Metrics.HistorySaveEvent event = new Metrics.HistorySaveEvent();
+            event.begin();
+            long start = Metrics.start();
+            store.put(name, encode(snapshot, covered, schedule, covered));
+            Metrics.record(Metrics.Operation.HISTORY_SAVE, start);
+            if (event.shouldCommit()) {
+                event.user = name;
+                event.entries = snapshot.size();
+                event.commit();
+            }
+        }
+
+        /**
+         * Deletes the journals the snapshots cover, which must only be done once they have been synced.
+         */
+        void deleteJournals() {
+            deleteBefore(covered);
+        }
+    }
+
+    /**
+     * Closes the current journal file. It is reopened by the next append.
+     */
+    public synchronized void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        out = null;
+    }
+
+    private void append(char type, String key) {
+        long start = Metrics.start();
+        try {
+            if (out == null) {
+                //noinspection ResultOfMethodCallIgnored
+                journalDir.mkdirs();
+                // Unbuffered, so each record reaches the OS as soon as it is written
+                out = new FileOutputStream(journalFile(generation), true);
+            }
+            out.write(encode(type, key));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        records++;
+        Metrics.record(Metrics.Operation.JOURNAL_WRITE, start);
+    }
+
+    private static byte[] encode(char type, String key) {
+        return String.format("%c|%08x|%s%n", type, checksum(type, key), key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long checksum(char type, String key) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * What was read from a journal file.
+     *
+     * @param records The number of records applied
+     * @param damaged If the file ends in a damaged record, after which nothing more can be read
+     */
+    private record Replayed(int records, boolean damaged) {
+    }
+
+    /**
+     * Applies the records of a journal file to the history and schedule, stopping at the first damaged record.
+     * Either may be null, if its snapshot already covers this journal.
+     */
+    private static Replayed replay(File file, History history, ReviewSchedule schedule) {
+        int applied = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 11 || line.charAt(1) != '|' || line.charAt(10) != '|') {
+                    return new Replayed(applied, true);
+                }
+                char type = line.charAt(0);
+                String key = line.substring(11);
+                long expected;
+                try {
+                    expected = Long.parseLong(line.substring(2, 10), 16);
+                } catch (NumberFormatException e) {
+                    return new Replayed(applied, true);
+                }
+                if (checksum(type, key) != expected) return new Replayed(applied, true);
+                switch (type) {
+                    case WRONG -> {
+                        if (history != null) history.increment(Integer.parseUnsignedInt(key, 16));
+                    }
+                    case CORRECT -> {
+                        if (history != null) history.putIfAbsent(Integer.parseUnsignedInt(key, 16), 0);
+                    }
+                    case LEGACY_WRONG -> {
+                        if (history != null) history.increment(key);
+                    }
+                    case LEGACY_CORRECT -> {
+                        if (history != null) history.putIfAbsent(key, 0);
+                    }
+                    case ROUND -> {
+                        if (history != null) history.incrementRounds();
+                    }
+                    case REVIEW -> {
+                        if (schedule != null) replayReview(schedule, key);
+                    }
+                    default -> {
+                        return new Replayed(applied, true);
+                    }
+                }
+                applied++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // A record that lost only its line break would have the next one written onto the end of it
+        return new Replayed(applied, applied > 0 && !endsWithNewline(file));
+    }
+
+    private static boolean endsWithNewline(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() == 0) return true;
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        } catch (FileNotFoundException e) {
+            // Deleted by a compaction since it was read, so nothing more will be written to it
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Applies a record written by {@link #recordReview}.
+     */
+    private static void replayReview(ReviewSchedule schedule, String key) {
+        int time = key.indexOf('|');
+        int correct = key.indexOf('|', time + 1);
+        int topic = key.indexOf('|', correct + 1);
+        schedule.review(key.substring(correct + 1, topic), key.substring(topic + 1),
+                key.charAt(time + 1) == '1', Long.parseLong(key, 0, time, 10));
+    }
+
+    /**
+     * Encodes a user's snapshot, as described above.
+     *
+     * @param snapshot        The history
+     * @param covered         The journal generation the history includes
+     * @param schedule        The schedule, from {@link ReviewSchedule#snapshot()}
+     * @param scheduleCovered The journal generation the schedule includes
+     * @return The user's record for the store
+     */
+    static byte[] encode(History.Snapshot snapshot, int covered, List<String> schedule, int scheduleCovered) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 8 * snapshot.size() + 64 * schedule.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(covered);
+            out.writeInt(snapshot.rounds());
+            out.writeInt(snapshot.size());
+            IntIntMap wrongs = snapshot.wrongs();
+            for (int id : wrongs.keys()) {
+                out.writeInt(id);
+                out.writeInt(wrongs.getOrDefault(id, 0));
+            }
+            out.writeInt(scheduleCovered);
+            out.writeInt(schedule.size());
+            for (String card : schedule) {
+                byte[] line = card.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(line.length);
+                out.write(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Loads a record written by {@link #encode}.
+     *
+     * @return The journal generations the history and the schedule cover
+     */
+    private static int[] decode(byte[] stored, History history, ReviewSchedule schedule) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(stored))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a history snapshot");
+            short version = in.readShort();
+            if (version != VERSION) throw new IOException("Unsupported history version " + version);
+            int covered = in.readInt();
+            history.setRounds(in.readInt());
+            for (int i = in.readInt(); i > 0; i--) history.put(in.readInt(), in.readInt());
+            int scheduleCovered = in.readInt();
+            for (int i = in.readInt(); i > 0; i--) {
+                byte[] line = new byte[in.readInt()];
+                in.readFully(line);
+                schedule.restore(new String(line, StandardCharsets.UTF_8));
+            }
+            return new int[]{covered, scheduleCovered};
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads just the history from a record written by {@link #encode}, for going through many users without
+     * loading each one.
+     *
+     * @param stored A user's record
+     * @return The history as of the record, without the user's journal
+     */
+    static History.Snapshot decodeHistory(byte[] stored) {
+        ByteBuffer in = ByteBuffer.wrap(stored);
+        if (in.getInt() != MAGIC) throw new IllegalArgumentException("Not a history snapshot");
+        short version = in.getShort();
+        if (version != VERSION) throw new IllegalArgumentException("Unsupported history version " + version);
+        in.getInt();
+        int rounds = in.getInt();
+        int questions = in.getInt();
+        IntIntMap wrongs = new IntIntMap(questions);
+        for (int i = 0; i < questions; i++) wrongs.put(in.getInt(), in.getInt());
+        return new History.Snapshot(rounds, wrongs);
+    }
+
+    /**
+     * Reads a user's snapshots from the per-user files used before the store.
+     * Users from before schedules were kept have no schedule file, and start with an empty schedule.
+     *
+     * @return The user's record for the store, or null if they have no files
+     */
+    private static byte[] readFiles(String name, File historyDir, File scheduleDir) {
+        History history = new History();
+        File binary = new File(historyDir, name + ".dat");
+        File legacy = new File(historyDir, name + ".txt");
+        File scheduleFile = new File(scheduleDir, name + ".txt");
+        if (!binary.exists() && !legacy.exists() && !scheduleFile.exists()) return null;
+        int covered = binary.exists() ? readHistory(binary, history)
+                : legacy.exists() ? readLegacyHistory(legacy, history) : 0;
+        List<String> schedule = new ArrayList<>();
+        int scheduleCovered = 0;
+        if (scheduleFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(scheduleFile), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                if (line != null && line.startsWith(HEADER)) {
+                    scheduleCovered = Integer.parseInt(line.substring(HEADER.length()));
+                    line = reader.readLine();
+                }
+                for (; line != null; line = reader.readLine()) schedule.add(line);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return encode(history.snapshot(), covered, schedule, scheduleCovered);
+    }
+
+    /**
+     * Deletes a user's per-user files, including any left half written.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void deleteFiles(String name, File historyDir, File scheduleDir) {
+        for (File file : new File[]{new File(historyDir, name + ".dat"), new File(historyDir, name + ".dat.tmp"),
+                new File(historyDir, name + ".txt"), new File(scheduleDir, name + ".txt"),
+                new File(scheduleDir, name + ".txt.tmp")}) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads a history file from before the store.
+     *
+     * @return The journal generation the file covers
+     */
+    private static int readHistory(File file, History history) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a history file");
+            short version = in.readShort();
+            if (version != FILE_VERSION) throw new IOException(file + " has unsupported version " + version);
+            int covered = in.readInt();
+            history.setRounds(in.readInt());
+            for (int i = in.readInt(); i > 0; i--) history.put(in.readInt(), in.readInt());
+            return covered;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a history file in the text format used before ids, with lines of {@code question|wrongs}
+     * and the rounds under the question "Rounds".
+     *
+     * @return The journal generation the file covers
+     */
+    private static int readLegacyHistory(File file, History history) {
+        int covered = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (line != null && line.startsWith(HEADER)) {
+                covered = Integer.parseInt(line.substring(HEADER.length()));
+                line = reader.readLine();
+            }
+            for (; line != null; line = reader.readLine()) {
+                int bar = line.lastIndexOf('|');
+                if (bar < 0) continue;
+                String key = line.substring(0, bar);
+                int value = Integer.parseInt(line.substring(bar + 1));
+                if (key.equals("Rounds")) {
+                    history.setRounds(value);
+                } else {
+                    history.put(key, value);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return covered;
+    }
+
+    /**
+     * Creates the journal for a new generation, even though nothing has been written to it yet,
+     * so the journals after a snapshot have no gaps.
+     */
+    private void start(int journal) {
+        //noinspection ResultOfMethodCallIgnored
+        journalDir.mkdirs();
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            journalFile(journal).createNewFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes the journals before a generation, oldest first, so a deletion cut short by a crash
+     * still leaves them without gaps, to be finished on recovery.
+     */
+    private void deleteBefore(int covered) {
+        int oldest = covered;
+        while (oldest > 0 && journalFile(oldest - 1).exists()) oldest--;
+        for (int journal = oldest; journal < covered; journal++) {
+            //noinspection ResultOfMethodCallIgnored
+            journalFile(journal).delete();
+        }
+    }
+
+    private File journalFile(int journal) {
+        return new File(journalDir, name + "." + journal + ".log");
+    }
+}
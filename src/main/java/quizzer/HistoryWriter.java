@@ -0,0 +1,286 @@
+package quizzer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes users' snapshots to the {@link UserStore} in the background, many users at a time.
+ * <p>
+ * Users are queued as they finish rounds. A user queued again before being written is written once,
+ * with their latest history. The writer's thread takes the whole queue at once, starts a new journal generation
+ * and writes a snapshot for each user, forces the store to disk once for all of them, and then deletes the journals
+ * the snapshots cover. Until a user is written, their journal holds their changes, so nothing is lost by waiting.
+ * <p>
+ * When the queue is written depends on the durability policy, set by the {@value #PROPERTY} system property:
+ * <pre>{@code
+ * round          as soon as a round ends, along with any rounds that end while the last batch is written (default)
+ * interval:<ms>  at most every so many milliseconds
+ * shutdown       only when the app exits, see close()}</pre>
+ * Whatever the policy, {@link User#save()} writes the queue straight away, as does the queue reaching
+ * {@value #MAX_QUEUE} users.
+ */
+public class HistoryWriter implements Closeable {
+
+    /**
+     * System property that sets the durability policy
+     */
+    public static final String PROPERTY = "quizzer.durability";
+    /**
+     * Number of queued users at which the queue is written whatever the policy
+     */
+    static final int MAX_QUEUE = 4096;
+
+    /**
+     * When queued users are written.
+     */
+    public enum Durability {
+        /**
+         * As soon as their round ends
+         */
+        ROUND,
+        /**
+         * Every so many milliseconds
+         */
+        INTERVAL,
+        /**
+         * When the app exits
+         */
+        SHUTDOWN
+    }
+
+    private static HistoryWriter shared;
+
+    private final Durability durability;
+    private final long intervalMillis;
+    private final Thread thread;
+    /**
+     * Users waiting to be written, by name, with the future completed once they are
+     */
+    private LinkedHashMap<String, Queued> queue = new LinkedHashMap<>();
+    private boolean urgent;
+    private boolean closed;
+    private boolean stopped;
+    private long lastFlush;
+    private long batches;
+    private long written;
+
+    private record Queued(User user, CompletableFuture<Void> written) {
+    }
+
+    /**
+     * Creates a writer and starts its thread, which is a daemon, so call {@link #close()} before exiting.
+     *
+     * @param durability     When to write queued users
+     * @param intervalMillis Time between writes, for {@link Durability#INTERVAL}
+     */
+    public HistoryWriter(Durability durability, long intervalMillis) {
+        if (durability == Durability.INTERVAL && intervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.durability = durability;
+        this.intervalMillis = intervalMillis;
+        thread = new Thread(this::run, "history-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return The writer used by all users, with the policy given by {@value #PROPERTY}
+     */
+    public static synchronized HistoryWriter shared() {
+        if (shared == null) shared = forPolicy(System.getProperty(PROPERTY, "round"));
+        return shared;
+    }
+
+    /**
+     * @param policy A policy as described above, e.g. {@code interval:500}
+     * @return A new writer with that policy
+     */
+    static HistoryWriter forPolicy(String policy) {
+        String[] parts = policy.trim().toLowerCase().split(":", 2);
+        Durability durability;
+        try {
+            durability = Durability.valueOf(parts[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown durability policy: " + policy);
+        }
+        long interval = durability == Durability.INTERVAL && parts.length > 1 ? Long.parseLong(parts[1]) : 1000;
+        return new HistoryWriter(durability, interval);
+    }
+
+    /**
+     * Queues a user who has finished a round, to be written as the policy allows.
+     *
+     * @param user The user, whose history and schedule are snapshotted when they are written
+     * @return Completes once the user has been written
+     */
+    public CompletableFuture<Void> queue(User user) {
+        return add(user, durability == Durability.ROUND);
+    }
+
+    /**
+     * Queues a user, and writes the queue straight away.
+     *
+     * @return Completes once the user has been written
+     */
+    public CompletableFuture<Void> write(User user) {
+        return add(user, true);
+    }
+
+    /**
+     * Writes every queued user straight away.
+     *
+     * @return Completes once they have been written
+     */
+    public synchronized CompletableFuture<Void> flush() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[queue.size()];
+        int i = 0;
+        for (Queued queued : queue.values()) futures[i++] = queued.written();
+        urgent = true;
+        notifyAll();
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * @return The number of users waiting to be written
+     */
+    public synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of batches written, each forcing the store to disk once
+     */
+    public synchronized long batches() {
+        return batches;
+    }
+
+    /**
+     * @return The number of snapshots written
+     */
+    public synchronized long written() {
+        return written;
+    }
+
+    public Durability durability() {
+        return durability;
+    }
+
+    /**
+     * Writes every queued user, and stops the thread. Users queued afterwards are written straight away,
+     * on the caller's thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized CompletableFuture<Void> add(User user, boolean now) {
+        if (stopped) {
+            // Too late for the thread, which stopped when the writer was closed
+            LinkedHashMap<String, Queued> batch = new LinkedHashMap<>();
+            batch.put(user.name(), new Queued(user, new CompletableFuture<>()));
+            write(batch);
+            return batch.get(user.name()).written();
+        }
+        // The latest object stands in for the user, and is written for every round queued so far
+        Queued old = queue.get(user.name());
+        CompletableFuture<Void> future = old == null ? new CompletableFuture<>() : old.written();
+        queue.put(user.name(), new Queued(user, future));
+        if (now || queue.size() >= MAX_QUEUE) urgent = true;
+        if (urgent) notifyAll();
+        return future;
+    }
+
+    private void run() {
+        while (true) {
+            LinkedHashMap<String, Queued> batch;
+            synchronized (this) {
+                try {
+                    while (!ready()) {
+                        if (closed) {
+                            stopped = true;
+                            return;
+                        }
+                        if (durability == Durability.INTERVAL && !queue.isEmpty()) {
+                            wait(Math.max(1, lastFlush + intervalMillis - System.currentTimeMillis()));
+                        } else {
+                            wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    stopped = true;
+                    return;
+                }
+                batch = queue;
+                queue = new LinkedHashMap<>();
+                urgent = false;
+                lastFlush = System.currentTimeMillis();
+            }
+            write(batch);
+        }
+    }
+
+    /**
+     * @return If the queue should be written now. Called holding the lock
+     */
+    private boolean ready() {
+        if (queue.isEmpty()) return false;
+        return urgent || closed || switch (durability) {
+            case ROUND -> true;
+            case INTERVAL -> System.currentTimeMillis() - lastFlush >= intervalMillis;
+            case SHUTDOWN -> false;
+        };
+    }
+
+    /**
+     * Writes a batch of users, forcing each store they are kept in to disk once, after all their snapshots.
+     */
+    private void write(Map<String, Queued> batch) {
+        long start = System.nanoTime();
+        List<HistoryJournal.Compaction> compactions = new ArrayList<>(batch.size());
+        Set<UserStore> stores = new LinkedHashSet<>();
+        RuntimeException failure = null;
+        try {
+            for (Queued queued : batch.values()) {
+                HistoryJournal.Compaction compaction = queued.user().compact();
+                compaction.write();
+                compactions.add(compaction);
+                stores.add(compaction.store());
+            }
+            // The journals are the only other copy, so the snapshots must reach the disk before they are deleted
+            for (UserStore store : stores) store.sync();
+            for (HistoryJournal.Compaction compaction : compactions) compaction.deleteJournals();
+        } catch (RuntimeException e) {
+            // The journals not deleted are replayed on recovery, so no change is lost
+            failure = e;
+        }
+        Metrics.recordDuration(Metrics.Operation.HISTORY_FLUSH, System.nanoTime() - start);
+        synchronized (this) {
+            batches++;
+            written += compactions.size();
+        }
+        for (Queued queued : batch.values()) {
+            if (failure == null) {
+                queued.written().complete(null);
+            } else {
+                queued.written().completeExceptionally(failure);
+            }
+        }
+        if (failure != null) System.err.println("Could not save histories: " + failure.getMessage());
+    }
+}
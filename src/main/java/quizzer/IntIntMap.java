@@ -0,0 +1,187 @@
+package quizzer;
+
+/**
+ * A map from int keys to int values, stored in two flat arrays with no boxing.
+ * <p>
+ * Uses open addressing with linear probing, kept at most half full, so each entry costs
+ * 16 to 32 bytes rather than the hundred or so of a {@code HashMap<String, Integer>} entry.
+ * Entries are never removed. Not thread-safe.
+ */
+public class IntIntMap {
+
+    /**
+     * Marks an empty slot. The key 0 itself is stored outside the table
+     */
+    private static final int FREE = 0;
+
+    /**
+     * Receives the entries of a map.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private boolean hasZero;
+    private int zeroValue;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected Number of entries to make room for
+     */
+    public IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) return hasZero;
+        return keys[slot(key)] == key;
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        if (key == FREE) return hasZero ? zeroValue : defaultValue;
+        int slot = slot(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Sets the value for a key, adding it if needed.
+     */
+    public void put(int key, int value) {
+        if (key == FREE) {
+            if (!hasZero) size++;
+            hasZero = true;
+            zeroValue = value;
+            return;
+        }
+        int slot = slot(key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                values[slot] = value;
+                grow();
+                return;
+            }
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Calls the action for each entry, in no particular order.
+     */
+    public void forEach(EntryConsumer action) {
+        if (hasZero) action.accept(FREE, zeroValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) action.accept(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * @return The keys, in no particular order
+     */
+    public int[] keys() {
+        int[] out = new int[size];
+        int n = 0;
+        if (hasZero) out[n++] = FREE;
+        for (int key : keys) {
+            if (key != FREE) out[n++] = key;
+        }
+        return out;
+    }
+
+    /**
+     * @return The sum of the values
+     */
+    public long sum() {
+        long sum = hasZero ? zeroValue : 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) sum += values[i];
+        }
+        return sum;
+    }
+
+    public IntIntMap copy() {
+        IntIntMap copy = new IntIntMap(1);
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        copy.hasZero = hasZero;
+        copy.zeroValue = zeroValue;
+        return copy;
+    }
+
+    /**
+     * Adds every entry of another map, replacing the values of keys in both.
+     */
+    public void putAll(IntIntMap other) {
+        other.forEach(this::put);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IntIntMap other) || other.size != size) return false;
+        if (hasZero && (!other.hasZero || other.zeroValue != zeroValue)) return false;
+        for (int i = 0; i < keys.length; i++) {
+            int key = keys[i];
+            if (key == FREE) continue;
+            int slot = other.slot(key);
+            if (other.keys[slot] != key || other.values[slot] != values[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // Order independent, since equal maps may hold their entries in different slots
+        int hash = hasZero ? zeroValue : 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) hash += keys[i] ^ values[i];
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> builder.append(builder.length() > 1 ? ", " : "").append(key).append('=').append(value));
+        return builder.append('}').toString();
+    }
+
+    /**
+     * @return The slot holding the key, or the free slot where it would go
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        // Fibonacci hashing spreads keys that differ only in their high bits
+        int slot = (key * 0x9E3779B9 >>> 16 ^ key * 0x9E3779B9) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
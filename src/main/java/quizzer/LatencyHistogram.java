@@ -0,0 +1,143 @@
+package quizzer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, for reporting latency percentiles.
+ * <p>
+ * Values are counted in log-linear buckets: exact below {@value #LINEAR}, then 32 buckets for each power of two,
+ * so every percentile is within about 3% of the true value. Memory is fixed no matter how many values are recorded,
+ * and recording is lock-free, so many threads can share one histogram.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Values below this are counted exactly
+     */
+    private static final int LINEAR = 64;
+    /**
+     * Bits of precision kept for larger values, giving 32 buckets per power of two
+     */
+    private static final int PRECISION = 5;
+    private static final int SUB_BUCKETS = 1 << PRECISION;
+    /**
+     * Enough buckets for any non-negative long
+     */
+    private static final int BUCKETS = LINEAR + (63 - 6) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration in nanoseconds. Negative values are counted as zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Records the time since a start time taken from {@link System#nanoTime()}.
+     *
+     * @param startNanos The start time
+     * @return The current time, so consecutive steps can be timed without reading the clock twice
+     */
+    public long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * @return The number of durations recorded
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return The mean duration in nanoseconds, or 0 if nothing has been recorded
+     */
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @return The longest duration recorded, in nanoseconds
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the duration that the given fraction of recorded durations are no longer than.
+     *
+     * @param p The fraction, from 0 to 1. For example 0.99 for the 99th percentile
+     * @return The duration in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long percentile(double p) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            // The top bucket's upper bound can overshoot, but never past the largest value seen
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     * Durations recorded during the reset may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Formats the count and the main percentiles.
+     *
+     * @param unit Unit to show durations in
+     * @return A single line summary
+     */
+    public String summary(TimeUnit unit) {
+        double scale = unit.toNanos(1);
+        return String.format("n=%d mean=%.1f p50=%.1f p99=%.1f p999=%.1f max=%.1f %s", count(), mean() / scale,
+                percentile(0.5) / scale, percentile(0.99) / scale, percentile(0.999) / scale, max() / scale,
+                unit.name().toLowerCase());
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - PRECISION)) - SUB_BUCKETS;
+        return LINEAR + (exponent - 6) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * @return The largest value that falls in the given bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 6;
+        long mantissa = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = exponent - PRECISION;
+        // The lower bound plus the width minus one, so the top bucket ends at Long.MAX_VALUE without overflowing
+        return (mantissa << shift) + ((1L << shift) - 1);
+    }
+}
@@ -0,0 +1,249 @@
+package quizzer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Offline load generator, for measuring how many rounds per second the quiz can sustain, and its tail latency.
+ * <p>
+ * Simulated users play rounds of the Random, Escalation and Redemption gamemodes in turn, against
+ * generated question banks, in a temporary data folder that is deleted afterwards.
+ * Each user plays on one thread with no pauses, calling {@link QuizSession} directly as the server does.
+ * <p>
+ * Usage: {@code java quizzer.LoadGenerator [--option value]...}. Options, with their defaults:
+ * <pre>{@code
+ * --users 100        simulated users
+ * --rounds 20        rounds played by each user
+ * --threads N        threads the users are spread over, by default one per processor
+ * --topics 4         generated topics
+ * --questions 50     questions in each topic, and so in each round
+ * --strategy mixed   random: any option; correct: always right; wrong: always wrong;
+ *                    mixed: each user is right with their own probability
+ * --save-every 5     rounds between full history saves, or 0 to never save
+ * --seed 1           seed for the generated users and their answers
+ * }</pre>
+ * Run with {@code -Dquizzer.metrics=true} to also print the app's own {@link Metrics}.
+ * The report gives throughput, and latency percentiles for each step of a round:
+ * <pre>{@code
+ * start    ordering a round's questions for its gamemode
+ * deliver  showing a question, QuizSession.nextPrompt
+ * answer   recording an answer in the history and journal, QuizSession.submitAnswer
+ * finish   the last answer of a round, which also records the round and updates the leaderboard
+ * save     writing the whole history and starting a new journal, User.save
+ * stats    every Statistic of the user, their rank and the leaderboard
+ * }</pre>
+ */
+public class LoadGenerator {
+
+    /**
+     * How a simulated user chooses their answers.
+     */
+    public enum Strategy {
+        RANDOM,
+        CORRECT,
+        WRONG,
+        MIXED
+    }
+
+    private static final Gamemode[] MODES = {Gamemode.RANDOM, Gamemode.ESCALATION, Gamemode.REDEMPTION};
+
+    private int users = 100;
+    private int rounds = 20;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int topics = 4;
+    private int questions = 50;
+    private Strategy strategy = Strategy.MIXED;
+    private int saveEvery = 5;
+    private long seed = 1;
+
+    private final LatencyHistogram start = new LatencyHistogram();
+    private final LatencyHistogram deliver = new LatencyHistogram();
+    private final LatencyHistogram answer = new LatencyHistogram();
+    private final LatencyHistogram finish = new LatencyHistogram();
+    private final LatencyHistogram save = new LatencyHistogram();
+    private final LatencyHistogram stats = new LatencyHistogram();
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--users" -> generator.users = Integer.parseInt(value);
+                case "--rounds" -> generator.rounds = Integer.parseInt(value);
+                case "--threads" -> generator.threads = Integer.parseInt(value);
+                case "--topics" -> generator.topics = Integer.parseInt(value);
+                case "--questions" -> generator.questions = Integer.parseInt(value);
+                case "--strategy" -> generator.strategy = Strategy.valueOf(value.toUpperCase());
+                case "--save-every" -> generator.saveEvery = Integer.parseInt(value);
+                case "--seed" -> generator.seed = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        generator.run();
+    }
+
+    /**
+     * Sets up the data folder, plays every round, prints the report, and cleans up.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public void run() {
+        File root;
+        try {
+            root = Files.createTempDirectory("quizzer-load").toFile();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Must be set before anything touches GameData
+        System.setProperty(GameData.PROPERTY, new File(root, "GameData").getPath());
+        File bank = new File(root, "questions");
+        bank.mkdirs();
+        for (int t = 0; t < topics; t++) writeTopic(new File(bank, "Topic" + t + ".txt"), t);
+        QuestionLoader loader = new QuestionLoader(bank, Math.max(1, topics));
+
+        System.out.printf("%d users x %d rounds of %d questions, %s answers, on %d threads%n",
+                users, rounds, questions, strategy.name().toLowerCase(), threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long began = System.nanoTime();
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int u = 0; u < users; u++) {
+                int id = u;
+                running.add(pool.submit(() -> play(id, loader)));
+            }
+            for (Future<?> future : running) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            delete(root);
+        }
+        report(System.nanoTime() - began);
+    }
+
+    /**
+     * Plays every round for one user.
+     */
+    private void play(int id, QuestionLoader loader) {
+        Random random = new Random(seed * 31 + id);
+        User user = UserRegistry.get("load" + id);
+        // Chance of answering correctly, for the mixed strategy
+        double skill = random.nextDouble();
+        for (int round = 0; round < rounds; round++) {
+            String topic = "Topic" + random.nextInt(topics);
+            Gamemode mode = MODES[round % MODES.length];
+
+            long time = System.nanoTime();
+            List<Question> order = new Quiz(topic, user, loader, null).questions(mode);
+            QuizSession session = new QuizSession(topic, mode, order, user, new Random(random.nextLong()));
+            time = start.recordSince(time);
+            while (!session.isFinished()) {
+                QuizSession.Prompt prompt = session.nextPrompt();
+                time = deliver.recordSince(time);
+                int choice = choose(prompt, order.get(prompt.number() - 1).answer(), skill, random);
+                boolean last = prompt.number() == prompt.total();
+                // Choosing is the player's time, not the system's
+                time = System.nanoTime();
+                session.submitAnswer(choice);
+                time = (last ? finish : answer).recordSince(time);
+            }
+            if (saveEvery > 0 && (round + 1) % saveEvery == 0) {
+                try {
+                    user.save().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+                time = save.recordSince(time);
+            }
+            for (Statistic statistic : Statistic.values()) user.getStatistic(statistic);
+            UserAggregates.shared().rank(user.name());
+            User.leaderboard();
+            stats.recordSince(time);
+        }
+    }
+
+    private int choose(QuizSession.Prompt prompt, String correctAnswer, double skill, Random random) {
+        int correct = prompt.options().indexOf(correctAnswer);
+        int options = prompt.options().size();
+        // Any option other than the correct one
+        int wrong = (correct + 1 + random.nextInt(options - 1)) % options;
+        return switch (strategy) {
+            case RANDOM -> random.nextInt(options);
+            case CORRECT -> correct;
+            case WRONG -> wrong;
+            case MIXED -> random.nextDouble() < skill ? correct : wrong;
+        };
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long totalRounds = finish.count();
+        long answers = answer.count() + finish.count();
+        System.out.printf("%d rounds in %.2f s: %.1f rounds/s, %.1f answers/s%n",
+                totalRounds, seconds, totalRounds / seconds, answers / seconds);
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s  (microseconds)%n",
+                "", "count", "mean", "p50", "p99", "p999", "max");
+        row("start", start);
+        row("deliver", deliver);
+        row("answer", answer);
+        row("finish", finish);
+        row("save", save);
+        row("stats", stats);
+        if (Metrics.enabled()) {
+            System.out.println("Metrics:");
+            for (Metrics.Operation operation : Metrics.Operation.values()) {
+                row(operation.name().toLowerCase(), Metrics.latency(operation));
+            }
+            System.out.println("Slowest questions:");
+            Metrics.slowestQuestions(5).forEach(q -> System.out.println("  " + q));
+        }
+    }
+
+    static void row(String name, LatencyHistogram histogram) {
+        System.out.printf("%-20s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, histogram.count(),
+                histogram.mean() / 1e3, histogram.percentile(0.5) / 1e3, histogram.percentile(0.99) / 1e3,
+                histogram.percentile(0.999) / 1e3, histogram.max() / 1e3);
+    }
+
+    /**
+     * Writes a topic with the difficulties spread evenly over its questions.
+     */
+    private void writeTopic(File file, int topic) {
+        Question.Difficulty[] difficulties = Question.Difficulty.values();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            for (int i = 0; i < questions; i++) {
+                writer.printf("Topic %d question %d?|Answer %d|Wrong %d a|Wrong %d b|Wrong %d c|%s%n",
+                        topic, i, i, i, i, i, difficulties[i % difficulties.length]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    static void delete(File folder) {
+        try (Stream<File> files = Files.walk(folder.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile)) {
+            files.forEach(File::delete);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package quizzer;
+
+import java.io.*;
+import java.util.concurrent.CompletionException;
+
+
+public class Login {
+
+    private final CredentialStore store;
+
+    /**
+     * Creates a new Login object.
+     * <p>
+     * Credentials are kept in a {@link CredentialStore} next to the given file.
+     * If the store does not exist yet, the accounts in the given file are imported into it.
+     *
+     * @param userFile File in which credentials were saved by older versions of Quizzer
+     */
+    public Login(File userFile) {
+        this(new CredentialStore(new File(userFile.getAbsoluteFile().getParentFile(), "credentials.idx"),
+                userFile, CredentialStore.DEFAULT_ITERATIONS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a new Login object backed by the given store.
+     *
+     * @param store The store in which credentials are saved
+     */
+    public Login(CredentialStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return The underlying credential store, for callers that don't want console messages
+     */
+    public CredentialStore store() {
+        return store;
+    }
+
+    /**
+     * Creates a user with the given username and password.
+     *
+     * @param user     The username of the user
+     * @param password The password of the user
+     * @return If the user was created successfully
+     */
+    public boolean createUser(String user, String password) {
+        boolean created;
+        try {
+            created = store.register(user, password).join();
+        } catch (CompletionException e) {
+            System.out.println("User could not be created: " + e.getCause().getMessage());
+            Main.promptEnter();
+            return false;
+        }
+        if (!created) {
+            System.out.println("User already exists.");
+            Main.promptEnter();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks a given username and password to see if they are equal
+     *
+     * @param user     The username of the user
+     * @param password The password of the user
+     * @return If the login was successful
+     */
+    public boolean checkCredentials(String user, String password) {
+        if (!store.exists(user)) {
+            System.out.println("Username not found");
+            Main.promptEnter();
+            return false;
+        }
+        String token;
+        try {
+            token = store.login(user, password).join();
+        } catch (CompletionException e) {
+            System.out.println("Could not log in: " + e.getCause().getMessage());
+            Main.promptEnter();
+            return false;
+        }
+        if (token == null) {
+            System.out.println("Incorrect password");
+            Main.promptEnter();
+            return false;
+        }
+        return true;
+    }
+}
@@ -1,6 +1,11 @@
+package quizzer;
+
+import java.io.Closeable;
 import java.io.Console;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
@@ -17,8 +22,19 @@ public class Main {
              \\___\\_\\\\____/|_____/_____/_____|______|_|  \\_\\""";
 
     public static void main(String[] args) {
-        // Print message when the program closes, even unexpectedly
+        Metrics.register();
+        if (args.length > 0 && args[0].equals("--server")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : QuizServer.DEFAULT_PORT);
+            return;
+        }
+        QuestionLoader loader = new QuestionLoader(new File("res/questions/"));
+        // Topic files can be edited while playing, see QuestionLoader.watch
+        Closeable watcher = loader.watch();
+        // Save the user and print a message when the program closes, even unexpectedly
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closeQuietly(watcher);
+            HistoryWriter.shared().close();
+            SessionTrace.stop();
             clearScreen();
             System.out.println("Thanks for playing!");
             System.out.println(QUIZZER);
@@ -29,12 +45,10 @@ public class Main {
         System.out.println(QUIZZER);
         System.out.println("Welcome to Quizzer!");
         promptEnter();
-        QuestionLoader loader = new QuestionLoader(new File("res/questions/"));
         Scanner scanner = new Scanner(System.in);
-        String[] topics = loader.listTopics();
 
         // Login
-        Login login = new Login(new File("GameData/users.txt"));
+        Login login = new Login(GameData.file("users.txt"));
         User user;
         String loginPrompt = """
                 Are you a new or existing user?
@@ -48,7 +62,7 @@ public class Main {
                     Debugging mode enabled.
                     If you want the full experience, run Quizzer from a terminal.""");
             promptEnter();
-            user = new User("IDE");
+            user = UserRegistry.get("IDE");
         } else {
             boolean isExistingUser = promptInput(1, loginPrompt, scanner) == 1;
             if (isExistingUser) {
@@ -61,24 +75,52 @@ public class Main {
         // Continuously ask questions
         //noinspection InfiniteLoopStatement
         while (true) {
+            String[] topics = loader.listTopics();
             int choice = chooseTopic(topics, scanner);
             if (choice == topics.length) {
                 showStats(user);
                 continue;
             }
-            Quiz quiz = new Quiz(topics[choice], user, loader, scanner);
-            int mode = promptInput(2, """
-                    Choose a gamemode:
-                    (0) Random
-                    (1) Escalation
-                    (2) Redemption""", scanner);
-            switch (mode) {
-                case 0 -> quiz.askRandom();
-                case 1 -> quiz.askEscalation();
-                case 2 -> quiz.askRedemption();
-                default -> {
-                } //unreachable, since promptInput does not allow invalid inputs
+            if (choice == topics.length + 1) {
+                searchQuiz(loader, user, scanner);
+                continue;
             }
+            Quiz quiz = new Quiz(topics[choice], user, loader, scanner);
+            quiz.ask(chooseGamemode(scanner));
+        }
+    }
+
+    /**
+     * Runs a {@link QuizServer} until the process is stopped.
+     *
+     * @param port Port to listen on
+     */
+    public static void serve(int port) {
+        QuestionLoader loader = new QuestionLoader(new File("res/questions/"));
+        Closeable watcher = loader.watch();
+        Login login = new Login(GameData.file("users.txt"));
+        QuizServer server = new QuizServer(port, loader, login);
+        // Players waiting to be saved are saved when the server is stopped, and the trace being recorded is finished
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closeQuietly(watcher);
+            HistoryWriter.shared().close();
+            SessionTrace.stop();
+        }));
+        server.start();
+        System.out.printf("Quizzer server listening on localhost:%d%n", server.port());
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Closes something while the process shuts down, when there is nothing left to do about a failure.
+     */
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
         }
     }
 
@@ -96,7 +138,51 @@ public class Main {
             builder.append(String.format("(%d) %s%n", i, topics[i]));
         }
         builder.append(String.format("%n(%d) %s", options, "Show stats"));
-        return promptInput(options, builder.toString(), scanner);
+        builder.append(String.format("%n(%d) %s", options + 1, "Search quiz"));
+        return promptInput(options + 1, builder.toString(), scanner);
+    }
+
+    /**
+     * Prompts the user for keywords, and quizzes them on the matching questions from every topic.
+     *
+     * @param loader  The loader whose topics are searched
+     * @param user    The player
+     * @param scanner Scanner object to receive input
+     */
+    public static void searchQuiz(QuestionLoader loader, User user, Scanner scanner) {
+        clearScreen();
+        System.out.println("""
+                Enter keywords to search every topic for.
+                End a word with * to match words starting with it, e.g. eigen*
+                Start a word with # to match a tag, e.g. #crypto""");
+        System.out.print("Search: ");
+        String query = scanner.nextLine();
+        // The rest of the line holding the menu choice may still be waiting
+        while (query.isBlank()) query = scanner.nextLine();
+        List<Question> found = loader.search(query);
+        if (found.isEmpty()) {
+            System.out.println("No questions matched " + query);
+            promptEnter();
+            return;
+        }
+        System.out.printf("Found %d questions.%n", found.size());
+        promptEnter();
+        new Quiz("Search: " + query.trim(), found, user, scanner).ask(chooseGamemode(scanner));
+    }
+
+    /**
+     * Prompts the user to select a gamemode
+     *
+     * @param scanner Scanner object to receive input
+     * @return The user's choice
+     */
+    public static Gamemode chooseGamemode(Scanner scanner) {
+        Gamemode[] modes = Gamemode.values();
+        StringBuilder builder = new StringBuilder("Choose a gamemode:");
+        for (int i = 0; i < modes.length; i++) {
+            builder.append(String.format("%n(%d) %s", i, modes[i].label));
+        }
+        return modes[promptInput(modes.length - 1, builder.toString(), scanner)];
     }
 
     /**
@@ -164,7 +250,7 @@ public class Main {
         }
         System.out.println("Welcome back to Quizzer!");
         promptEnter();
-        return new User(user);
+        return UserRegistry.get(user);
     }
 
     /**
@@ -196,7 +282,7 @@ public class Main {
         }
         System.out.println("Success! Welcome to Quizzer!");
         promptEnter();
-        return new User(name);
+        return UserRegistry.get(name);
     }
 
     public static void showStats(User user) {
@@ -206,6 +292,12 @@ public class Main {
         System.out.printf("Mean: %.2f%n", user.getStatistic(Statistic.MEAN));
         System.out.printf("Median: %.2f%n", user.getStatistic(Statistic.MEDIAN));
         System.out.printf("StdDev: %.2f%n", User.stdDev());
+        UserAggregates aggregates = UserAggregates.shared();
+        int rank = aggregates.rank(user.name());
+        if (rank > 0) {
+            System.out.printf("Rank: %d of %d (better than %.0f%% of users)%n",
+                    rank, aggregates.users(), aggregates.percentile(user.name()));
+        }
         System.out.println();
         System.out.println(User.leaderboard());
         promptEnter();
@@ -0,0 +1,298 @@
+package quizzer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the operations where the app spends its time,
+ * and the time players take to answer each question.
+ * <p>
+ * Metrics are off unless the {@value #PROPERTY} system property is true, or they are turned on through
+ * {@link #setEnabled(boolean)} or JMX. When off, timing an operation costs one volatile read.
+ * They are published over JMX by {@link #register()}.
+ * <p>
+ * Independently of this, the operations emit JFR events in the "Quizzer" category,
+ * which cost nothing unless a flight recording with those events enabled is running.
+ */
+public final class Metrics {
+
+    /**
+     * System property that turns metrics on at startup
+     */
+    public static final String PROPERTY = "quizzer.metrics";
+    public static final String OBJECT_NAME = "quizzer:type=Metrics";
+
+    /**
+     * The operations that are timed.
+     */
+    public enum Operation {
+        /**
+         * Reading a topic from its text file or compiled bank
+         */
+        TOPIC_LOAD,
+        /**
+         * Reading a user's history file and journals
+         */
+        HISTORY_LOAD,
+        /**
+         * Appending an answer or round to a user's journal
+         */
+        JOURNAL_WRITE,
+        /**
+         * Putting a user's whole history in the store
+         */
+        HISTORY_SAVE,
+        /**
+         * Writing a batch of users' histories, and forcing them to disk
+         */
+        HISTORY_FLUSH,
+        /**
+         * Querying one of a user's statistics
+         */
+        STATS_QUERY,
+        /**
+         * Querying the leaderboard or population statistics
+         */
+        LEADERBOARD,
+        /**
+         * Rebuilding the leaderboard by reading every history file
+         */
+        LEADERBOARD_REBUILD,
+        /**
+         * A player answering a question, from being shown it to answering
+         */
+        ANSWER
+    }
+
+    /**
+     * Value returned by {@link #start()} when metrics are off
+     */
+    private static final long OFF = Long.MIN_VALUE;
+
+    private static volatile boolean enabled = Boolean.getBoolean(PROPERTY);
+    private static final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private static final ConcurrentHashMap<String, QuestionTimes> questions = new ConcurrentHashMap<>();
+    private static boolean registered;
+
+    static {
+        for (Operation operation : Operation.values()) latencies.put(operation, new LatencyHistogram());
+    }
+
+    /**
+     * Answer times for one question.
+     */
+    private static class QuestionTimes {
+        final LongAdder answers = new LongAdder();
+        final LongAdder correct = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        double meanNanos() {
+            long n = answers.sum();
+            return n == 0 ? 0 : (double) nanos.sum() / n;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return The start time, to be passed to {@link #record}
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : OFF;
+    }
+
+    /**
+     * Finishes timing an operation. Does nothing if metrics were off when it started.
+     *
+     * @param operation The operation that was timed
+     * @param start     The value returned by {@link #start()}
+     */
+    public static void record(Operation operation, long start) {
+        if (start != OFF) latencies.get(operation).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the duration of an operation that was timed anyway. Does nothing if metrics are off.
+     *
+     * @param operation The operation that was timed
+     * @param nanos     How long it took
+     */
+    public static void recordDuration(Operation operation, long nanos) {
+        if (enabled) latencies.get(operation).record(nanos);
+    }
+
+    /**
+     * Records how long a player took to answer a question.
+     *
+     * @param question The question text
+     * @param correct  If the answer was correct
+     * @param nanos    How long the question was shown before it was answered, or ran out of time
+     */
+    public static void answered(String question, boolean correct, long nanos) {
+        if (!enabled) return;
+        latencies.get(Operation.ANSWER).record(nanos);
+        QuestionTimes times = questions.computeIfAbsent(question, q -> new QuestionTimes());
+        times.answers.increment();
+        if (correct) times.correct.increment();
+        times.nanos.add(nanos);
+    }
+
+    /**
+     * @param operation The operation
+     * @return The operation's latencies, in nanoseconds
+     */
+    public static LatencyHistogram latency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * @param limit Maximum number of questions to list
+     * @return The questions with the longest mean answer time, longest first
+     */
+    public static List<String> slowestQuestions(int limit) {
+        List<Map.Entry<String, QuestionTimes>> entries = new ArrayList<>(questions.entrySet());
+        entries.sort(Comparator.comparingDouble((Map.Entry<String, QuestionTimes> e) -> e.getValue().meanNanos()).reversed());
+        List<String> slowest = new ArrayList<>();
+        for (var entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            QuestionTimes times = entry.getValue();
+            slowest.add(String.format("%.1f ms, %d%% correct of %d: %s", times.meanNanos() / 1e6,
+                    100 * times.correct.sum() / Math.max(1, times.answers.sum()), times.answers.sum(), entry.getKey()));
+        }
+        return slowest;
+    }
+
+    public static void reset() {
+        latencies.values().forEach(LatencyHistogram::reset);
+        questions.clear();
+    }
+
+    /**
+     * Publishes the metrics over JMX as {@value #OBJECT_NAME}. Calling this again does nothing.
+     */
+    public static synchronized void register() {
+        if (registered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+        registered = true;
+    }
+
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return enabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public Map<String, String> getLatencies() {
+            Map<String, String> out = new LinkedHashMap<>();
+            latencies.forEach((operation, histogram) -> out.put(operation.name(), histogram.summary(TimeUnit.MICROSECONDS)));
+            return out;
+        }
+
+        @Override
+        public long count(String operation) {
+            return latency(Operation.valueOf(operation)).count();
+        }
+
+        @Override
+        public double percentile(String operation, double percentile) {
+            return latency(Operation.valueOf(operation)).percentile(percentile / 100) / 1e3;
+        }
+
+        @Override
+        public int getHistoryQueueDepth() {
+            return HistoryWriter.shared().queueDepth();
+        }
+
+        @Override
+        public String[] slowestQuestions(int limit) {
+            return Metrics.slowestQuestions(limit).toArray(new String[0]);
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+    @Name("quizzer.TopicLoad")
+    @Label("Topic Load")
+    @Category("Quizzer")
+    @Description("A topic read from disk")
+    static final class TopicLoadEvent extends Event {
+        @Label("Topic")
+        String topic;
+        @Label("Questions")
+        int questions;
+        @Label("Compiled")
+        boolean compiled;
+    }
+
+    @Name("quizzer.HistoryLoad")
+    @Label("History Load")
+    @Category("Quizzer")
+    @Description("A user's history read from its file and journals")
+    static final class HistoryLoadEvent extends Event {
+        @Label("User")
+        String user;
+        @Label("Entries")
+        int entries;
+    }
+
+    @Name("quizzer.HistorySave")
+    @Label("History Save")
+    @Category("Quizzer")
+    @Description("A user's whole history written to its file")
+    static final class HistorySaveEvent extends Event {
+        @Label("User")
+        String user;
+        @Label("Entries")
+        int entries;
+    }
+
+    @Name("quizzer.StatsQuery")
+    @Label("Stats Query")
+    @Category("Quizzer")
+    @Description("A user statistic, or the leaderboard, was queried")
+    static final class StatsQueryEvent extends Event {
+        @Label("User")
+        String user;
+        @Label("Query")
+        String query;
+    }
+}
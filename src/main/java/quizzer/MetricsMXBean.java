@@ -0,0 +1,48 @@
+package quizzer;
+
+import java.util.Map;
+
+/**
+ * Management interface for {@link Metrics}, registered as {@value Metrics#OBJECT_NAME}.
+ * Durations are in microseconds.
+ */
+public interface MetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return For each operation, its count, mean and percentiles
+     */
+    Map<String, String> getLatencies();
+
+    /**
+     * @param operation The name of a {@link Metrics.Operation}
+     * @return How many times the operation has been timed
+     */
+    long count(String operation);
+
+    /**
+     * @param operation  The name of a {@link Metrics.Operation}
+     * @param percentile The percentile, from 0 to 100
+     * @return The operation's latency at that percentile
+     */
+    double percentile(String operation, double percentile);
+
+    /**
+     * @return The number of users waiting to be saved, see {@link HistoryWriter}
+     */
+    int getHistoryQueueDepth();
+
+    /**
+     * @param limit Maximum number of questions to list
+     * @return The questions players take longest to answer, with their mean time and correct rate
+     */
+    String[] slowestQuestions(int limit);
+
+    /**
+     * Forgets every measurement so far.
+     */
+    void reset();
+}
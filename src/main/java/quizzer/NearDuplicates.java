@@ -0,0 +1,421 @@
+package quizzer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Finds questions that are nearly the same, differing only in case, punctuation or a little wording,
+ * using MinHash signatures and locality-sensitive hashing, in time roughly linear in the number of questions.
+ * <p>
+ * A question is reduced to the lowercase words of its text, its answer and its wrong answers, sorted, so questions
+ * that only share a stem, such as "Which of these is true?", are told apart by what they offer. These are split
+ * into overlapping runs of {@value #SHINGLE} characters. Its signature is the minimum of each of {@value #HASHES} hash functions over those runs, of which
+ * 16 bits are kept, so two signatures agree in about the same fraction of places as the questions share runs.
+ * The signature is stored as {@value #BANDS} longs of {@value #ROWS} minimums each, and questions are only compared
+ * if they agree on every minimum of some band: each band's values are sorted, and each question in a run of equal
+ * values is compared with the first and previous questions in the run. Pairs at or above the threshold are joined
+ * into clusters, whose first question, in the order given, is the one kept.
+ * <p>
+ * A signature takes {@value #BANDS} longs and nothing else is kept per question, so millions of questions fit
+ * comfortably in memory. Signing runs on the common fork-join pool.
+ * <p>
+ * Usage: {@code java quizzer.NearDuplicates [--questions folder] [--threshold 0.8] [--report file] [--merge]}
+ * <br>
+ * Searches every text topic in the folder, across topics, and writes the clusters to a tab-separated report,
+ * {@code duplicates.tsv} unless told otherwise. With {@code --merge}, the topic files are rewritten without the
+ * duplicates, keeping the first question of each cluster, by topic name then file order.
+ * <p>
+ * When loading, set the {@value #PROPERTY} system property to a threshold, e.g. {@code 0.8},
+ * to have {@link QuestionLoader} drop the near-duplicates within each topic it loads.
+ */
+public class NearDuplicates {
+
+    /**
+     * System property giving the threshold for dropping near-duplicates at load time, or {@code true} for the default
+     */
+    public static final String PROPERTY = "quizzer.dedup";
+    public static final double DEFAULT_THRESHOLD = 0.8;
+    /**
+     * Characters in each run of text compared
+     */
+    static final int SHINGLE = 4;
+    static final int HASHES = 64;
+    static final int ROWS = 4;
+    static final int BANDS = HASHES / ROWS;
+    /**
+     * Questions signed at a time while reading topic files
+     */
+    private static final int BATCH = 1 << 16;
+
+    /**
+     * Multipliers and offsets of the hash functions, the same in every run so signatures can be compared
+     */
+    private static final long[] MULTIPLIERS = new long[HASHES];
+    private static final long[] OFFSETS = new long[HASHES];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x51554953L);
+        for (int i = 0; i < HASHES; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            OFFSETS[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * What a search of a folder found.
+     *
+     * @param questions  Questions read from every topic
+     * @param clusters   Groups of near-duplicates found
+     * @param duplicates Questions that duplicate the first of their cluster, and were removed if merging
+     * @param nanos      How long the search took
+     */
+    public record Result(long questions, long clusters, long duplicates, long nanos) {
+    }
+
+    private final double threshold;
+
+    /**
+     * @param threshold The fraction of their signatures two questions must share to count as duplicates,
+     *                  which estimates the fraction of their text they share
+     */
+    public NearDuplicates(double threshold) {
+        if (threshold <= 0 || threshold > 1) throw new IllegalArgumentException("Threshold must be in (0, 1]");
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return The finder set by the {@value #PROPERTY} system property, or null if it is not set
+     */
+    public static NearDuplicates configured() {
+        String value = System.getProperty(PROPERTY);
+        if (value == null || value.equals("false")) return null;
+        return new NearDuplicates(value.equals("true") ? DEFAULT_THRESHOLD : Double.parseDouble(value));
+    }
+
+    public double threshold() {
+        return threshold;
+    }
+
+    public static void main(String[] args) {
+        File questions = new File("res/questions/");
+        File report = new File("duplicates.tsv");
+        double threshold = DEFAULT_THRESHOLD;
+        boolean merge = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--questions" -> questions = new File(args[++i]);
+                case "--threshold" -> threshold = Double.parseDouble(args[++i]);
+                case "--report" -> report = new File(args[++i]);
+                case "--merge" -> merge = true;
+                default -> {
+                    System.err.println("Usage: NearDuplicates [--questions folder] [--threshold 0.8] [--report file] [--merge]");
+                    System.exit(2);
+                }
+            }
+        }
+        Result result = new NearDuplicates(threshold).search(questions, report, merge);
+        System.out.printf("%d near-duplicates in %d clusters, of %d questions, found in %.1f s. Report written to %s%n",
+                result.duplicates(), result.clusters(), result.questions(), result.nanos() / 1e9, report);
+        if (merge) System.out.println("Duplicates removed from the topics in " + questions);
+    }
+
+    /**
+     * Drops the near-duplicates from a list of questions, keeping the first of each.
+     *
+     * @param questions The questions, which are not changed
+     * @return The questions that are kept, in the same order
+     */
+    public ArrayList<Question> distinct(List<Question> questions) {
+        long[] signatures = new long[questions.size() * BANDS];
+        IntStream.range(0, questions.size()).parallel()
+                .forEach(i -> sign(signedText(questions.get(i)), signatures, i * BANDS));
+        int[] kept = cluster(signatures, questions.size());
+        ArrayList<Question> out = new ArrayList<>(questions.size());
+        for (int i = 0; i < questions.size(); i++) {
+            if (kept[i] == i) out.add(questions.get(i));
+        }
+        return out;
+    }
+
+    /**
+     * Searches every text topic in a folder for near-duplicates, across topics, and reports them.
+     * <p>
+     * Each topic file is read once to sign its questions, and those in clusters are read again for the report.
+     * The report has a line for each question in a cluster, in the order read, so the one kept comes first:
+     * {@code cluster, topic, line, similarity to the one kept, question}.
+     *
+     * @param folder The topic folder
+     * @param report The file to write the report to
+     * @param merge  If the topic files should be rewritten without the duplicates
+     * @return What was found
+     */
+    public Result search(File folder, File report, boolean merge) {
+        long start = System.nanoTime();
+        File[] files = Objects.requireNonNull(folder.listFiles((dir, name) -> name.endsWith(".txt")));
+        Arrays.sort(files);
+        // The topic and line of each question, and its signature, in the order read
+        int[] topics = new int[1024];
+        int[] lines = new int[1024];
+        long[] signatures = new long[1024 * BANDS];
+        int count = 0;
+        List<String> batch = new ArrayList<>(BATCH);
+        for (int t = 0; t < files.length; t++) {
+            int lineNumber = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(files[t]))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    Question question = parse(line);
+                    if (question == null) continue;
+                    if (count + batch.size() == topics.length) {
+                        topics = Arrays.copyOf(topics, topics.length * 2);
+                        lines = Arrays.copyOf(lines, lines.length * 2);
+                        signatures = Arrays.copyOf(signatures, topics.length * BANDS);
+                    }
+                    topics[count + batch.size()] = t;
+                    lines[count + batch.size()] = lineNumber;
+                    batch.add(signedText(question));
+                    if (batch.size() == BATCH) count = sign(batch, signatures, count);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        count = sign(batch, signatures, count);
+        int[] kept = cluster(signatures, count);
+
+        // Gather the text of every question in a cluster, then list each cluster under its first question
+        int[] clusterSize = new int[count];
+        for (int i = 0; i < count; i++) clusterSize[kept[i]]++;
+        HashMap<Long, String> texts = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (clusterSize[kept[i]] > 1) texts.put((long) topics[i] << 32 | lines[i], null);
+        }
+        for (int t = 0; t < files.length; t++) readTexts(files[t], t, texts);
+        long clusters = 0, duplicates = 0;
+        int[] number = new int[count];
+        try (PrintWriter writer = new PrintWriter(new FileWriter(report))) {
+            writer.println("cluster\ttopic\tline\tsimilarity\tquestion");
+            for (int i = 0; i < count; i++) {
+                if (clusterSize[kept[i]] < 2) continue;
+                if (kept[i] == i) {
+                    number[i] = (int) ++clusters;
+                } else {
+                    duplicates++;
+                }
+                writer.printf("%d\t%s\t%d\t%.2f\t%s%n", number[kept[i]], topicName(files[topics[i]]), lines[i],
+                        similarity(signatures, kept[i], i), texts.get((long) topics[i] << 32 | lines[i]));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (merge && duplicates > 0) {
+            for (int t = 0, i = 0; t < files.length; t++) {
+                // The duplicates' line numbers in this topic, in order
+                List<Integer> removed = new ArrayList<>();
+                for (; i < count && topics[i] == t; i++) {
+                    if (kept[i] != i) removed.add(lines[i]);
+                }
+                if (!removed.isEmpty()) rewrite(files[t], removed);
+            }
+        }
+        return new Result(count, clusters, duplicates, System.nanoTime() - start);
+    }
+
+    /**
+     * @return The text a question is signed by: its question and answer, then its wrong answers in a fixed order
+     */
+    static String signedText(Question question) {
+        String[] wrongs = question.wrongs().clone();
+        Arrays.sort(wrongs, String.CASE_INSENSITIVE_ORDER);
+        return question.question() + " " + question.answer() + " " + String.join(" ", wrongs);
+    }
+
+    /**
+     * Signs a question's {@link #signedText} into its {@value #BANDS} longs at an offset into an array.
+     */
+    static void sign(String text, long[] signatures, int offset) {
+        String words = String.join(" ", QuestionIndex.tokens(text));
+        long[] minimums = new long[HASHES];
+        Arrays.fill(minimums, Long.MAX_VALUE);
+        for (int i = 0; i == 0 || i + SHINGLE <= words.length(); i++) {
+            // A shingle fits in a long as it is, two bytes a character, before being scrambled
+            long shingle = 0;
+            for (int j = i; j < Math.min(i + SHINGLE, words.length()); j++) shingle = shingle << 16 | words.charAt(j);
+            shingle = mix(shingle);
+            for (int h = 0; h < HASHES; h++) {
+                // Flipping the sign bit orders the hashes as unsigned
+                long hash = (shingle * MULTIPLIERS[h] + OFFSETS[h]) ^ Long.MIN_VALUE;
+                if (hash < minimums[h]) minimums[h] = hash;
+            }
+        }
+        for (int band = 0; band < BANDS; band++) {
+            long value = 0;
+            for (int row = 0; row < ROWS; row++) {
+                // The middle bits, since the top bits of a minimum are mostly zero
+                value = value << 16 | (minimums[band * ROWS + row] >>> 24 & 0xFFFF);
+            }
+            signatures[offset + band] = value;
+        }
+    }
+
+    /**
+     * Joins every pair of questions whose signatures agree on a band and are similar enough into clusters.
+     *
+     * @param signatures {@value #BANDS} longs per question, see {@link #sign}
+     * @param count      Number of questions
+     * @return For each question, the first question of its cluster, which is itself if it has no earlier duplicate
+     */
+    int[] cluster(long[] signatures, int count) {
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) parent[i] = i;
+        long[] keys = new long[count];
+        for (int band = 0; band < BANDS; band++) {
+            // The band's value, hashed to 32 bits, above the question's index, so sorting groups equal values
+            // in index order. Values that only agree on their hash are told apart by the comparison
+            for (int i = 0; i < count; i++) keys[i] = mix(signatures[i * BANDS + band]) & 0xFFFFFFFF00000000L | i;
+            Arrays.parallelSort(keys);
+            for (int start = 0, end; start < count; start = end) {
+                end = start + 1;
+                while (end < count && keys[end] >>> 32 == keys[start] >>> 32) end++;
+                int first = (int) keys[start];
+                for (int k = start + 1; k < end; k++) {
+                    int i = (int) keys[k];
+                    if (similarity(signatures, first, i) >= threshold) union(parent, first, i);
+                    int previous = (int) keys[k - 1];
+                    if (previous != first && similarity(signatures, previous, i) >= threshold) {
+                        union(parent, previous, i);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) parent[i] = find(parent, i);
+        return parent;
+    }
+
+    /**
+     * @return The fraction of the minimums two questions' signatures share
+     */
+    static double similarity(long[] signatures, int a, int b) {
+        int same = 0;
+        for (int band = 0; band < BANDS; band++) {
+            long x = signatures[a * BANDS + band], y = signatures[b * BANDS + band];
+            for (int row = 0; row < ROWS; row++) {
+                if ((x >>> (row * 16) & 0xFFFF) == (y >>> (row * 16) & 0xFFFF)) same++;
+            }
+        }
+        return (double) same / HASHES;
+    }
+
+    private int sign(List<String> batch, long[] signatures, int count) {
+        IntStream.range(0, batch.size()).parallel().forEach(i -> sign(batch.get(i), signatures, (count + i) * BANDS));
+        int signed = count + batch.size();
+        batch.clear();
+        return signed;
+    }
+
+    /**
+     * Joins two clusters under the lower of their first questions.
+     */
+    private static void union(int[] parent, int a, int b) {
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a < b) parent[b] = a;
+        else if (b < a) parent[a] = b;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            // Path halving, so chains stay short
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * @return The question on a valid line of a topic file, or null if the line is blank or malformed
+     */
+    private static Question parse(String line) {
+        if (line.isBlank()) return null;
+        try {
+            return new Question(line);
+        } catch (Question.FormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fills in the texts wanted from a topic file, keyed by topic and line number.
+     */
+    private static void readTexts(File file, int topic, HashMap<Long, String> texts) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                long key = (long) topic << 32 | ++lineNumber;
+                if (!texts.containsKey(key)) continue;
+                Question question = parse(line);
+                texts.put(key, question == null ? null : question.question());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replaces a topic file with a copy missing the given lines.
+     *
+     * @param removed Line numbers to leave out, in ascending order
+     */
+    private static void rewrite(File file, List<Integer> removed) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedReader reader = new BufferedReader(new FileReader(file));
+             PrintWriter writer = new PrintWriter(new FileWriter(temp))) {
+            String line;
+            int lineNumber = 0, next = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (next < removed.size() && removed.get(next) == lineNumber) {
+                    next++;
+                    continue;
+                }
+                writer.println(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String topicName(File file) {
+        return file.getName().substring(0, file.getName().length() - ".txt".length());
+    }
+
+    /**
+     * Scrambles a number (the SplitMix64 finalizer).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,270 @@
+package quizzer;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A class representing a question, answer and set of wrong answers for a topic,
+ * to be loaded from a file, along with any tags used to search for it across topics.
+ */
+public class Question implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public enum Difficulty {
+        NOVICE,
+        INTERMEDIATE,
+        EXPERT
+    }
+
+    /**
+     * Number of fields in a line: question, answer, three wrong answers and difficulty.
+     * An optional seventh field holds comma-separated tags
+     */
+    public static final int FIELDS = 6;
+    private static final String[] NO_TAGS = {};
+
+    private final String question;
+    private final String answer;
+    private final String[] wrongs;
+    private final Difficulty difficulty;
+    private final String[] tags;
+    /**
+     * The id in the low 32 bits, with bit 32 set once it has been looked up, so one write publishes both
+     */
+    private transient volatile long id;
+
+    /**
+     * Parses a line of a topic file, in the form {@code question|answer|wrong|wrong|wrong|DIFFICULTY},
+     * optionally followed by {@code |tag,tag...}.
+     *
+     * @param line The line to parse
+     * @throws FormatException If the line is not a valid question
+     */
+    public Question(String line) {
+        this(line, 0, line.length());
+    }
+
+    /**
+     * Parses a line from part of a larger text, such as a chunk of a topic file, without copying the line out first.
+     * A trailing carriage return is ignored.
+     *
+     * @param text  The text containing the line
+     * @param start Index of the first character of the line
+     * @param end   Index just past the last character of the line, excluding the newline
+     * @throws FormatException If the line is not a valid question
+     */
+    public Question(String text, int start, int end) {
+        if (end > start && text.charAt(end - 1) == '\r') end--;
+        String[] parts = new String[FIELDS - 1];
+        int from = start;
+        for (int field = 0; field < FIELDS - 1; field++) {
+            int bar = indexOf(text, '|', from, end);
+            if (bar < 0) {
+                throw new FormatException("Expected " + FIELDS + " fields separated by |, found " + (field + 1));
+            }
+            if (bar == from) throw new FormatException("Field " + (field + 1) + " is empty");
+            parts[field] = text.substring(from, bar);
+            from = bar + 1;
+        }
+        int bar = indexOf(text, '|', from, end);
+        if (bar >= 0 && indexOf(text, '|', bar + 1, end) >= 0) {
+            throw new FormatException("Expected " + FIELDS + " fields separated by |, found more");
+        }
+        question = parts[0];
+        answer = parts[1];
+        wrongs = new String[]{parts[2], parts[3], parts[4]};
+        difficulty = parseDifficulty(text, from, bar < 0 ? end : bar);
+        tags = bar < 0 ? NO_TAGS : parseTags(text.substring(bar + 1, end));
+    }
+
+    /**
+     * Creates a question from its parts.
+     *
+     * @param question   The question text
+     * @param answer     The correct answer
+     * @param wrongs     The three wrong answers
+     * @param difficulty The difficulty of the question
+     */
+    public Question(String question, String answer, String[] wrongs, Difficulty difficulty) {
+        this(question, answer, wrongs, difficulty, NO_TAGS);
+    }
+
+    /**
+     * Creates a question from its parts, with tags.
+     *
+     * @param tags The question's tags, which may be empty
+     */
+    public Question(String question, String answer, String[] wrongs, Difficulty difficulty, String[] tags) {
+        this.question = question;
+        this.answer = answer;
+        this.wrongs = wrongs;
+        this.difficulty = difficulty;
+        this.tags = tags;
+    }
+
+    /**
+     * Constructor for subclasses that supply the text themselves, e.g. lazily from a compiled bank.
+     * Such subclasses must override {@link #question()}, {@link #answer()}, {@link #wrongs()} and {@link #tags()}.
+     *
+     * @param difficulty The difficulty of the question
+     */
+    protected Question(Difficulty difficulty) {
+        question = null;
+        answer = null;
+        wrongs = null;
+        tags = null;
+        this.difficulty = difficulty;
+    }
+
+    public String toString() {
+        return String.format("[Q: %s. A: %s. W: %s. D: %s]", question(), answer(), Arrays.toString(wrongs()), difficulty());
+    }
+
+    public String question() {
+        return question;
+    }
+
+    public String answer() {
+        return answer;
+    }
+
+    public String[] wrongs() {
+        return wrongs;
+    }
+
+    public Difficulty difficulty() {
+        return difficulty;
+    }
+
+    /**
+     * @return The question's tags, which may be empty
+     */
+    public String[] tags() {
+        // Null in questions serialized before tags existed
+        return tags == null ? NO_TAGS : tags;
+    }
+
+    /**
+     * The key the question's history and review schedule are kept under, which is its text
+     * unless many questions share one, as in a {@link GeneratedTopic}.
+     *
+     * @return The key
+     */
+    public String historyKey() {
+        return question();
+    }
+
+    /**
+     * @return The question's compact id, from {@link QuestionIds}, for its {@link #historyKey()}
+     */
+    public int id() {
+        long cached = id;
+        if (cached == 0) {
+            cached = 1L << 32 | QuestionIds.shared().id(historyKey()) & 0xFFFFFFFFL;
+            id = cached;
+        }
+        return (int) cached;
+    }
+
+    public ArrayList<String> possibilities() {
+        ArrayList<String> list = new ArrayList<>(List.of(wrongs()));
+        list.add(answer());
+        return list;
+    }
+
+    /**
+     * @return The question as a line of a topic file
+     */
+    public String toLine() {
+        String[] wrongs = wrongs();
+        String line = question() + "|" + answer() + "|" + wrongs[0] + "|" + wrongs[1] + "|" + wrongs[2] + "|" + difficulty();
+        return tags().length == 0 ? line : line + "|" + String.join(",", tags());
+    }
+
+    /**
+     * Reads the difficulty from the sixth field of a line, checking the line is a valid question
+     * without copying out its fields.
+     *
+     * @param line A line of a topic file
+     * @return The difficulty, or null if the line is not a valid question
+     */
+    public static Difficulty difficultyOf(String line) {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') end--;
+        int from = 0;
+        for (int field = 0; field < FIELDS - 1; field++) {
+            int bar = indexOf(line, '|', from, end);
+            // Missing or empty
+            if (bar <= from) return null;
+            from = bar + 1;
+        }
+        int bar = indexOf(line, '|', from, end);
+        if (bar >= 0 && (indexOf(line, '|', bar + 1, end) >= 0 || !hasTag(line, bar + 1, end))) return null;
+        try {
+            return parseDifficulty(line, from, bar < 0 ? end : bar);
+        } catch (FormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return If a tags field has a tag that {@link #parseTags} would keep
+     */
+    private static boolean hasTag(String text, int from, int end) {
+        for (int i = from; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != ',' && !Character.isWhitespace(c)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Splits the tags field on commas, trimming each tag and dropping empty ones.
+     */
+    private static String[] parseTags(String field) {
+        List<String> tags = new ArrayList<>();
+        for (String tag : field.split(",")) {
+            if (!tag.isBlank()) tags.add(tag.trim());
+        }
+        if (tags.isEmpty()) throw new FormatException("Field " + (FIELDS + 1) + " has no tags");
+        return tags.toArray(NO_TAGS);
+    }
+
+    private static Difficulty parseDifficulty(String text, int from, int end) {
+        for (Difficulty difficulty : Difficulty.values()) {
+            String name = difficulty.name();
+            if (end - from == name.length() && text.regionMatches(from, name, 0, name.length())) return difficulty;
+        }
+        throw new FormatException("Unknown difficulty " + text.substring(from, end));
+    }
+
+    private static int indexOf(String text, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (text.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Thrown when a line of a topic file is not a valid question.
+     * It has no stack trace, since bulk imports may reject millions of lines.
+     */
+    public static class FormatException extends IllegalArgumentException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        public FormatException(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
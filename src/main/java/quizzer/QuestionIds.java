@@ -0,0 +1,125 @@
+package quizzer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns each question text a compact int id, so histories can be keyed by ints rather than by the text.
+ * <p>
+ * A question's id is a hash of its text, so it stays the same when the question moves within its topic file
+ * or other questions are added or edited. If two texts hash to the same id, the text seen second takes the
+ * next free id instead. Which text is second depends on which topics were loaded first, and in which runs,
+ * so every id given out is appended to {@code GameData/QuestionIds.txt} as {@code <id>|<question>},
+ * and claimed again on startup before any other question is given an id. A question keeps its id for good,
+ * whatever is loaded before it in later runs.
+ * <p>
+ * Questions are given ids as their topic is loaded, see {@link Question#id()}.
+ */
+public class QuestionIds {
+
+    private static QuestionIds shared;
+
+    private final File file;
+    /**
+     * Index into {@link #texts} of the question holding each id
+     */
+    private final IntIntMap owners = new IntIntMap(1024);
+    private final List<String> texts = new ArrayList<>();
+    /**
+     * Opened on the first new id, and kept open since a topic load may give out thousands
+     */
+    private Writer out;
+
+    /**
+     * @param file File holding the ids given out so far, which need not exist yet
+     */
+    public QuestionIds(File file) {
+        this.file = file;
+        if (!file.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int bar = line.indexOf('|');
+                // A line cut short by a crash, whose question will be reassigned when next seen
+                if (bar < 0) continue;
+                claim(Integer.parseUnsignedInt(line, 0, bar, 16), line.substring(bar + 1));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The ids for the data folder
+     */
+    public static synchronized QuestionIds shared() {
+        if (shared == null) shared = new QuestionIds(GameData.file("QuestionIds.txt"));
+        return shared;
+    }
+
+    /**
+     * Returns the id for a question, assigning one if it has none.
+     *
+     * @param question The question text
+     * @return The question's id
+     */
+    public synchronized int id(String question) {
+        // Every id was given out by this same probe, in the order they were claimed, so it finds any claimed before
+        int id = hash(question);
+        while (true) {
+            int owner = owners.getOrDefault(id, -1);
+            if (owner < 0) break;
+            if (texts.get(owner).equals(question)) return id;
+            id++;
+        }
+        claim(id, question);
+        remember(id, question);
+        return id;
+    }
+
+    /**
+     * @return The text of the question with the given id, or null if no question loaded so far has it
+     */
+    public synchronized String question(int id) {
+        int owner = owners.getOrDefault(id, -1);
+        return owner < 0 ? null : texts.get(owner);
+    }
+
+    /**
+     * 32-bit FNV-1a over the characters, with a final mix so similar texts get unrelated ids.
+     */
+    static int hash(String text) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private void claim(int id, String question) {
+        owners.put(id, texts.size());
+        texts.add(question);
+    }
+
+    private void remember(int id, String question) {
+        try {
+            if (out == null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.getParentFile().mkdirs();
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            out.write(Integer.toHexString(id) + "|" + question + "\n");
+            // Flushed straight away, as a history may be keyed by the id as soon as it is returned
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
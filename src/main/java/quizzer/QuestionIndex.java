@@ -0,0 +1,345 @@
+package quizzer;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * An inverted index over the question banks, for finding questions by keyword across topics.
+ * <p>
+ * Question text, answers and tags are split into lowercase terms of letters and digits,
+ * and each term maps to a sorted list of references to the questions containing it.
+ * Tags are indexed whole, under {@code #tag}. The terms are kept sorted, so a prefix query
+ * only visits the terms that share the prefix.
+ * <p>
+ * Topics are added as they are loaded, see {@link QuestionLoader#setIndex}. When a topic's file changes,
+ * the new version replaces the old: references to the old version are skipped by queries,
+ * and dropped once they outnumber the live ones. Removed topics are dropped the same way.
+ * The index holds on to the questions of each live version, so {@link #find} always returns the very questions
+ * a hit was indexed from, even if the topic has been reloaded since.
+ * All methods are synchronized.
+ */
+public class QuestionIndex {
+
+    /**
+     * A question found by a search.
+     *
+     * @param topic The topic the question is in
+     * @param index The question's position in its topic
+     */
+    public record Hit(String topic, int index) {
+    }
+
+    /**
+     * A question found by {@link #find}, which remembers the topic it was found in,
+     * so answers to it are scheduled for review in that topic rather than under the search.
+     */
+    public static class Found extends Question {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final String topic;
+        private final Question question;
+
+        Found(String topic, Question question) {
+            super(question.difficulty());
+            this.topic = topic;
+            this.question = question;
+        }
+
+        /**
+         * @return The topic the question was found in
+         */
+        public String topic() {
+            return topic;
+        }
+
+        /**
+         * @param question A question being asked
+         * @param played   The topic being played
+         * @return The topic the question was found in, if it came from a search, or else the topic being played
+         */
+        public static String topicOf(Question question, String played) {
+            return question instanceof Found found ? found.topic : played;
+        }
+
+        @Override
+        public String question() {
+            return question.question();
+        }
+
+        @Override
+        public String answer() {
+            return question.answer();
+        }
+
+        @Override
+        public String[] wrongs() {
+            return question.wrongs();
+        }
+
+        @Override
+        public String[] tags() {
+            return question.tags();
+        }
+
+        @Override
+        public String historyKey() {
+            return question.historyKey();
+        }
+
+        @Override
+        public int id() {
+            return question.id();
+        }
+    }
+
+    /**
+     * References to questions, each a topic slot in the high 32 bits and an index in the low 32,
+     * kept in ascending order since topics are added one at a time, in order.
+     */
+    private static class Postings {
+        long[] refs = new long[4];
+        int size;
+
+        void add(long ref) {
+            // A term repeated within a question is only listed once
+            if (size > 0 && refs[size - 1] == ref) return;
+            if (size == refs.length) refs = Arrays.copyOf(refs, size * 2);
+            refs[size++] = ref;
+        }
+    }
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    /**
+     * Topic of each slot. A topic gets a new slot each time a new version of it is added
+     */
+    private final List<String> slotTopics = new ArrayList<>();
+    private final List<Object> slotVersions = new ArrayList<>();
+    private final List<Integer> slotRefs = new ArrayList<>();
+    /**
+     * Questions of each live slot, or null once the slot has been replaced or removed
+     */
+    private final List<List<Question>> slotQuestions = new ArrayList<>();
+    /**
+     * The live slot of each topic
+     */
+    private final HashMap<String, Integer> live = new HashMap<>();
+    private long liveRefs;
+    private long deadRefs;
+
+    /**
+     * Indexes a topic, replacing any other version of it. Does nothing if this version is already indexed.
+     *
+     * @param topic     The topic name
+     * @param version   Identifies the contents, compared with equals, e.g. the file's size and modification time
+     * @param questions The topic's questions
+     */
+    public synchronized void add(String topic, Object version, List<Question> questions) {
+        Integer old = live.get(topic);
+        if (old != null) {
+            if (Objects.equals(slotVersions.get(old), version)) return;
+            liveRefs -= slotRefs.get(old);
+            deadRefs += slotRefs.get(old);
+            slotQuestions.set(old, null);
+        }
+        int slot = slotTopics.size();
+        slotTopics.add(topic);
+        slotVersions.add(version);
+        slotQuestions.add(questions);
+        live.put(topic, slot);
+        int refs = 0;
+        for (int i = 0; i < questions.size(); i++) {
+            Question question = questions.get(i);
+            long ref = (long) slot << 32 | i;
+            List<String> keys = tokens(question.question());
+            keys.addAll(tokens(question.answer()));
+            for (String tag : question.tags()) keys.add("#" + tag.toLowerCase());
+            for (String key : keys) {
+                terms.computeIfAbsent(key, k -> new Postings()).add(ref);
+                refs++;
+            }
+        }
+        slotRefs.add(refs);
+        liveRefs += refs;
+        if (deadRefs > liveRefs) purge();
+    }
+
+    /**
+     * Drops a topic from the index, such as one whose file has been deleted.
+     */
+    public synchronized void remove(String topic) {
+        Integer old = live.remove(topic);
+        if (old == null) return;
+        liveRefs -= slotRefs.get(old);
+        deadRefs += slotRefs.get(old);
+        slotQuestions.set(old, null);
+        if (deadRefs > liveRefs) purge();
+    }
+
+    /**
+     * @return If some version of the topic has been indexed
+     */
+    public synchronized boolean contains(String topic) {
+        return live.containsKey(topic);
+    }
+
+    /**
+     * @return The number of distinct terms and tags
+     */
+    public synchronized int terms() {
+        return terms.size();
+    }
+
+    /**
+     * Finds the questions matching every word of a query. A word ending in {@code *} matches any term
+     * starting with it, and a word starting with {@code #} matches a tag.
+     *
+     * @param query The words to search for, e.g. {@code "lattice #crypto"} or {@code "eigen*"}
+     * @return The matching questions, by topic in the order the topics were indexed, then in file order
+     */
+    public synchronized List<Hit> search(String query) {
+        List<Hit> hits = new ArrayList<>();
+        for (long ref : matches(query)) hits.add(new Hit(slotTopics.get((int) (ref >>> 32)), (int) ref));
+        return hits;
+    }
+
+    /**
+     * As {@link #search}, returning the questions themselves, from the versions of their topics that were indexed.
+     *
+     * @param query The words to search for
+     * @return The matching questions, each remembering its topic
+     */
+    public synchronized List<Question> find(String query) {
+        List<Question> found = new ArrayList<>();
+        for (long ref : matches(query)) {
+            int slot = (int) (ref >>> 32);
+            found.add(new Found(slotTopics.get(slot), slotQuestions.get(slot).get((int) ref)));
+        }
+        return found;
+    }
+
+    /**
+     * @return References to the live questions matching every word of a query, in order
+     */
+    private long[] matches(String query) {
+        long[] matches = null;
+        for (String word : query.trim().toLowerCase().split("\\s+")) {
+            if (word.isEmpty()) continue;
+            long[] refs;
+            if (word.startsWith("#")) {
+                refs = lookup(word);
+            } else if (word.endsWith("*")) {
+                refs = prefix(word.substring(0, word.length() - 1));
+            } else {
+                // Split the same way as the text, so "k-means" finds what was indexed as "k" and "means"
+                refs = null;
+                for (String term : tokens(word)) refs = refs == null ? lookup(term) : intersect(refs, lookup(term));
+                if (refs == null) continue;
+            }
+            matches = matches == null ? refs : intersect(matches, refs);
+        }
+        if (matches == null) return new long[0];
+        int n = 0;
+        for (long ref : matches) {
+            if (isLive((int) (ref >>> 32))) matches[n++] = ref;
+        }
+        return Arrays.copyOf(matches, n);
+    }
+
+    /**
+     * Splits text into lowercase runs of letters and digits.
+     */
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private long[] lookup(String term) {
+        Postings postings = terms.get(term);
+        return postings == null ? new long[0] : Arrays.copyOf(postings.refs, postings.size);
+    }
+
+    /**
+     * @return The references of every term starting with the prefix, sorted and without repeats
+     */
+    private long[] prefix(String prefix) {
+        if (prefix.isEmpty()) return new long[0];
+        Map<String, Postings> range = terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        int total = 0;
+        for (Postings postings : range.values()) total += postings.size;
+        long[] refs = new long[total];
+        int n = 0;
+        for (Postings postings : range.values()) {
+            System.arraycopy(postings.refs, 0, refs, n, postings.size);
+            n += postings.size;
+        }
+        Arrays.sort(refs);
+        int unique = 0;
+        for (int i = 0; i < refs.length; i++) {
+            if (i == 0 || refs[i] != refs[i - 1]) refs[unique++] = refs[i];
+        }
+        return Arrays.copyOf(refs, unique);
+    }
+
+    /**
+     * Merges two sorted lists, keeping the references in both.
+     */
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return If the slot holds the current version of its topic
+     */
+    private boolean isLive(int slot) {
+        Integer current = live.get(slotTopics.get(slot));
+        return current != null && current == slot;
+    }
+
+    /**
+     * Drops the references to replaced and removed versions of topics.
+     */
+    private void purge() {
+        var iterator = terms.values().iterator();
+        while (iterator.hasNext()) {
+            Postings postings = iterator.next();
+            int n = 0;
+            for (int i = 0; i < postings.size; i++) {
+                long ref = postings.refs[i];
+                int slot = (int) (ref >>> 32);
+                if (isLive(slot)) postings.refs[n++] = ref;
+            }
+            postings.size = n;
+            if (n == 0) iterator.remove();
+        }
+        deadRefs = 0;
+    }
+}
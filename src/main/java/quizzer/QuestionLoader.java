@@ -0,0 +1,672 @@
+package quizzer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+public class QuestionLoader {
+
+    /**
+     * Number of topics kept in memory when no limit is given
+     */
+    public static final int DEFAULT_CACHE_SIZE = 8;
+    /**
+     * How long the watcher waits for more changes after one arrives, so a file written in several steps
+     * is reloaded once
+     */
+    static final long SETTLE_MILLIS = 50;
+    private static final String TEXT = ".txt";
+    /**
+     * Extension of topics made from templates, which take the place of a text file of the same name
+     */
+    private static final String GENERATED = ".gen";
+
+    /**
+     * The topic files as the watcher last saw them. Never changed once published: each change to the folder
+     * publishes a new one, in a single write.
+     *
+     * @param topics   The topic names, sorted
+     * @param versions The version of each topic's file, see {@link #version}
+     */
+    private record Bank(String[] topics, Map<String, Version> versions) {
+    }
+
+    /**
+     * A topic file's size, modification time, to the file system's full resolution, and identity, such as its inode,
+     * which changes when the file is replaced rather than rewritten. Compared field by field, so no two differ
+     * only in ways that cancel out.
+     */
+    private record Version(long size, FileTime modified, Object fileKey) {
+    }
+
+    private final File folder;
+    /**
+     * Folder holding compiled banks, written by {@link BankCompiler}
+     */
+    private final File compiledFolder;
+    /**
+     * Loaded topics, in least-recently-used order.
+     * Guarded by its own monitor.
+     */
+    private final LinkedHashMap<String, List<Question>> cache;
+    private long hits;
+    private long misses;
+    private long loadNanos;
+    /**
+     * Updated with each topic as it is loaded, if set
+     */
+    private volatile QuestionIndex index;
+    /**
+     * The current topics, or null if the folder is not being watched, see {@link #watch()}
+     */
+    private volatile Bank bank;
+    /**
+     * Drops near-duplicates from each text topic as it is loaded, if set
+     */
+    private volatile NearDuplicates dedup = NearDuplicates.configured();
+
+    public QuestionLoader(File folder) {
+        this(folder, DEFAULT_CACHE_SIZE);
+    }
+
+    public QuestionLoader(File folder, int cacheSize) {
+        this(folder, new File(folder.getAbsoluteFile().getParentFile(), "compiled"), cacheSize);
+    }
+
+    /**
+     * Creates a loader for the given folder, keeping at most `cacheSize` topics in memory.
+     * <p>
+     * Topics that have an up-to-date compiled bank in `compiledFolder` are memory-mapped
+     * from it instead of being parsed.
+     *
+     * @param folder         Folder containing the topic files
+     * @param compiledFolder Folder containing compiled banks. It does not need to exist
+     * @param cacheSize      Maximum number of topics to keep loaded at once
+     */
+    public QuestionLoader(File folder, File compiledFolder, int cacheSize) {
+        if (!folder.isDirectory()) {
+            throw new InvalidDirectoryException(String.format("File %s is not a Directory", folder));
+        } else if (Objects.requireNonNull(folder.list()).length == 0) {
+            throw new InvalidDirectoryException(String.format("Directory %s is empty", folder));
+        }
+        if (cacheSize < 1) throw new IllegalArgumentException("Cache size must be at least 1");
+        this.folder = folder;
+        this.compiledFolder = compiledFolder;
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Question>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Return the questions for the given topic.
+     * <p>
+     * Topics are loaded once and shared between callers,
+     * so the returned list is immutable. Copy it before reordering.
+     * A generated topic is returned as a {@link GeneratedTopic}, which makes its questions as they are asked for,
+     * and must not be copied or ordered whole.
+     *
+     * @param topic The topic to retrieve the entries of e.g. CS, Maths
+     * @return An immutable list of the topic's questions
+     */
+    public List<Question> getEntries(String topic) {
+        synchronized (cache) {
+            List<Question> cached = cache.get(topic);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        // Parse outside the lock, so one large topic doesn't block the others
+        Metrics.TopicLoadEvent event = new Metrics.TopicLoadEvent();
+        event.begin();
+        Version version = version(topic);
+        boolean generated = isGenerated(topic);
+        NearDuplicates dedup = this.dedup;
+        long start = System.nanoTime();
+        // A compiled bank would have to be decoded whole to be checked for near-duplicates, so the text is read instead
+        List<Question> loaded = generated ? readGenerated(topic) : dedup == null ? compiled(topic) : null;
+        boolean compiled = loaded != null && !generated;
+        if (loaded == null) {
+            ArrayList<Question> read = readTopic(topic);
+            if (dedup != null) {
+                int size = read.size();
+                read = dedup.distinct(read);
+                if (read.size() < size) {
+                    System.err.printf("Dropped %d near-duplicate question(s) in topic %s%n", size - read.size(), topic);
+                }
+            }
+            loaded = Collections.unmodifiableList(read);
+        }
+        long elapsed = System.nanoTime() - start;
+        Metrics.recordDuration(Metrics.Operation.TOPIC_LOAD, elapsed);
+        if (event.shouldCommit()) {
+            event.topic = topic;
+            event.questions = loaded.size();
+            event.compiled = compiled;
+            event.commit();
+        }
+        QuestionIndex index = this.index;
+        // Generated topics are far too large to index, and their questions are made up anyway
+        if (index != null && !generated) index.add(topic, version, loaded);
+        synchronized (cache) {
+            loadNanos += elapsed;
+            // The file changed as it was read, so this is left to the watcher to replace rather than cached
+            Bank bank = this.bank;
+            if (bank != null && !Objects.equals(bank.versions().get(topic), version)) return loaded;
+            // Another caller may have loaded the same topic in the meantime
+            List<Question> existing = cache.putIfAbsent(topic, loaded);
+            return existing != null ? existing : loaded;
+        }
+    }
+
+    /**
+     * Picks `k` random questions from the given topic, without loading the whole topic.
+     * <p>
+     * The topic file is streamed once using reservoir sampling, so only `k` lines are held in memory
+     * and only those are parsed. Lines are checked as they are read, so malformed ones never take a place.
+     * If the topic is already cached, compiled or generated, the sample is picked from that instead,
+     * and if near-duplicates are being dropped, from the whole topic once they have been.
+     *
+     * @param topic  The topic to sample from
+     * @param k      How many questions to pick
+     * @param random Source of randomness
+     * @return Up to `k` questions, in random order
+     */
+    public List<Question> sampleEntries(String topic, int k, Random random) {
+        List<Question> cached = sampleSource(topic);
+        if (cached != null) return sample(cached, k, random);
+        Reservoir reservoir = new Reservoir(k);
+        try (BufferedReader reader = openTopic(topic)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (Question.difficultyOf(line) != null) reservoir.offer(line, random);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return reservoir.parse();
+    }
+
+    /**
+     * Picks up to `k` random questions of each difficulty from the given topic,
+     * streaming the file once. See {@link #sampleEntries(String, int, Random)}.
+     *
+     * @param topic  The topic to sample from
+     * @param k      How many questions to pick per difficulty
+     * @param random Source of randomness
+     * @return The sampled questions of each difficulty
+     */
+    public EnumMap<Question.Difficulty, List<Question>> sampleByDifficulty(String topic, int k, Random random) {
+        EnumMap<Question.Difficulty, Reservoir> reservoirs = new EnumMap<>(Question.Difficulty.class);
+        for (Question.Difficulty d : Question.Difficulty.values()) {
+            reservoirs.put(d, new Reservoir(k));
+        }
+        List<Question> cached = sampleSource(topic);
+        EnumMap<Question.Difficulty, List<Question>> out = new EnumMap<>(Question.Difficulty.class);
+        if (cached instanceof CompiledBank bank) {
+            // The bank's difficulty index gives each tier without touching the other questions
+            for (Question.Difficulty d : Question.Difficulty.values()) {
+                int[] picks = pickIndices(bank.countOf(d), k, random);
+                List<Question> tier = new ArrayList<>(picks.length);
+                for (int i : picks) tier.add(bank.get(bank.indexOf(d, i)));
+                out.put(d, tier);
+            }
+            return out;
+        }
+        if (cached instanceof GeneratedTopic generated) {
+            // Likewise for the templates of each difficulty, which would never fit in a list
+            for (Question.Difficulty d : Question.Difficulty.values()) {
+                int[] picks = pickIndices(generated.countOf(d), k, random);
+                List<Question> tier = new ArrayList<>(picks.length);
+                for (int i : picks) tier.add(generated.get(generated.indexOf(d, i)));
+                out.put(d, tier);
+            }
+            return out;
+        }
+        if (cached != null) {
+            EnumMap<Question.Difficulty, List<Question>> tiers = new EnumMap<>(Question.Difficulty.class);
+            for (Question q : cached) {
+                tiers.computeIfAbsent(q.difficulty(), d -> new ArrayList<>()).add(q);
+            }
+            for (Question.Difficulty d : Question.Difficulty.values()) {
+                out.put(d, sample(tiers.getOrDefault(d, List.of()), k, random));
+            }
+            return out;
+        }
+        try (BufferedReader reader = openTopic(topic)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Checked and its difficulty read without parsing, which is left to the lines sampled
+                Question.Difficulty difficulty = Question.difficultyOf(line);
+                if (difficulty != null) reservoirs.get(difficulty).offer(line, random);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        reservoirs.forEach((d, reservoir) -> out.put(d, reservoir.parse()));
+        return out;
+    }
+
+    /**
+     * @return The list to sample a topic from, or null if its file should be streamed instead
+     */
+    private List<Question> sampleSource(String topic) {
+        synchronized (cache) {
+            List<Question> cached = cache.get(topic);
+            if (cached != null) return cached;
+        }
+        // Near-duplicates can only be found in the whole topic, so it is loaded rather than streamed
+        if (isGenerated(topic) || dedup != null) return getEntries(topic);
+        return compiled(topic);
+    }
+
+    private static List<Question> sample(List<Question> questions, int k, Random random) {
+        int[] picks = pickIndices(questions.size(), k, random);
+        List<Question> out = new ArrayList<>(picks.length);
+        for (int i : picks) out.add(questions.get(i));
+        return out;
+    }
+
+    /**
+     * Picks `k` distinct indices below `n` in random order, in O(k) time and memory
+     * using a partial Fisher-Yates shuffle over a sparse map of swapped positions.
+     */
+    private static int[] pickIndices(int n, int k, Random random) {
+        int size = Math.min(n, k);
+        int[] out = new int[size];
+        HashMap<Integer, Integer> swapped = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(n - i);
+            out[i] = swapped.getOrDefault(j, j);
+            swapped.put(j, swapped.getOrDefault(i, i));
+        }
+        return out;
+    }
+
+    /**
+     * Opens the compiled bank for a topic, if one exists and is up to date.
+     */
+    private CompiledBank compiled(String topic) {
+        return CompiledBank.open(new File(compiledFolder, topic + ".qbank"), topicFile(topic));
+    }
+
+    /**
+     * @return The topic's {@code .gen} file if it has one, otherwise its {@code .txt} file, which may not exist
+     */
+    private File topicFile(String topic) {
+        File generated = new File(folder, topic + GENERATED);
+        return generated.isFile() ? generated : new File(folder, topic + TEXT);
+    }
+
+    /**
+     * @param topic The topic's name
+     * @return If the topic's questions are made from templates, see {@link GeneratedTopic}
+     */
+    public boolean isGenerated(String topic) {
+        return topicFile(topic).getName().endsWith(GENERATED);
+    }
+
+    /**
+     * @return Changes whenever the topic's file does, as far as its attributes can tell, or null if it has no file
+     */
+    private Version version(String topic) {
+        try {
+            var attributes = Files.readAttributes(topicFile(topic).toPath(), BasicFileAttributes.class);
+            return new Version(attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Drops near-duplicates from each text topic loaded from now on, keeping the first of each,
+     * see {@link NearDuplicates}. Set by default from the {@value NearDuplicates#PROPERTY} system property.
+     *
+     * @param dedup The finder to use, or null to keep every question
+     */
+    public void setNearDuplicates(NearDuplicates dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * Sets an index to be updated with each topic as it is loaded from now on.
+     *
+     * @param index The index, or null to stop indexing
+     */
+    public void setIndex(QuestionIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Finds questions across every topic, see {@link QuestionIndex#search}.
+     * The first search indexes any topics not loaded so far, later ones only read the index.
+     *
+     * @param query The words to search for
+     * @return The matching questions, grouped by topic, each remembering its topic, see {@link QuestionIndex.Found}
+     */
+    public List<Question> search(String query) {
+        QuestionIndex index = this.index;
+        if (index == null) {
+            synchronized (cache) {
+                if (this.index == null) this.index = new QuestionIndex();
+                index = this.index;
+            }
+        }
+        for (String topic : listTopics()) {
+            if (!index.contains(topic) && !isGenerated(topic)) index.add(topic, version(topic), getEntries(topic));
+        }
+        // Taken from the questions that were indexed, which may since have been replaced in the cache
+        return index.find(query);
+    }
+
+    /**
+     * Parses a topic file. Blank lines are ignored, and malformed lines are skipped with a warning,
+     * so one bad line doesn't make the whole topic unplayable. Use {@link BulkImporter} to find and fix them.
+     */
+    private ArrayList<Question> readTopic(String topic) {
+        ArrayList<Question> list = new ArrayList<>();
+        int lineNumber = 0;
+        int skipped = 0;
+        String firstError = null;
+        try (BufferedReader reader = openTopic(topic)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                try {
+                    list.add(new Question(line));
+                } catch (Question.FormatException e) {
+                    if (skipped++ == 0) firstError = "line " + lineNumber + ": " + e.getMessage();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (skipped > 0) {
+            System.err.printf("Skipped %d malformed line(s) in topic %s, first at %s%n", skipped, topic, firstError);
+        }
+        // Assigned as the topic is loaded, so they are remembered before any answer is recorded, see QuestionIds
+        for (Question question : list) question.id();
+        return list;
+    }
+
+    /**
+     * Parses a generated topic's templates, skipping malformed lines as {@link #readTopic} does.
+     */
+    private GeneratedTopic readGenerated(String topic) {
+        List<GeneratedTopic.Template> templates = new ArrayList<>();
+        int lineNumber = 0;
+        int skipped = 0;
+        String firstError = null;
+        try (BufferedReader reader = openTopic(topic)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                try {
+                    templates.add(GeneratedTopic.Template.parse(line));
+                } catch (Question.FormatException e) {
+                    if (skipped++ == 0) firstError = "line " + lineNumber + ": " + e.getMessage();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (skipped > 0) {
+            System.err.printf("Skipped %d malformed template(s) in topic %s, first at %s%n", skipped, topic, firstError);
+        }
+        return new GeneratedTopic(templates);
+    }
+
+    /**
+     * @throws UncheckedIOException If the topic does not exist
+     */
+    private BufferedReader openTopic(String topic) {
+        try {
+            return new BufferedReader(new FileReader(topicFile(topic)));
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException("Topic " + topic + " could not be found", e);
+        }
+    }
+
+    /**
+     * @return The names of the topics, as of the last change seen if the folder is being watched
+     */
+    public String[] listTopics() {
+        Bank bank = this.bank;
+        if (bank != null) return bank.topics().clone();
+        String[] list = folder.list();
+        // We check the contents in the constructor, we know the folder contains valid files
+        @SuppressWarnings("DataFlowIssue")
+        String[] out = new String[list.length];
+        for (int i = 0; i < list.length; i++) {
+            String s = list[i].split("\\.")[0];
+            out[i] = s;
+        }
+        return out;
+    }
+
+    /**
+     * Watches the topic folder from now on, so that topics are added, reloaded and removed as their files are.
+     * <p>
+     * Only the files that changed are looked at. A changed topic that is loaded or indexed is parsed again
+     * straight away and replaces the old list in the cache, and any other is read when it is next asked for.
+     * Lists already handed out never change, so quizzes in progress carry on with the questions they started with,
+     * while quizzes started after the change get the new ones.
+     *
+     * @return Stops watching when closed
+     */
+    public Closeable watch() {
+        WatchService watcher;
+        try {
+            watcher = folder.toPath().getFileSystem().newWatchService();
+            folder.toPath().register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Taken after registering, so a change can't fall between the two
+        Map<String, Version> versions = new HashMap<>();
+        for (String topic : topicFiles()) {
+            Version version = version(topic);
+            // Removed since it was listed, which the watcher will see
+            if (version != null) versions.put(topic, version);
+        }
+        publish(versions);
+        Thread thread = new Thread(() -> watch(watcher), "topic-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return watcher;
+    }
+
+    private void watch(WatchService watcher) {
+        try {
+            while (true) {
+                Set<String> changed = new TreeSet<>();
+                boolean overflow = false;
+                // Gather events until the folder has been quiet for a moment
+                for (WatchKey key = watcher.take(); key != null; key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        String name = event.context() == null ? "" : event.context().toString();
+                        if (event.kind() == OVERFLOW) {
+                            overflow = true;
+                        } else if (topicName(name) != null) {
+                            changed.add(topicName(name));
+                        }
+                    }
+                    key.reset();
+                }
+                if (overflow) {
+                    // Some events were lost, so check every topic's version, which still reads no unchanged topic
+                    changed.addAll(bank.versions().keySet());
+                    changed.addAll(topicFiles());
+                }
+                reload(changed);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped by closing the watcher
+        }
+    }
+
+    /**
+     * Publishes a new snapshot with the current versions of the given topics, then reloads those that changed.
+     */
+    private void reload(Set<String> topics) {
+        Map<String, Version> versions = new HashMap<>(bank.versions());
+        List<String> changed = new ArrayList<>();
+        for (String topic : topics) {
+            Version version = version(topic);
+            Version previous = version == null ? versions.remove(topic) : versions.put(topic, version);
+            if (!Objects.equals(previous, version)) changed.add(topic);
+        }
+        if (changed.isEmpty()) return;
+        publish(versions);
+        QuestionIndex index = this.index;
+        for (String topic : changed) {
+            boolean loaded;
+            synchronized (cache) {
+                loaded = cache.remove(topic) != null;
+            }
+            if (!versions.containsKey(topic)) {
+                if (index != null) index.remove(topic);
+            } else if (loaded || index != null && index.contains(topic)) {
+                try {
+                    getEntries(topic);
+                } catch (UncheckedIOException e) {
+                    // Removed again since, which the next event will show
+                }
+            }
+        }
+    }
+
+    private void publish(Map<String, Version> versions) {
+        String[] topics = versions.keySet().toArray(new String[0]);
+        Arrays.sort(topics);
+        bank = new Bank(topics, Map.copyOf(versions));
+    }
+
+    /**
+     * @return The topics with a file in the folder, each once even if it has both a text and a generated file
+     */
+    private List<String> topicFiles() {
+        Set<String> topics = new TreeSet<>();
+        String[] files = folder.list();
+        if (files == null) return new ArrayList<>();
+        for (String file : files) {
+            String topic = topicName(file);
+            if (topic != null) topics.add(topic);
+        }
+        return new ArrayList<>(topics);
+    }
+
+    /**
+     * @return The topic a file holds, or null if it is not a topic file
+     */
+    private static String topicName(String file) {
+        if (file.endsWith(TEXT)) return file.substring(0, file.length() - TEXT.length());
+        if (file.endsWith(GENERATED)) return file.substring(0, file.length() - GENERATED.length());
+        return null;
+    }
+
+    /**
+     * @return How many times a topic was served from the cache
+     */
+    public long cacheHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return How many times a topic had to be read from disk
+     */
+    public long cacheMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return Total time spent reading topics from disk, in nanoseconds
+     */
+    public long loadTimeNanos() {
+        synchronized (cache) {
+            return loadNanos;
+        }
+    }
+
+    /**
+     * Fixed-size uniform sample of a stream (Algorithm R).
+     * Items are shuffled on the way in, so the sample is already in random order.
+     */
+    private static class Reservoir {
+        private final String[] items;
+        private int seen;
+
+        Reservoir(int size) {
+            if (size < 0) throw new IllegalArgumentException("Sample size must not be negative");
+            items = new String[size];
+        }
+
+        void offer(String item, Random random) {
+            if (items.length == 0) return;
+            if (seen < items.length) {
+                // Insert at a random position while filling, moving the old occupant to the end
+                int j = random.nextInt(seen + 1);
+                items[seen] = items[j];
+                items[j] = item;
+            } else {
+                int j = random.nextInt(seen + 1);
+                if (j < items.length) items[j] = item;
+            }
+            seen++;
+        }
+
+        List<Question> parse() {
+            int size = Math.min(seen, items.length);
+            List<Question> out = new ArrayList<>(size);
+            // Only valid lines are offered, so every item parses
+            for (int i = 0; i < size; i++) out.add(new Question(items[i]));
+            return out;
+        }
+    }
+
+    public static class InvalidDirectoryException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        public InvalidDirectoryException(String message) {
+            super(message);
+        }
+    }
+}
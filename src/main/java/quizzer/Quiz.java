@@ -0,0 +1,283 @@
+package quizzer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Class representing a quiz.
+ * <p>
+ * A quiz is a set of questions asked in a specific order.
+ * This order could be random, based on difficulty,
+ * or on how successfully the user has answered each question in the past.
+ */
+public class Quiz {
+
+    /**
+     * Number of questions asked in a Quick quiz
+     */
+    public static final int QUICK_LENGTH = 20;
+    /**
+     * Number of questions of each difficulty asked in a Quick Escalation quiz
+     */
+    public static final int QUICK_ESCALATION_LENGTH = 5;
+    /**
+     * Time allowed for each question in a Timed quiz
+     */
+    public static final int TIMED_QUESTION_SECONDS = 15;
+    /**
+     * Time allowed for the whole of a Timed quiz
+     */
+    public static final int TIMED_ROUND_SECONDS = 180;
+
+    private final String topic;
+    /**
+     * The topic's questions, shared with every other quiz on the same topic.
+     * This must never be reordered; use an {@link OrderedView} instead.
+     */
+    private List<Question> questions;
+    private final Random random = new Random();
+    private final QuestionLoader loader;
+    private final Scanner scanner;
+    private final User user;
+
+    public Quiz(String topic, User user, QuestionLoader loader, Scanner scanner) {
+        this.topic = topic;
+        this.user = user;
+        this.loader = loader;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Creates a quiz over a fixed set of questions rather than a topic, such as the results of a search.
+     *
+     * @param title     Name shown for the quiz
+     * @param questions The questions, which are not copied or reordered. Those found by a search are reviewed
+     *                  in the topics they were found in, see {@link QuestionIndex.Found}
+     */
+    public Quiz(String title, List<Question> questions, User user, Scanner scanner) {
+        this(title, user, null, scanner);
+        this.questions = questions;
+    }
+
+    /**
+     * Loads the whole topic on first use.
+     * The sampling gamemodes never call this for topics, so they never hold the full topic in memory.
+     */
+    private List<Question> questions() {
+        if (questions == null) questions = loader.getEntries(topic);
+        return questions;
+    }
+
+    /**
+     * Asks a single question, and verifies if the user entered the correct answer.
+     *
+     * @param session The session whose current question is to be asked
+     * @return If the user selected the correct answer
+     */
+    private boolean askQuestion(QuizSession session) {
+        Main.clearScreen();
+        QuizSession.Prompt prompt = session.nextPrompt();
+        StringBuilder builder = new StringBuilder(prompt.question());
+        builder.append("\n");
+        for (int i = 0; i < prompt.options().size(); i++) {
+            builder.append(String.format("(%d) %s%n", i, prompt.options().get(i)));
+        }
+        long millisLeft = session.millisLeft();
+        if (millisLeft >= 0) builder.append(String.format("%nYou have %d seconds.", millisLeft / 1000));
+        int choice = Main.promptInput(prompt.options().size() - 1, builder.toString(), scanner);
+        QuizSession.Result result = session.submitAnswer(choice);
+        if (result.expired()) {
+            System.out.println("Out of time! The correct answer was " + result.answer());
+        } else if (result.correct()) {
+            System.out.println("Correct! Well done.");
+        } else {
+            System.out.println("Sorry. The correct answer was " + result.answer());
+        }
+        return result.correct();
+    }
+
+    /**
+     * Plays a session on the console, until all its questions have been asked.
+     *
+     * @param session The session to play
+     */
+    public void play(QuizSession session) {
+        Main.clearScreen();
+        System.out.println("You have selected the " + topic + " topic.");
+        System.out.printf("This quiz contains %d questions.%n", session.size());
+        Main.promptEnter();
+        while (!session.isFinished()) {
+            askQuestion(session);
+            Main.promptEnter();
+        }
+        Main.clearScreen();
+        QuizSession.Summary summary = session.summary();
+        System.out.printf("Quiz complete! You got %d out of %d questions correct! (%.0f%%)%n",
+                summary.correct(), summary.total(), summary.percent());
+        Main.promptEnter();
+    }
+
+    /**
+     * Starts a session that asks the questions in the order given by a gamemode.
+     * The session is not tied to the console, see {@link QuizSession}.
+     *
+     * @param mode The gamemode to play
+     * @return A new session
+     */
+    public QuizSession start(Gamemode mode) {
+        QuizSession.Limits limits = mode == Gamemode.TIMED
+                ? new QuizSession.Limits(TIMED_QUESTION_SECONDS * 1000L, TIMED_ROUND_SECONDS * 1000L)
+                : QuizSession.Limits.NONE;
+        return new QuizSession(topic, mode, questions(mode), user, new Random(random.nextLong()), limits);
+    }
+
+    /**
+     * Asks the questions in the order given by a gamemode.
+     *
+     * @param mode The gamemode to play
+     */
+    public void ask(Gamemode mode) {
+        play(start(mode));
+    }
+
+    /**
+     * Returns the questions a gamemode would ask, in the order it would ask them.
+     * The shared topic is never reordered, so this is safe to call from any session.
+     * A generated topic has too many questions to order, so the whole-topic gamemodes ask a sample of it instead:
+     * Random as Quick, Escalation as Quick Escalation, and Redemption a sample in review order.
+     *
+     * @param mode The gamemode to play
+     * @return The questions to ask, in order
+     */
+    public List<Question> questions(Gamemode mode) {
+        return switch (mode) {
+            case RANDOM -> generated() ? sample(QUICK_LENGTH) : randomOrder();
+            case ESCALATION -> generated() ? sampleEscalation(QUICK_ESCALATION_LENGTH) : escalationOrder();
+            case REDEMPTION -> generated()
+                    ? user.schedule.order(topic, sample(QUICK_LENGTH), System.currentTimeMillis())
+                    : redemptionOrder();
+            case QUICK, TIMED -> sample(QUICK_LENGTH);
+            case QUICK_ESCALATION -> sampleEscalation(QUICK_ESCALATION_LENGTH);
+        };
+    }
+
+    /**
+     * Asks the questions the user is due to review first, then those they have never answered,
+     * see {@link ReviewSchedule}.
+     */
+    public void askRedemption() {
+        ask(Gamemode.REDEMPTION);
+    }
+
+    /**
+     * Asks the questions in a random order.
+     */
+    public void askRandom() {
+        ask(Gamemode.RANDOM);
+    }
+
+    /**
+     * Asks the questions in order of difficulty, as measured from users' results where it has been,
+     * see {@link DifficultyTiers}.
+     */
+    public void askEscalation() {
+        ask(Gamemode.ESCALATION);
+    }
+
+    /**
+     * @return If the quiz is on a {@link GeneratedTopic}, which is cheap to load but must never be ordered whole
+     */
+    private boolean generated() {
+        return loader != null && questions() instanceof GeneratedTopic;
+    }
+
+    private List<Question> redemptionOrder() {
+        if (loader == null) {
+            // A fixed set may be gathered from several topics, each with its own cards
+            return user.schedule.order(questions(), q -> QuestionIndex.Found.topicOf(q, topic),
+                    System.currentTimeMillis());
+        }
+        return user.schedule.order(topic, questions(), System.currentTimeMillis());
+    }
+
+    private List<Question> randomOrder() {
+        List<Question> questions = questions();
+        int[] order = new int[questions.size()];
+        // Fisher-Yates shuffle of the indices, the shared list is left untouched
+        for (int i = 0; i < order.length; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        return new OrderedView(questions, order);
+    }
+
+    private List<Question> escalationOrder() {
+        List<Question> questions = questions();
+        DifficultyTiers tiers = DifficultyTiers.shared();
+        // Counting sort on the difficulty, which keeps the file order within each difficulty
+        Question.Difficulty[] difficulties = Question.Difficulty.values();
+        int[] tier = new int[questions.size()];
+        int[] starts = new int[difficulties.length + 1];
+        for (int i = 0; i < tier.length; i++) {
+            tier[i] = tiers.of(questions.get(i)).ordinal();
+            starts[tier[i] + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) starts[i] += starts[i - 1];
+        int[] order = new int[questions.size()];
+        for (int i = 0; i < order.length; i++) order[starts[tier[i]]++] = i;
+        return new OrderedView(questions, order);
+    }
+
+    private List<Question> sample(int count) {
+        if (loader != null) return loader.sampleEntries(topic, count, random);
+        List<Question> shuffled = randomOrder();
+        return shuffled.subList(0, Math.min(count, shuffled.size()));
+    }
+
+    private List<Question> sampleEscalation(int perDifficulty) {
+        DifficultyTiers tiers = DifficultyTiers.shared();
+        List<Question> sampled = new ArrayList<>();
+        if (loader != null) {
+            // Sampled by label, since the topic is streamed rather than loaded, then asked in measured order
+            loader.sampleByDifficulty(topic, perDifficulty, random).values().forEach(sampled::addAll);
+            sampled.sort(Comparator.comparing(tiers::of));
+            return sampled;
+        }
+        // A fixed set is already in memory, so take the first of each difficulty from a shuffle
+        int[] taken = new int[Question.Difficulty.values().length];
+        for (Question question : randomOrder()) {
+            if (taken[tiers.of(question).ordinal()]++ < perDifficulty) sampled.add(question);
+        }
+        sampled.sort(Comparator.comparing(tiers::of));
+        return sampled;
+    }
+
+    /**
+     * A read-only view of a shared question list in a quiz-specific order.
+     * Only the index array is owned by the quiz, the questions themselves are not copied.
+     */
+    static class OrderedView extends AbstractList<Question> {
+        private final List<Question> source;
+        private final int[] order;
+
+        OrderedView(List<Question> source, int[] order) {
+            this.source = source;
+            this.order = order;
+        }
+
+        @Override
+        public Question get(int index) {
+            return source.get(order[index]);
+        }
+
+        @Override
+        public int size() {
+            return order.length;
+        }
+    }
+}
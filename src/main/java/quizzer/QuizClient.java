@@ -0,0 +1,90 @@
+package quizzer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal client for {@link QuizServer}, connecting over the loopback interface.
+ * Used by tests and load generators to play without a console.
+ */
+public class QuizClient implements Closeable {
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    /**
+     * Connects to a server on this machine.
+     *
+     * @param port The server's port
+     */
+    public QuizClient(int port) {
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends one line to the server.
+     *
+     * @param line The command to send
+     */
+    public void send(String line) {
+        out.println(line);
+    }
+
+    /**
+     * @return The next line from the server, or null if it closed the connection
+     */
+    public String readLine() {
+        try {
+            return in.readLine();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends a command and returns the server's reply.
+     *
+     * @param line The command to send
+     * @return The first line of the reply
+     */
+    public String request(String line) {
+        send(line);
+        return readLine();
+    }
+
+    /**
+     * Plays a whole quiz, always choosing the given option.
+     *
+     * @param topic  The topic to play
+     * @param mode   The gamemode to play
+     * @param choice The option to choose for every question
+     * @return The server's END line, which may come early if a timed round runs out
+     */
+    public String play(String topic, Gamemode mode, int choice) {
+        String reply = request("START " + topic + " " + mode.name());
+        if (!reply.startsWith("OK")) return reply;
+        int questions = Integer.parseInt(reply.substring(3));
+        for (int i = 0; i < questions; i++) {
+            // QUESTION, then one OPTION line per possibility
+            String question = readLine();
+            if (question.startsWith("END")) return question;
+            for (int option = 0; option < 4; option++) readLine();
+            request("ANSWER " + choice);
+        }
+        return readLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
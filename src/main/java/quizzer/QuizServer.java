@@ -0,0 +1,292 @@
+package quizzer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves quizzes to many players at once over a line-oriented TCP protocol on localhost.
+ * <p>
+ * Each connection is handled by its own thread, which blocks on the socket just as the console version
+ * blocks on the keyboard. On Java 21+ these are virtual threads, so thousands of idle players cost
+ * little more than their sockets; on older runtimes a cached pool of platform threads is used instead.
+ * All sessions share one {@link QuestionLoader} and one {@link Login}.
+ * <p>
+ * Protocol, one command per line. Every command is answered with {@code OK ...} or {@code ERR <reason>}:
+ * <pre>{@code
+ * REGISTER <name> <password>
+ * LOGIN <name> <password>      OK <token>
+ * TOKEN <token>                resume a session without re-sending the password
+ * TOPICS                       OK <topic>|<topic>|...
+ * MODES                        OK <mode>|<mode>|...
+ * START <topic> <mode>         OK <questions>, then for each question:
+ *                                QUESTION <text>
+ *                                OPTION <i> <text>   (x4)
+ *                              and the client replies ANSWER <i>, answered with CORRECT or WRONG <i>,
+ *                              or TIMEOUT <i> if the question ran out of time in a TIMED quiz.
+ *                              After the last question, or a TIMED round running out: END <correct> <total>
+ * STATS                        OK <mean> <median> <rank>
+ * QUIT                         BYE
+ * }</pre>
+ * Nothing is sent when time runs out, since the connection's thread is waiting for the answer. Running out is
+ * recorded when it happens, and the client is told when it next answers: the answer is ignored, and it gets
+ * {@code TIMEOUT <i>}, followed by {@code END} if the whole round ran out.
+ */
+public class QuizServer implements Closeable {
+
+    /**
+     * Port used when none is given
+     */
+    public static final int DEFAULT_PORT = 7777;
+
+    private final QuestionLoader loader;
+    private final Login login;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions;
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Creates a server listening on the loopback address.
+     *
+     * @param port   Port to listen on, or 0 to pick a free port
+     * @param loader Loader shared by all sessions
+     * @param login  Login shared by all sessions
+     */
+    public QuizServer(int port, QuestionLoader loader, Login login) {
+        this.loader = loader;
+        this.login = login;
+        try {
+            serverSocket = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        sessions = sessionExecutor();
+    }
+
+    /**
+     * Accepts connections on a background thread until the server is closed.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::acceptLoop, "quiz-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The number of sessions currently connected
+     */
+    public int activeSessions() {
+        return active.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        sessions.shutdownNow();
+    }
+
+    /**
+     * Uses one virtual thread per session where the runtime supports it.
+     * Looked up reflectively, since the project targets Java 17.
+     */
+    private static ExecutorService sessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "quiz-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                // The server was closed
+                return;
+            } catch (IOException e) {
+                System.err.println("Could not accept connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        active.incrementAndGet();
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            new Session(in, out).run();
+        } catch (IOException e) {
+            // The client disconnected, nothing to clean up beyond the socket
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * The state of one connected player.
+     */
+    private class Session {
+        private final BufferedReader in;
+        private final PrintWriter out;
+        private User user;
+
+        Session(BufferedReader in, PrintWriter out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        void run() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] args = line.trim().split(" ", 3);
+                switch (args[0].toUpperCase()) {
+                    case "REGISTER" -> register(args);
+                    case "LOGIN" -> login(args);
+                    case "TOKEN" -> token(args);
+                    case "TOPICS" -> out.println("OK " + String.join("|", loader.listTopics()));
+                    case "MODES" -> out.println("OK " + String.join("|", modeNames()));
+                    case "START" -> start(args);
+                    case "STATS" -> stats();
+                    case "QUIT" -> {
+                        out.println("BYE");
+                        return;
+                    }
+                    default -> out.println("ERR Unknown command");
+                }
+            }
+        }
+
+        private void register(String[] args) {
+            if (args.length < 3) {
+                out.println("ERR Usage: REGISTER <name> <password>");
+                return;
+            }
+            try {
+                boolean created = login.store().register(args[1], args[2]).join();
+                out.println(created ? "OK" : "ERR User already exists");
+            } catch (RuntimeException e) {
+                out.println("ERR " + e.getMessage());
+            }
+        }
+
+        private void login(String[] args) {
+            if (args.length < 3) {
+                out.println("ERR Usage: LOGIN <name> <password>");
+                return;
+            }
+            String token;
+            try {
+                token = login.store().login(args[1], args[2]).join();
+            } catch (RuntimeException e) {
+                out.println("ERR " + e.getMessage());
+                return;
+            }
+            if (token == null) {
+                out.println("ERR Incorrect username or password");
+                return;
+            }
+            user = UserRegistry.get(args[1]);
+            out.println("OK " + token);
+        }
+
+        private void token(String[] args) {
+            String name = args.length < 2 ? null : login.store().authenticate(args[1]);
+            if (name == null) {
+                out.println("ERR Invalid token");
+                return;
+            }
+            user = UserRegistry.get(name);
+            out.println("OK");
+        }
+
+        private void start(String[] args) throws IOException {
+            if (user == null) {
+                out.println("ERR Not logged in");
+                return;
+            }
+            if (args.length < 3 || !List.of(loader.listTopics()).contains(args[1])) {
+                out.println("ERR Usage: START <topic> <mode>");
+                return;
+            }
+            Gamemode mode;
+            try {
+                mode = Gamemode.valueOf(args[2].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                out.println("ERR Unknown mode");
+                return;
+            }
+            QuizSession session = new Quiz(args[1], user, loader, null).start(mode);
+            out.println("OK " + session.size());
+            while (!session.isFinished()) {
+                QuizSession.Prompt prompt = session.nextPrompt();
+                out.println("QUESTION " + prompt.question());
+                for (int i = 0; i < prompt.options().size(); i++) {
+                    out.println("OPTION " + i + " " + prompt.options().get(i));
+                }
+                int choice = readAnswer(prompt.options().size());
+                if (choice < 0) return;
+                QuizSession.Result result = session.submitAnswer(choice);
+                out.println(result.expired() ? "TIMEOUT " + result.answer()
+                        : result.correct() ? "CORRECT" : "WRONG " + result.answer());
+            }
+            QuizSession.Summary summary = session.summary();
+            out.println("END " + summary.correct() + " " + summary.total());
+        }
+
+        /**
+         * @return The chosen option, or -1 if the client disconnected
+         */
+        private int readAnswer(int options) throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] args = line.trim().split(" ");
+                if (args.length == 2 && args[0].equalsIgnoreCase("ANSWER")) {
+                    try {
+                        int choice = Integer.parseInt(args[1]);
+                        if (0 <= choice && choice < options) return choice;
+                    } catch (NumberFormatException ignored) {
+                        // Fall through to the error below
+                    }
+                }
+                out.println("ERR Expected ANSWER <0-" + (options - 1) + ">");
+            }
+            return -1;
+        }
+
+        private void stats() {
+            if (user == null) {
+                out.println("ERR Not logged in");
+                return;
+            }
+            out.printf("OK %.4f %.4f %d%n", user.getStatistic(Statistic.MEAN),
+                    user.getStatistic(Statistic.MEDIAN), UserAggregates.shared().rank(user.name()));
+        }
+
+        private static String[] modeNames() {
+            Gamemode[] modes = Gamemode.values();
+            String[] names = new String[modes.length];
+            for (int i = 0; i < modes.length; i++) names[i] = modes[i].name();
+            return names;
+        }
+    }
+}
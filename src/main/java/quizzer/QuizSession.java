@@ -0,0 +1,382 @@
+package quizzer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * One play-through of a quiz, driven by events rather than by blocking on input.
+ * <p>
+ * Call {@link #nextPrompt()} to get the current question, and {@link #submitAnswer(int)} to answer it,
+ * until {@link #isFinished()}. The session holds no threads or streams, so it can be driven
+ * from a console, a socket or a test, and can be serialized and resumed later with {@link #resume(User)}.
+ * Answers are recorded in the user's history as they are submitted.
+ * <p>
+ * A timed session gives each question, and the whole round, a time limit, see {@link Limits}. The deadlines
+ * are kept by the shared {@link TimingWheel}, so a waiting session holds no thread. The wheel only hands a timeout
+ * over to a pool of expiry threads, since recording it writes to the user's journal. A question that runs out
+ * is recorded as wrong when it does, whether or not the player ever answers, and the answer they then submit
+ * is not counted. Running out of time for the round ends it, with the unasked questions left out of the score.
+ */
+public class QuizSession implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Records timeouts, off the wheel's thread. Its threads are fixed in number, since many timeouts can fall due
+     * in one tick, and those it can't yet run wait in its queue
+     */
+    private static final Executor EXPIRY = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+        Thread thread = new Thread(r, "quiz-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A question as shown to the player.
+     *
+     * @param number   Position of the question in the quiz, starting at 1
+     * @param total    Number of questions in the quiz
+     * @param question The question text
+     * @param options  The possible answers, in the order they should be shown
+     */
+    public record Prompt(int number, int total, String question, List<String> options) {
+    }
+
+    /**
+     * Time limits for a session.
+     *
+     * @param questionMillis Time allowed to answer each question, or 0 for no limit
+     * @param roundMillis    Time allowed for the whole round, from when the first question is shown, or 0 for no limit
+     */
+    public record Limits(long questionMillis, long roundMillis) implements Serializable {
+        /**
+         * No time limits
+         */
+        public static final Limits NONE = new Limits(0, 0);
+
+        public boolean timed() {
+            return questionMillis > 0 || roundMillis > 0;
+        }
+    }
+
+    /**
+     * The outcome of answering a question.
+     *
+     * @param correct If the chosen option was correct
+     * @param answer  The index of the correct option
+     * @param expired If time ran out before the question was answered, in which case it counts as wrong
+     * @param millis  How long the question was shown before it was answered or ran out
+     */
+    public record Result(boolean correct, int answer, boolean expired, long millis) {
+    }
+
+    /**
+     * The outcome of a quiz.
+     *
+     * @param topic   The topic played
+     * @param correct Number of questions answered correctly
+     * @param total   Number of questions asked
+     */
+    public record Summary(String topic, int correct, int total) {
+        /**
+         * @return The percentage of questions answered correctly
+         */
+        public double percent() {
+            return total == 0 ? 0 : 100.0 * correct / total;
+        }
+    }
+
+    private final String topic;
+    private final Gamemode mode;
+    private final String userName;
+    private final Random random;
+    private final Limits limits;
+    private int position;
+    private int correct;
+    /**
+     * Options for the current question, or null until it is prompted
+     */
+    private String[] options;
+    private int answer;
+    private boolean roundStarted;
+    private boolean roundOver;
+    /**
+     * Time left in the round when the session was saved
+     */
+    private long roundLeftMillis;
+    /**
+     * When the current question was shown, to measure how long it took to answer
+     */
+    private transient long shownAt;
+    /**
+     * When the current question and the round run out, by {@link System#nanoTime()}
+     */
+    private transient long questionDeadline;
+    private transient long roundDeadline;
+    private transient TimingWheel.Timeout questionTimer;
+    private transient TimingWheel.Timeout roundTimer;
+    /**
+     * The question that ran out while the player was answering it, to be returned in place of their answer
+     */
+    private transient Result expired;
+    /**
+     * The trace this session is recorded in, if any, see {@link SessionTrace}
+     */
+    private transient SessionTrace trace;
+    private transient int traceId;
+    private transient List<Question> questions;
+    private transient User user;
+
+    /**
+     * Creates a session. The questions are asked in the order given.
+     *
+     * @param topic     The topic being played
+     * @param mode      The gamemode the questions were ordered by
+     * @param questions The questions to ask
+     * @param user      The player, whose history is updated as they answer
+     * @param random    Source of randomness for shuffling options
+     */
+    public QuizSession(String topic, Gamemode mode, List<Question> questions, User user, Random random) {
+        this(topic, mode, questions, user, random, Limits.NONE);
+    }
+
+    /**
+     * Creates a session, which may be timed.
+     *
+     * @param limits Time limits for the questions and the round
+     */
+    public QuizSession(String topic, Gamemode mode, List<Question> questions, User user, Random random, Limits limits) {
+        this.topic = topic;
+        this.mode = mode;
+        this.questions = questions;
+        this.user = user;
+        this.userName = user.name();
+        this.random = random;
+        this.limits = limits;
+        this.roundLeftMillis = limits.roundMillis();
+        trace = SessionTrace.current();
+        if (trace != null) traceId = trace.started(userName, topic, mode, questions);
+    }
+
+    /**
+     * Returns the current question. Calling this again before answering returns the same prompt.
+     *
+     * @return The question to show the player
+     * @throws IllegalStateException If the quiz is finished, or the session has not been resumed
+     */
+    public synchronized Prompt nextPrompt() {
+        checkPlayable();
+        expired = null;
+        if (options == null) {
+            Question question = questions.get(position);
+            var possibilities = question.possibilities();
+            Collections.shuffle(possibilities, random);
+            options = possibilities.toArray(new String[0]);
+            answer = possibilities.indexOf(question.answer());
+            shownAt = System.nanoTime();
+            if (trace != null) trace.shown(traceId, position + 1, shuffledOrder(question));
+            if (!roundStarted && limits.roundMillis() > 0) {
+                roundStarted = true;
+                startRound();
+            }
+            startQuestion();
+        }
+        return new Prompt(position + 1, questions.size(), questions.get(position).question(), List.of(options));
+    }
+
+    /**
+     * Answers the current question, and moves on to the next one.
+     * Finishing the last question completes the user's round.
+     * <p>
+     * If the question ran out of time before the answer arrived, the answer is ignored,
+     * and the result is that of the question running out.
+     *
+     * @param choice Index of the chosen option in the current prompt
+     * @return If the answer was correct, which option was, and how long it took
+     * @throws IllegalArgumentException If the choice is not one of the options
+     */
+    public synchronized Result submitAnswer(int choice) {
+        if (expired != null) {
+            Result result = expired;
+            expired = null;
+            return result;
+        }
+        if (options == null) nextPrompt();
+        if (choice < 0 || choice >= options.length) {
+            throw new IllegalArgumentException("Choice must be between 0 and " + (options.length - 1));
+        }
+        long now = System.nanoTime();
+        // An answer can beat the timer by up to a tick, but is still too late
+        if (questionTimer != null && now - questionDeadline >= 0) return expire(now);
+        return finish(choice, false, now);
+    }
+
+    public synchronized boolean isFinished() {
+        return roundOver || position >= questions.size();
+    }
+
+    /**
+     * @return The time limits, which are {@link Limits#NONE} for an untimed session
+     */
+    public Limits limits() {
+        return limits;
+    }
+
+    /**
+     * @return Milliseconds left to answer the current question, or -1 if it has no time limit
+     */
+    public synchronized long millisLeft() {
+        if (questionTimer == null) return -1;
+        return Math.max(0, (questionDeadline - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * @return The score so far, or the final score once the quiz is finished
+     */
+    public synchronized Summary summary() {
+        return new Summary(topic, correct, position);
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    public Gamemode mode() {
+        return mode;
+    }
+
+    /**
+     * @return The number of questions in the quiz
+     */
+    public int size() {
+        return questions.size();
+    }
+
+    /**
+     * Reattaches the player after the session has been deserialized.
+     *
+     * @param user The player the session was started by
+     * @return This session
+     */
+    public synchronized QuizSession resume(User user) {
+        if (!user.name().equals(userName)) {
+            throw new IllegalArgumentException("Session belongs to " + userName);
+        }
+        this.user = user;
+        if (roundStarted && roundTimer == null && !isFinished()) startRound();
+        if (options != null) startQuestion();
+        return this;
+    }
+
+    /**
+     * Records the current question, moves on to the next one, and completes the round if that was the last.
+     */
+    private Result finish(int choice, boolean timedOut, long now) {
+        boolean isCorrect = choice == answer;
+        long nanos = now - shownAt;
+        Question question = questions.get(position);
+        if (trace != null) trace.answered(traceId, position + 1, choice, isCorrect, timedOut, nanos);
+        Metrics.answered(question.historyKey(), isCorrect, nanos);
+        user.recordAnswer(QuestionIndex.Found.topicOf(question, topic), question, isCorrect);
+        if (isCorrect) correct++;
+        Result result = new Result(isCorrect, answer, timedOut, nanos / 1_000_000);
+        options = null;
+        position++;
+        if (questionTimer != null) {
+            questionTimer.cancel();
+            questionTimer = null;
+        }
+        if (isFinished()) endRound();
+        return result;
+    }
+
+    /**
+     * Counts the current question as wrong, since it ran out of time.
+     */
+    private Result expire(long now) {
+        Result result = finish(-1, true, now);
+        // The round may have run out with the question
+        if (roundTimer != null && now - roundDeadline >= 0) endRound();
+        return result;
+    }
+
+    /**
+     * @return For each option as shown, its position in the question's unshuffled options
+     */
+    private int[] shuffledOrder(Question question) {
+        List<String> unshuffled = question.possibilities();
+        int[] order = new int[options.length];
+        for (int i = 0; i < options.length; i++) order[i] = unshuffled.indexOf(options[i]);
+        return order;
+    }
+
+    private void startQuestion() {
+        if (questionTimer != null) questionTimer.cancel();
+        long millis = limits.questionMillis();
+        if (roundTimer != null) {
+            long roundLeft = Math.max(0, (roundDeadline - System.nanoTime()) / 1_000_000);
+            millis = millis > 0 ? Math.min(millis, roundLeft) : roundLeft;
+        }
+        if (millis <= 0 && roundTimer == null) return;
+        int number = position;
+        questionDeadline = System.nanoTime() + millis * 1_000_000;
+        questionTimer = TimingWheel.shared().schedule(millis, () -> EXPIRY.execute(() -> questionExpired(number)));
+    }
+
+    private void startRound() {
+        roundDeadline = System.nanoTime() + roundLeftMillis * 1_000_000;
+        roundTimer = TimingWheel.shared().schedule(roundLeftMillis, () -> EXPIRY.execute(this::roundExpired));
+    }
+
+    private synchronized void questionExpired(int number) {
+        // The question was answered while the timer fired
+        if (number != position || options == null || isFinished()) return;
+        expired = expire(System.nanoTime());
+    }
+
+    private synchronized void roundExpired() {
+        if (isFinished()) return;
+        if (options != null) {
+            expired = finish(-1, true, System.nanoTime());
+        }
+        endRound();
+    }
+
+    private void endRound() {
+        if (roundOver) return;
+        roundOver = true;
+        if (questionTimer != null) questionTimer.cancel();
+        if (roundTimer != null) roundTimer.cancel();
+        questionTimer = roundTimer = null;
+        user.recordRound();
+    }
+
+    private void checkPlayable() {
+        if (user == null) throw new IllegalStateException("Session must be resumed before it is played");
+        if (isFinished()) throw new IllegalStateException("Quiz is finished");
+    }
+
+    @Serial
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        if (roundTimer != null) roundLeftMillis = Math.max(0, (roundDeadline - System.nanoTime()) / 1_000_000);
+        out.defaultWriteObject();
+        // Only the questions not yet asked are needed, but positions are kept simple by writing them all
+        out.writeObject(new ArrayList<>(questions));
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        questions = (List<Question>) in.readObject();
+        // Time before the session was saved is not counted, and the timers restart when it is resumed
+        shownAt = System.nanoTime();
+    }
+}
@@ -0,0 +1,209 @@
+package quizzer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A sorted multiset that can also answer rank queries.
+ * <p>
+ * Implemented as a treap where each node knows the size of its subtree,
+ * so adding, removing, finding the rank of a key and finding the key at a rank
+ * all take O(log n) expected time. Equal keys share a node.
+ *
+ * @param <K> The type of key stored
+ */
+public class RankTree<K> {
+
+    private static class Node<K> {
+        final K key;
+        final int priority;
+        /**
+         * Copies of this key
+         */
+        int count = 1;
+        /**
+         * Total copies of all keys in this subtree
+         */
+        int size = 1;
+        Node<K> left;
+        Node<K> right;
+
+        Node(K key, int priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+
+    private final Comparator<? super K> comparator;
+    private final Random random = new Random();
+    private Node<K> root;
+
+    public RankTree(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * @return The number of keys stored, counting duplicates
+     */
+    public int size() {
+        return size(root);
+    }
+
+    public void add(K key) {
+        root = add(root, key);
+    }
+
+    /**
+     * Removes one copy of the key.
+     *
+     * @param key The key to remove
+     * @return If the key was present
+     */
+    public boolean remove(K key) {
+        int before = size();
+        root = remove(root, key);
+        return size() != before;
+    }
+
+    /**
+     * @param key The key to look up
+     * @return How many stored keys are strictly less than the given key
+     */
+    public int countLess(K key) {
+        int rank = 0;
+        Node<K> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(key, node.key);
+            if (cmp <= 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + node.count;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the key at the given position in sorted order, counting duplicates.
+     *
+     * @param index Position from the smallest key, starting at 0
+     * @return The key at that position
+     */
+    public K select(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException(index);
+        Node<K> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index < leftSize + node.count) {
+                return node.key;
+            } else {
+                index -= leftSize + node.count;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns up to `limit` of the largest keys, largest first.
+     *
+     * @param limit Maximum number of keys to return
+     * @return The largest keys in descending order
+     */
+    public List<K> largest(int limit) {
+        List<K> out = new ArrayList<>(Math.min(limit, size()));
+        ArrayDeque<Node<K>> stack = new ArrayDeque<>();
+        Node<K> node = root;
+        while ((node != null || !stack.isEmpty()) && out.size() < limit) {
+            while (node != null) {
+                stack.push(node);
+                node = node.right;
+            }
+            node = stack.pop();
+            for (int i = 0; i < node.count && out.size() < limit; i++) out.add(node.key);
+            node = node.left;
+        }
+        return out;
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <K> void update(Node<K> node) {
+        node.size = size(node.left) + size(node.right) + node.count;
+    }
+
+    private Node<K> add(Node<K> node, K key) {
+        if (node == null) return new Node<>(key, random.nextInt());
+        int cmp = comparator.compare(key, node.key);
+        if (cmp == 0) {
+            node.count++;
+        } else if (cmp < 0) {
+            node.left = add(node.left, key);
+            if (node.left.priority > node.priority) node = rotateRight(node);
+        } else {
+            node.right = add(node.right, key);
+            if (node.right.priority > node.priority) node = rotateLeft(node);
+        }
+        update(node);
+        return node;
+    }
+
+    private Node<K> remove(Node<K> node, K key) {
+        if (node == null) return null;
+        int cmp = comparator.compare(key, node.key);
+        if (cmp < 0) {
+            node.left = remove(node.left, key);
+        } else if (cmp > 0) {
+            node.right = remove(node.right, key);
+        } else if (node.count > 1) {
+            node.count--;
+        } else {
+            return merge(node.left, node.right);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Joins two treaps where every key in `left` is less than every key in `right`.
+     */
+    private Node<K> merge(Node<K> left, Node<K> right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private Node<K> rotateRight(Node<K> node) {
+        Node<K> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        return left;
+    }
+
+    private Node<K> rotateLeft(Node<K> node) {
+        Node<K> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        return right;
+    }
+}
@@ -0,0 +1,424 @@
+package quizzer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A user's spaced-repetition schedule: when each question they have answered is next due for review.
+ * <p>
+ * Intervals follow SM-2. A correct answer moves a question to an interval of 1 day, then 6 days,
+ * then the previous interval times the question's ease. A wrong answer resets it to be relearned
+ * after {@value #RELEARN_MINUTES} minutes, and lowers its ease, down to at least {@value #MIN_EASE}.
+ * <p>
+ * Each topic keeps its questions in a min-heap on due time, in which every card knows its own slot,
+ * so rescheduling a card and picking the next due card both take O(log n).
+ * The schedule is saved with the user's history, see {@link HistoryJournal}.
+ * All methods are synchronized, so the schedule is safe to share between sessions.
+ */
+public class ReviewSchedule {
+
+    public static final long DAY = 24 * 60 * 60 * 1000L;
+    public static final int RELEARN_MINUTES = 10;
+    public static final double DEFAULT_EASE = 2.5;
+    public static final double MIN_EASE = 1.3;
+    /**
+     * SM-2 answer quality given to correct and wrong answers, out of 5.
+     * A correct answer leaves the ease as it is
+     */
+    private static final int CORRECT_QUALITY = 4;
+    private static final int WRONG_QUALITY = 2;
+
+    /**
+     * One question's schedule.
+     */
+    private static class Card {
+        final String question;
+        /**
+         * Order in which the card was added to its deck
+         */
+        final int number;
+        /**
+         * Correct answers in a row
+         */
+        int repetitions;
+        double ease = DEFAULT_EASE;
+        long interval;
+        long due;
+        /**
+         * Position in its deck's heap
+         */
+        int slot;
+
+        Card(String question, int number) {
+            this.question = question;
+            this.number = number;
+        }
+    }
+
+    /**
+     * The cards of one topic.
+     */
+    private static class Deck {
+        final HashMap<String, Card> cards = new HashMap<>();
+        final DueHeap heap = new DueHeap(true);
+        /**
+         * Number of cards ever added
+         */
+        int added;
+        /**
+         * Position of each question in the topic list last ordered, kept while the loader hands out the same list
+         */
+        List<Question> source;
+        HashMap<String, Integer> positions;
+
+        HashMap<String, Integer> positions(List<Question> questions) {
+            if (source != questions) {
+                positions = new HashMap<>(questions.size() * 2);
+                for (int i = questions.size() - 1; i >= 0; i--) positions.put(questions.get(i).historyKey(), i);
+                source = questions;
+            }
+            return positions;
+        }
+    }
+
+    private final HashMap<String, Deck> decks = new HashMap<>();
+
+    /**
+     * Reschedules a question after it has been answered.
+     *
+     * @param topic    The topic the question was asked in
+     * @param question The question's {@link Question#historyKey()}, usually its text
+     * @param correct  If the answer was correct
+     * @param now      When it was answered, in epoch milliseconds
+     */
+    public synchronized void review(String topic, String question, boolean correct, long now) {
+        Deck deck = decks.computeIfAbsent(topic, t -> new Deck());
+        Card card = deck.cards.get(question);
+        boolean added = card == null;
+        if (added) card = new Card(question, deck.added++);
+        if (correct) {
+            card.repetitions++;
+            card.interval = switch (card.repetitions) {
+                case 1 -> DAY;
+                case 2 -> 6 * DAY;
+                default -> Math.round(card.interval * card.ease);
+            };
+        } else {
+            card.repetitions = 0;
+            card.interval = RELEARN_MINUTES * 60 * 1000L;
+        }
+        int q = correct ? CORRECT_QUALITY : WRONG_QUALITY;
+        card.ease = Math.max(MIN_EASE, card.ease + 0.1 - (5 - q) * (0.08 + (5 - q) * 0.02));
+        card.due = now + card.interval;
+        if (added) {
+            deck.cards.put(question, card);
+            deck.heap.add(card);
+        } else {
+            deck.heap.update(card);
+        }
+    }
+
+    /**
+     * @return When the question is next due, or -1 if it has never been answered in this topic
+     */
+    public synchronized long due(String topic, String question) {
+        Deck deck = decks.get(topic);
+        Card card = deck == null ? null : deck.cards.get(question);
+        return card == null ? -1 : card.due;
+    }
+
+    /**
+     * @return The question in the topic that is due soonest, or null if none have been answered
+     */
+    public synchronized String nextDue(String topic) {
+        Deck deck = decks.get(topic);
+        return deck == null || deck.heap.size == 0 ? null : deck.heap.cards[0].question;
+    }
+
+    /**
+     * @return The number of questions scheduled over all topics
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Deck deck : decks.values()) size += deck.cards.size();
+        return size;
+    }
+
+    /**
+     * Orders a topic for review: questions already due first, soonest first, then questions never answered
+     * in file order, then the rest soonest first.
+     * <p>
+     * The order is worked out as the list is read, so each question asked costs O(log n) rather than
+     * sorting the whole topic up front. It reflects the schedule as it was when this was called.
+     *
+     * @param topic     The topic name
+     * @param questions The topic's questions, which are not copied or reordered
+     * @param now       The current time, in epoch milliseconds
+     * @return The questions in review order
+     */
+    public synchronized List<Question> order(String topic, List<Question> questions, long now) {
+        Deck deck = decks.computeIfAbsent(topic, t -> new Deck());
+        return new ReviewOrder(questions, deck, now);
+    }
+
+    /**
+     * Orders questions gathered from several topics, such as the results of a search, as {@link #order}
+     * orders a topic, with each question's card looked up in its own topic.
+     * The questions are sorted up front, so this is meant for short lists rather than whole topics.
+     *
+     * @param questions The questions, which are not reordered
+     * @param topics    The topic each question is scheduled in
+     * @param now       The current time, in epoch milliseconds
+     * @return The questions in review order
+     */
+    public synchronized List<Question> order(List<Question> questions, Function<Question, String> topics, long now) {
+        long[] due = new long[questions.size()];
+        Integer[] order = new Integer[due.length];
+        for (int i = 0; i < due.length; i++) {
+            due[i] = due(topics.apply(questions.get(i)), questions.get(i).historyKey());
+            order[i] = i;
+        }
+        // Due questions soonest first, then those never answered in the order given, then the rest soonest first
+        Comparator<Integer> byGroup = Comparator.comparingInt(i -> due[i] < 0 ? 1 : due[i] <= now ? 0 : 2);
+        Arrays.sort(order, byGroup.thenComparingLong(i -> due[i] < 0 ? i : due[i]));
+        List<Question> ordered = new ArrayList<>(due.length);
+        for (int i : order) ordered.add(questions.get(i));
+        return ordered;
+    }
+
+    /**
+     * Encodes every card for the snapshot file, one per line:
+     * <pre>{@code
+     * <due>|<interval>|<ease>|<repetitions>|<topic>|<question>}</pre>
+     *
+     * @return The encoded cards
+     */
+    public synchronized List<String> snapshot() {
+        List<String> lines = new ArrayList<>(size());
+        decks.forEach((topic, deck) -> {
+            for (Card card : deck.cards.values()) {
+                lines.add(card.due + "|" + card.interval + "|" + card.ease + "|" + card.repetitions
+                        + "|" + topic + "|" + card.question);
+            }
+        });
+        return lines;
+    }
+
+    /**
+     * Restores a card written by {@link #snapshot()}.
+     *
+     * @param line The encoded card
+     */
+    public synchronized void restore(String line) {
+        int[] split = new int[5];
+        int from = 0;
+        for (int i = 0; i < split.length; i++) {
+            split[i] = line.indexOf('|', from);
+            if (split[i] < 0) throw new IllegalArgumentException("Malformed schedule line: " + line);
+            from = split[i] + 1;
+        }
+        Deck deck = decks.computeIfAbsent(line.substring(split[3] + 1, split[4]), t -> new Deck());
+        Card card = new Card(line.substring(split[4] + 1), deck.added++);
+        card.due = Long.parseLong(line, 0, split[0], 10);
+        card.interval = Long.parseLong(line, split[0] + 1, split[1], 10);
+        card.ease = Double.parseDouble(line.substring(split[1] + 1, split[2]));
+        card.repetitions = Integer.parseInt(line, split[2] + 1, split[3], 10);
+        Card old = deck.cards.put(card.question, card);
+        if (old == null) {
+            deck.heap.add(card);
+        } else {
+            card.slot = old.slot;
+            deck.heap.cards[card.slot] = card;
+            deck.heap.update(card);
+        }
+    }
+
+    /**
+     * A binary min-heap of cards by due time.
+     * The due times are copied into the heap, so a copy stays ordered while the cards it shares change.
+     */
+    private static class DueHeap {
+        /**
+         * If this heap keeps its cards' slots up to date. Copies don't, as the slots belong to the deck's heap
+         */
+        final boolean indexed;
+        long[] keys = new long[16];
+        Card[] cards = new Card[16];
+        int size;
+
+        DueHeap(boolean indexed) {
+            this.indexed = indexed;
+        }
+
+        void add(Card card) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                cards = Arrays.copyOf(cards, size * 2);
+            }
+            set(size, card.due, card);
+            siftUp(size++);
+        }
+
+        /**
+         * Moves a card to its place after its due time has changed.
+         */
+        void update(Card card) {
+            keys[card.slot] = card.due;
+            siftDown(siftUp(card.slot));
+        }
+
+        Card poll() {
+            Card first = cards[0];
+            size--;
+            set(0, keys[size], cards[size]);
+            cards[size] = null;
+            if (size > 0) siftDown(0);
+            return first;
+        }
+
+        DueHeap copy() {
+            DueHeap copy = new DueHeap(false);
+            copy.keys = Arrays.copyOf(keys, Math.max(1, size));
+            copy.cards = Arrays.copyOf(cards, Math.max(1, size));
+            copy.size = size;
+            return copy;
+        }
+
+        private int siftUp(int i) {
+            long key = keys[i];
+            Card card = cards[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) break;
+                set(i, keys[parent], cards[parent]);
+                i = parent;
+            }
+            set(i, key, card);
+            return i;
+        }
+
+        private void siftDown(int i) {
+            long key = keys[i];
+            Card card = cards[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+                if (key <= keys[child]) break;
+                set(i, keys[child], cards[child]);
+                i = child;
+            }
+            set(i, key, card);
+        }
+
+        private void set(int i, long key, Card card) {
+            keys[i] = key;
+            cards[i] = card;
+            if (indexed) card.slot = i;
+        }
+    }
+
+    /**
+     * A topic in review order, filled in as it is read from a private copy of the deck's heap.
+     */
+    private class ReviewOrder extends AbstractList<Question> {
+        private final List<Question> source;
+        private final HashMap<String, Integer> positions;
+        private final Deck deck;
+        private final DueHeap heap;
+        private final long now;
+        /**
+         * Cards numbered from here on were added after the order was made
+         */
+        private final int added;
+        private final int[] order;
+        private final boolean[] taken;
+        private int filled;
+        /**
+         * Next position in the topic to check for a question never answered
+         */
+        private int cursor;
+        /**
+         * Positions before this have all been taken, so the last pass over repeated texts resumes from it
+         */
+        private int untaken;
+
+        ReviewOrder(List<Question> source, Deck deck, long now) {
+            this.source = source;
+            this.deck = deck;
+            this.now = now;
+            positions = deck.positions(source);
+            heap = deck.heap.copy();
+            added = deck.added;
+            order = new int[source.size()];
+            taken = new boolean[source.size()];
+        }
+
+        @Override
+        public Question get(int index) {
+            if (index < 0 || index >= order.length) throw new IndexOutOfBoundsException(index);
+            while (filled <= index) fill();
+            return source.get(order[index]);
+        }
+
+        @Override
+        public int size() {
+            return order.length;
+        }
+
+        private void fill() {
+            // Due questions
+            while (heap.size > 0 && heap.keys[0] <= now) {
+                if (take(heap.poll())) return;
+            }
+            // Questions never answered
+            while (cursor < source.size()) {
+                int position = cursor++;
+                if (!taken[position] && !wasScheduled(source.get(position).historyKey())) {
+                    take(position);
+                    return;
+                }
+            }
+            // Questions not due yet
+            while (heap.size > 0) {
+                if (take(heap.poll())) return;
+            }
+            // Repeated question text, which only one card can stand for
+            while (untaken < taken.length) {
+                int position = untaken++;
+                if (!taken[position]) {
+                    take(position);
+                    return;
+                }
+            }
+        }
+
+        private boolean take(Card card) {
+            Integer position = positions.get(card.question);
+            // Cards for questions since removed from the topic are skipped
+            if (position == null || taken[position]) return false;
+            take(position);
+            return true;
+        }
+
+        private void take(int position) {
+            taken[position] = true;
+            order[filled++] = position;
+        }
+
+        /**
+         * @return If the question had a card when the order was made, and so is in the copied heap
+         */
+        private boolean wasScheduled(String question) {
+            synchronized (ReviewSchedule.this) {
+                Card card = deck.cards.get(question);
+                return card != null && card.number < added;
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package quizzer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary log of what players do in their sessions, for replaying with {@link TraceReplay}.
+ * <p>
+ * Recording is off unless the {@value #PROPERTY} system property names a file to record to, or {@link #record} is
+ * called. Each {@link QuizSession} created while recording logs when it started, its player, topic, gamemode and
+ * questions, then each question as it is shown, with the order its options were shuffled into, and each answer,
+ * with how long the player took. Sessions resumed after being saved are not recorded, and sessions still being
+ * played when their trace is finished carry on unrecorded.
+ * <p>
+ * The file starts with {@code int magic, short version, long start time}, followed by records of the sessions'
+ * events, interleaved as they happened. Every record starts with a type byte, the session, and when it happened:
+ * <pre>{@code
+ * 'S' session, micros, UTF user, UTF topic, UTF gamemode, count, then for each question: int id
+ * 'P' session, micros, number, count, then for each option: byte its position in Question#possibilities
+ * 'A' session, micros, number, choice + 1, byte flags (1 correct, 2 ran out of time), micros taken}</pre>
+ * Numbers other than ids are written 7 bits to a byte, so most take one or two bytes. Times are microseconds since
+ * the trace started. Records are buffered, so the last few are lost if the app is killed rather than exited,
+ * and reading stops at the first incomplete record.
+ */
+public class SessionTrace implements Closeable {
+
+    /**
+     * System property naming the file to record to
+     */
+    public static final String PROPERTY = "quizzer.trace";
+    /**
+     * "QTRC", at the start of every trace
+     */
+    static final int MAGIC = 0x51545243;
+    static final short VERSION = 1;
+
+    private static final byte START = 'S';
+    private static final byte SHOWN = 'P';
+    private static final byte ANSWERED = 'A';
+    private static final int CORRECT = 1;
+    private static final int EXPIRED = 2;
+
+    private static volatile SessionTrace current;
+
+    static {
+        String path = System.getProperty(PROPERTY);
+        if (path != null) current = new SessionTrace(new File(path));
+    }
+
+    /**
+     * A recorded event of a session.
+     */
+    public interface Event {
+        /**
+         * @return When it happened, in microseconds since the trace started
+         */
+        long micros();
+    }
+
+    /**
+     * A question being shown.
+     *
+     * @param number Position of the question in the session, starting at 1
+     * @param order  For each option as shown, its position in {@link Question#possibilities()}
+     */
+    public record Shown(long micros, int number, int[] order) implements Event {
+    }
+
+    /**
+     * A question being answered, or running out of time.
+     *
+     * @param number      Position of the question in the session, starting at 1
+     * @param choice      The option chosen, as shown, or -1 if time ran out
+     * @param correct     If the answer was correct
+     * @param expired     If time ran out
+     * @param thinkMicros How long the question was shown before it was answered
+     */
+    public record Answered(long micros, int number, int choice, boolean correct, boolean expired, long thinkMicros)
+            implements Event {
+    }
+
+    /**
+     * A recorded session.
+     *
+     * @param id        Identifies the session within the trace
+     * @param micros    When it started, in microseconds since the trace started
+     * @param questions The ids of its questions, in the order they were to be asked
+     * @param events    What happened, in order
+     */
+    public record Session(int id, long micros, String user, String topic, String mode, int[] questions,
+                          List<Event> events) {
+    }
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private int sessions;
+    /**
+     * Set once the trace is finished, after which records are dropped
+     */
+    private boolean closed;
+
+    /**
+     * Starts a trace, replacing the file if it exists.
+     *
+     * @param file The file to record to
+     */
+    public SessionTrace(File file) {
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The trace being recorded to, or null if recording is off
+     */
+    public static SessionTrace current() {
+        return current;
+    }
+
+    /**
+     * Starts recording every new session to a file, finishing any trace already being recorded.
+     *
+     * @param file The file to record to
+     */
+    public static synchronized void record(File file) {
+        stop();
+        current = new SessionTrace(file);
+    }
+
+    /**
+     * Finishes the trace being recorded, if any, and turns recording off.
+     */
+    public static synchronized void stop() {
+        SessionTrace trace = current;
+        current = null;
+        if (trace != null) trace.close();
+    }
+
+    /**
+     * Records a session starting.
+     *
+     * @param questions The questions it will ask, in order
+     * @return The session's id in the trace
+     */
+    public synchronized int started(String user, String topic, Gamemode mode, List<Question> questions) {
+        int session = sessions++;
+        if (closed) return session;
+        try {
+            header(START, session);
+            out.writeUTF(user);
+            out.writeUTF(topic);
+            out.writeUTF(mode.name());
+            writeVarLong(questions.size());
+            for (Question question : questions) out.writeInt(question.id());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return session;
+    }
+
+    /**
+     * Records a question being shown.
+     *
+     * @param order For each option as shown, its position in {@link Question#possibilities()}
+     */
+    public synchronized void shown(int session, int number, int[] order) {
+        if (closed) return;
+        try {
+            header(SHOWN, session);
+            writeVarLong(number);
+            writeVarLong(order.length);
+            for (int option : order) out.writeByte(option);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records a question being answered, or running out of time.
+     *
+     * @param choice The option chosen, or -1 if time ran out
+     * @param nanos  How long the question was shown
+     */
+    public synchronized void answered(int session, int number, int choice, boolean correct, boolean expired, long nanos) {
+        if (closed) return;
+        try {
+            header(ANSWERED, session);
+            writeVarLong(number);
+            writeVarLong(choice + 1);
+            out.writeByte((correct ? CORRECT : 0) | (expired ? EXPIRED : 0));
+            writeVarLong(nanos / 1000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes out any buffered records.
+     */
+    public synchronized void flush() {
+        if (closed) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finishes the trace. Sessions still recording to it carry on, and their records are dropped.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a trace.
+     *
+     * @param file A trace written by this class
+     * @return Every session started in it, in the order they started
+     */
+    public static List<Session> read(File file) {
+        Map<Integer, Session> sessions = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IllegalArgumentException(file + " is not a session trace");
+            short version = in.readShort();
+            if (version != VERSION) throw new IllegalArgumentException("Unsupported trace version " + version);
+            in.readLong();
+            while (true) {
+                int type = in.read();
+                if (type < 0) break;
+                int id = (int) readVarLong(in);
+                long micros = readVarLong(in);
+                switch (type) {
+                    case START -> {
+                        String user = in.readUTF();
+                        String topic = in.readUTF();
+                        String mode = in.readUTF();
+                        int[] questions = new int[(int) readVarLong(in)];
+                        for (int i = 0; i < questions.length; i++) questions[i] = in.readInt();
+                        sessions.put(id, new Session(id, micros, user, topic, mode, questions, new ArrayList<>()));
+                    }
+                    case SHOWN -> {
+                        int number = (int) readVarLong(in);
+                        int[] order = new int[(int) readVarLong(in)];
+                        for (int i = 0; i < order.length; i++) order[i] = in.readUnsignedByte();
+                        add(sessions, id, new Shown(micros, number, order));
+                    }
+                    case ANSWERED -> {
+                        int number = (int) readVarLong(in);
+                        int choice = (int) readVarLong(in) - 1;
+                        int flags = in.readUnsignedByte();
+                        long think = readVarLong(in);
+                        add(sessions, id, new Answered(micros, number, choice,
+                                (flags & CORRECT) != 0, (flags & EXPIRED) != 0, think));
+                    }
+                    default -> throw new IOException("Unknown record type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // The trace was cut short, so the last record is incomplete
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ArrayList<>(sessions.values());
+    }
+
+    private static void add(Map<Integer, Session> sessions, int id, Event event) {
+        Session session = sessions.get(id);
+        if (session != null) session.events().add(event);
+    }
+
+    private void header(byte type, int session) throws IOException {
+        out.writeByte(type);
+        writeVarLong(session);
+        writeVarLong((System.nanoTime() - startNanos) / 1000);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            if (shift > 56) throw new IOException("Malformed number");
+        }
+    }
+}
@@ -1,6 +1,10 @@
+package quizzer;
+
 public enum Statistic {
     MEAN,
     MEDIAN,
+    LOWER_QUARTILE,
+    UPPER_QUARTILE,
     TOTAL_ANSWERED,
     TOTAL_CORRECT,
 }
@@ -0,0 +1,217 @@
+package quizzer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel, which runs tasks after a delay using one thread for any number of timeouts.
+ * <p>
+ * Time is divided into ticks, and the wheel into a ring of slots, one per tick. A timeout is placed in the slot
+ * its deadline falls in, along with how many more turns of the wheel it must wait, so scheduling and cancelling
+ * cost the same however many timeouts are pending. Each tick, the thread runs the due timeouts in one slot.
+ * Tasks run at or up to one tick after their deadline, on the wheel's thread, so they should be short.
+ * <p>
+ * When nothing is pending the thread parks until something is scheduled, so an idle wheel costs nothing.
+ * Timeouts are handed to the thread through queues, and the slots are only touched by the thread.
+ */
+public class TimingWheel {
+
+    /**
+     * Length of a tick of the shared wheel
+     */
+    public static final long TICK_MILLIS = 10;
+    /**
+     * Slots in the shared wheel, so one turn takes about 10 seconds
+     */
+    public static final int SLOTS = 1024;
+
+    private static TimingWheel shared;
+
+    /**
+     * A scheduled task, which can be cancelled until it runs.
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        /**
+         * Turns of the wheel left, and the slot's list, owned by the wheel's thread
+         */
+        private long rounds;
+        private int slot = -1;
+        private Timeout prev, next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Stops the task from running.
+         *
+         * @return If the task had not yet run or been cancelled
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] heads;
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final Thread thread;
+    /**
+     * The next tick to process, only used by the wheel's thread
+     */
+    private long tick;
+
+    /**
+     * Creates a wheel and starts its thread, which is a daemon so it never keeps the app running.
+     *
+     * @param tickMillis Length of a tick, the precision of the deadlines
+     * @param slots      Number of slots, rounded up to a power of two
+     */
+    public TimingWheel(long tickMillis, int slots) {
+        if (tickMillis <= 0 || slots <= 0) throw new IllegalArgumentException("Tick and slots must be positive");
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) size <<= 1;
+        this.mask = size - 1;
+        this.heads = new Timeout[size];
+        thread = new Thread(this::run, "quiz-timer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return The wheel shared by all sessions
+     */
+    public static synchronized TimingWheel shared() {
+        if (shared == null) shared = new TimingWheel(TICK_MILLIS, SLOTS);
+        return shared;
+    }
+
+    /**
+     * Schedules a task. Safe to call from any thread.
+     *
+     * @param delayMillis How long to wait before running the task
+     * @param task        The task, which runs on the wheel's thread
+     * @return A handle to cancel the task with
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        long at = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        // Rounded up, so the task never runs early
+        Timeout timeout = new Timeout(this, task, (at + tickNanos - 1) / tickNanos);
+        pending.incrementAndGet();
+        added.add(timeout);
+        LockSupport.unpark(thread);
+        return timeout;
+    }
+
+    /**
+     * @return The number of tasks scheduled that have not yet run or been cancelled
+     */
+    public long pending() {
+        return pending.get();
+    }
+
+    private void run() {
+        while (true) {
+            if (pending.get() == 0 && added.isEmpty()) {
+                unlinkCancelled();
+                // Anything scheduled from here on unparks the thread, even if it has not parked yet
+                LockSupport.park(this);
+                tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos);
+            }
+            long wait = (tick * tickNanos) - (System.nanoTime() - startNanos);
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            transfer();
+            unlinkCancelled();
+            expire(heads[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Places the newly scheduled timeouts in their slots.
+     */
+    private void transfer() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.isCancelled()) continue;
+            long due = Math.max(timeout.deadlineTick, tick);
+            timeout.rounds = (due - tick) >> Integer.numberOfTrailingZeros(heads.length);
+            int slot = (int) (due & mask);
+            timeout.slot = slot;
+            timeout.next = heads[slot];
+            if (heads[slot] != null) heads[slot].prev = timeout;
+            heads[slot] = timeout;
+        }
+    }
+
+    private void unlinkCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.slot >= 0) unlink(timeout);
+        }
+    }
+
+    /**
+     * Runs the timeouts in a slot that are due this turn, and counts down the rest.
+     */
+    private void expire(Timeout timeout) {
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                unlink(timeout);
+                if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                    pending.decrementAndGet();
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Timed task failed: " + e);
+                    }
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            heads[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+        timeout.slot = -1;
+    }
+}
@@ -0,0 +1,292 @@
+package quizzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the sessions in a {@link SessionTrace} through {@link Quiz}, {@link QuizSession} and {@link User},
+ * so a workload seen in production can be reproduced, or run against two builds to compare them.
+ * <p>
+ * Each session is started when it was recorded, relative to the start of the trace, orders its questions for its
+ * gamemode as the app would, then shows and answers the recorded questions when they were shown and answered.
+ * Answers are matched by option text, so each is right or wrong just as recorded, whatever order the options are
+ * shuffled into. The shuffles are seeded, so two replays of a trace do identical work. Time limits are not replayed:
+ * a question that ran out is answered wrongly instead. Sessions on generated topics are skipped, since the trace
+ * only holds the ids of their questions' classes, see {@link GeneratedTopic}.
+ * <p>
+ * Waiting sessions are kept on the {@link TimingWheel}, and a session's events run on a pool of threads
+ * when they are due, so a trace with many concurrent players needs no more threads than are busy at once.
+ * <p>
+ * Usage: {@code java quizzer.TraceReplay <trace> [--option value]...}. Options, with their defaults:
+ * <pre>{@code
+ * --speed 1           1 replays at the recorded pace, 10 ten times as fast, 0 as fast as possible
+ * --threads N         threads the events run on, by default one per processor
+ * --seed 1            seed for shuffling options
+ * --questions <dir>   folder of topics the questions are looked up in, by default res/questions/
+ * }</pre>
+ * Replays run in a temporary data folder, which is deleted afterwards, so every player starts with no history.
+ * The report gives throughput, latency percentiles for each step as in {@link LoadGenerator},
+ * and how late events ran compared with the recorded pace.
+ */
+public class TraceReplay {
+
+    private double speed = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 1;
+
+    private final LatencyHistogram start = new LatencyHistogram();
+    private final LatencyHistogram deliver = new LatencyHistogram();
+    private final LatencyHistogram answer = new LatencyHistogram();
+    private final LatencyHistogram finish = new LatencyHistogram();
+    private final LatencyHistogram late = new LatencyHistogram();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong differing = new AtomicLong();
+
+    private Set<String> topics;
+    private ExecutorService pool;
+    private CountDownLatch remaining;
+    private long began;
+
+    /**
+     * @param speed   How many times faster than recorded to replay, or 0 for as fast as possible
+     * @param threads Threads the events run on
+     * @param seed    Seed for shuffling options
+     */
+    public TraceReplay(double speed, int threads, long seed) {
+        if (speed < 0) throw new IllegalArgumentException("Speed can't be negative");
+        this.speed = speed;
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    private TraceReplay() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java quizzer.TraceReplay <trace> [--speed 1] [--threads N] [--seed 1] [--questions dir]");
+            System.exit(1);
+        }
+        TraceReplay replay = new TraceReplay();
+        File questions = new File("res/questions/");
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--speed" -> replay.speed = Double.parseDouble(value);
+                case "--threads" -> replay.threads = Integer.parseInt(value);
+                case "--seed" -> replay.seed = Long.parseLong(value);
+                case "--questions" -> questions = new File(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        List<SessionTrace.Session> sessions = SessionTrace.read(new File(args[0]));
+        File root;
+        try {
+            root = Files.createTempDirectory("quizzer-replay").toFile();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Must be set before anything touches GameData
+        System.setProperty(GameData.PROPERTY, new File(root, "GameData").getPath());
+        System.out.printf("Replaying %d sessions at %s, on %d threads%n", sessions.size(),
+                replay.speed == 0 ? "full speed" : replay.speed + "x", replay.threads);
+        try {
+            long elapsed = replay.run(sessions, new QuestionLoader(questions));
+            HistoryWriter.shared().close();
+            replay.report(elapsed);
+        } finally {
+            LoadGenerator.delete(root);
+        }
+    }
+
+    /**
+     * Replays sessions in the current data folder, and waits for them all to finish.
+     *
+     * @param sessions The sessions, from {@link SessionTrace#read}
+     * @param loader   Loader for the topics holding the sessions' questions
+     * @return How long the replay took, in nanoseconds
+     */
+    public long run(List<SessionTrace.Session> sessions, QuestionLoader loader) {
+        Map<Integer, Question> byId = new HashMap<>();
+        topics = Set.of(loader.listTopics());
+        for (String topic : topics) {
+            if (loader.isGenerated(topic)) continue;
+            for (Question question : loader.getEntries(topic)) byId.put(question.id(), question);
+        }
+        pool = Executors.newFixedThreadPool(threads);
+        remaining = new CountDownLatch(sessions.size());
+        began = System.nanoTime();
+        try {
+            for (SessionTrace.Session session : sessions) {
+                Question[] questions = new Question[session.questions().length];
+                boolean found = true;
+                for (int i = 0; i < questions.length; i++) {
+                    questions[i] = byId.get(session.questions()[i]);
+                    found &= questions[i] != null;
+                }
+                if (!found) {
+                    // Some of its questions have since been edited or removed
+                    skipped.incrementAndGet();
+                    remaining.countDown();
+                    continue;
+                }
+                schedule(new Replayer(session, List.of(questions), loader), session.micros());
+            }
+            remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        return System.nanoTime() - began;
+    }
+
+    /**
+     * @return Sessions replayed to their last recorded event
+     */
+    public long replayed() {
+        return replayed.get();
+    }
+
+    /**
+     * @return Sessions not replayed because their questions could not be found
+     */
+    public long skipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return Answers whose correctness differed from the recording, which should only happen if a question changed
+     */
+    public long differing() {
+        return differing.get();
+    }
+
+    /**
+     * @return Answers replayed, including the last of each session
+     */
+    public long answers() {
+        return answer.count() + finish.count();
+    }
+
+    /**
+     * Runs a session's next event when it is due.
+     */
+    private void schedule(Replayer replayer, long micros) {
+        long delay = speed == 0 ? 0 : began + (long) (micros * 1000 / speed) - System.nanoTime();
+        if (delay < 1_000_000) {
+            pool.execute(replayer);
+        } else {
+            TimingWheel.shared().schedule(delay / 1_000_000, () -> pool.execute(replayer));
+        }
+    }
+
+    /**
+     * One session being replayed, one event at a time.
+     */
+    private class Replayer implements Runnable {
+        private final SessionTrace.Session recorded;
+        private final List<Question> questions;
+        private final QuestionLoader loader;
+        /**
+         * The next event, or -1 if the session has not started
+         */
+        private int next = -1;
+        private QuizSession session;
+        private QuizSession.Prompt prompt;
+        private int[] order;
+
+        Replayer(SessionTrace.Session recorded, List<Question> questions, QuestionLoader loader) {
+            this.recorded = recorded;
+            this.questions = questions;
+            this.loader = loader;
+        }
+
+        @Override
+        public void run() {
+            long due = next < 0 ? recorded.micros() : recorded.events().get(next).micros();
+            if (speed > 0) late.record(Math.max(0, System.nanoTime() - began - (long) (due * 1000 / speed)));
+            try {
+                if (next < 0) {
+                    begin();
+                } else if (recorded.events().get(next) instanceof SessionTrace.Shown shown) {
+                    long time = System.nanoTime();
+                    prompt = session.nextPrompt();
+                    order = shown.order();
+                    deliver.recordSince(time);
+                } else if (recorded.events().get(next) instanceof SessionTrace.Answered answered) {
+                    submit(answered);
+                }
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                System.err.println("Session " + recorded.id() + " failed: " + e);
+                remaining.countDown();
+                return;
+            }
+            next++;
+            if (next < recorded.events().size()) {
+                schedule(this, recorded.events().get(next).micros());
+            } else {
+                replayed.incrementAndGet();
+                remaining.countDown();
+            }
+        }
+
+        private void begin() {
+            User user = UserRegistry.get(recorded.user());
+            Gamemode mode = Gamemode.valueOf(recorded.mode());
+            long time = System.nanoTime();
+            // Ordered as the app would, for the work it takes, though the recorded questions are the ones asked
+            if (topics.contains(recorded.topic())) new Quiz(recorded.topic(), user, loader, null).questions(mode);
+            session = new QuizSession(recorded.topic(), mode, questions, user, new Random(seed * 31 + recorded.id()));
+            start.recordSince(time);
+        }
+
+        private void submit(SessionTrace.Answered answered) {
+            if (prompt == null) prompt = session.nextPrompt();
+            Question question = questions.get(prompt.number() - 1);
+            int choice = -1;
+            if (answered.choice() >= 0 && order != null && answered.choice() < order.length
+                    && order[answered.choice()] < prompt.options().size()) {
+                choice = prompt.options().indexOf(question.possibilities().get(order[answered.choice()]));
+            }
+            if (choice < 0) {
+                // Ran out of time, or the options have changed, so any wrong answer will do
+                choice = (prompt.options().indexOf(question.answer()) + 1) % prompt.options().size();
+            }
+            long time = System.nanoTime();
+            QuizSession.Result result = session.submitAnswer(choice);
+            (session.isFinished() ? finish : answer).recordSince(time);
+            if (result.correct() != answered.correct()) differing.incrementAndGet();
+            prompt = null;
+            order = null;
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%d sessions replayed, %d skipped for missing questions, %d failed%n",
+                replayed.get(), skipped.get(), failed.get());
+        System.out.printf("%d answers in %.2f s: %.1f answers/s, %d answered differently from the trace%n",
+                answers(), seconds, answers() / seconds, differing.get());
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s  (microseconds)%n",
+                "", "count", "mean", "p50", "p99", "p999", "max");
+        LoadGenerator.row("start", start);
+        LoadGenerator.row("deliver", deliver);
+        LoadGenerator.row("answer", answer);
+        LoadGenerator.row("finish", finish);
+        if (speed > 0) LoadGenerator.row("late", late);
+    }
+}
@@ -0,0 +1,287 @@
+package quizzer;
+
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A class representing a user of the quiz, created after logging in.
+ * Contains methods for querying statistics of the user.
+ */
+public class User {
+
+    /**
+     * Number of users shown on the leaderboard
+     */
+    public static final int LEADERBOARD_SIZE = 10;
+
+    /**
+     * Username of the user.
+     */
+    private final String name;
+    /**
+     * Map of all answered questions, by id,
+     * along with how many times they have been answered incorrectly.
+     * This is public to allow it to be edited directly by calling code.
+     */
+    public final History history = new History();
+    /**
+     * When each question the user has answered is next due for review.
+     */
+    public final ReviewSchedule schedule = new ReviewSchedule();
+    /**
+     * Journal of changes made since the history file was last written.
+     */
+    private final HistoryJournal journal;
+    /**
+     * Held shared while recording a change, and exclusively while compacting the journal.
+     */
+    private final ReentrantReadWriteLock persistence = new ReentrantReadWriteLock();
+
+    /**
+     * Creates a User with the given username.
+     * Sessions should share one User per name through {@link UserRegistry#get}, so this is left to the registry,
+     * and to tests of loading users.
+     *
+     * @param name The user's username
+     */
+    User(String name) {
+        this(name, UserStore.shared().get(name));
+    }
+
+    /**
+     * Creates a User from their record in the {@link UserStore}, which has already been read.
+     *
+     * @param name   The user's username
+     * @param stored The user's record, or null if they have none yet
+     */
+    User(String name, byte[] stored) {
+        this.name = name;
+        journal = new HistoryJournal(name, UserStore.shared(), GameData.file("UserJournal/"));
+        Metrics.HistoryLoadEvent event = new Metrics.HistoryLoadEvent();
+        event.begin();
+        long start = Metrics.start();
+        // Stores a record for the user if they are new
+        journal.recover(history, schedule, stored);
+        Metrics.record(Metrics.Operation.HISTORY_LOAD, start);
+        if (event.shouldCommit()) {
+            event.user = name;
+            event.entries = history.size();
+            event.commit();
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Records the user's answer to a question, saving it to the journal straight away.
+     * Safe to call from several sessions at once.
+     *
+     * @param question The question that was answered
+     * @param correct  If the answer was correct
+     */
+    public void recordAnswer(String question, boolean correct) {
+        record(null, QuestionIds.shared().id(question), question, correct);
+    }
+
+    /**
+     * Records the user's answer to a question, and reschedules it for review,
+     * saving both to the journal straight away. Safe to call from several sessions at once.
+     *
+     * @param topic    The topic the question was asked in, or null to leave the schedule as it is
+     * @param question The question that was answered
+     * @param correct  If the answer was correct
+     */
+    public void recordAnswer(String topic, String question, boolean correct) {
+        record(topic, QuestionIds.shared().id(question), question, correct);
+    }
+
+    /**
+     * As {@link #recordAnswer(String, String, boolean)}, using the id the question already holds,
+     * and recording it under its {@link Question#historyKey()}.
+     */
+    public void recordAnswer(String topic, Question question, boolean correct) {
+        record(topic, question.id(), question.historyKey(), correct);
+    }
+
+    private void record(String topic, int id, String question, boolean correct) {
+        persistence.readLock().lock();
+        try {
+            if (correct) {
+                // Correct answers only need recording the first time a question is seen
+                if (history.putIfAbsent(id, 0)) journal.recordCorrect(id);
+            } else {
+                history.increment(id);
+                journal.recordWrong(id);
+            }
+            if (topic != null) {
+                long now = System.currentTimeMillis();
+                // Journalled in the same order as applied, since the schedule lock is released in between
+                synchronized (schedule) {
+                    schedule.review(topic, question, correct, now);
+                    journal.recordReview(topic, question, correct, now);
+                }
+            }
+        } finally {
+            persistence.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records that the user has finished a round, queueing them to be saved by the {@link HistoryWriter},
+     * straight away if the journal has grown large, and updating the user's place on the leaderboard.
+     */
+    public void recordRound() {
+        persistence.readLock().lock();
+        try {
+            history.incrementRounds();
+            journal.recordRound();
+        } finally {
+            persistence.readLock().unlock();
+        }
+        if (journal.needsCompaction()) {
+            save();
+        } else {
+            HistoryWriter.shared().queue(this);
+        }
+        UserAggregates aggregates = UserAggregates.shared();
+        UserStats stats = history.stats();
+        // Read under the index's lock, so a round finishing alongside can't replace these totals with older ones
+        synchronized (aggregates) {
+            long answered, correct;
+            synchronized (stats) {
+                answered = stats.totalAnswered();
+                correct = stats.totalCorrect();
+            }
+            aggregates.update(name, answered, correct);
+        }
+    }
+
+    /**
+     * Writes the whole history to the store, and starts a new journal.
+     * The write is made by the {@link HistoryWriter}, along with any other users waiting to be saved.
+     *
+     * @return Completes once the history has been written
+     */
+    public Future<?> save() {
+        return HistoryWriter.shared().write(this);
+    }
+
+    /**
+     * Starts a new journal, and snapshots the history and schedule it follows on from, for the {@link HistoryWriter}.
+     */
+    HistoryJournal.Compaction compact() {
+        // Every change is made to the history and the journal together,
+        // so hold changes back while the journal rolls over, or a change could be saved twice
+        persistence.writeLock().lock();
+        try {
+            return journal.compact(history.snapshot(), schedule.snapshot());
+        } finally {
+            persistence.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a given statistic for the user.
+     * Valid statistics are:
+     * <pre>{@code
+     * MEAN
+     * MEDIAN
+     * LOWER_QUARTILE
+     * UPPER_QUARTILE
+     * TOTAL_CORRECT
+     * TOTAL_ANSWERED}</pre>
+     * <p>
+     * To query standard deviation, use User.stdDev().
+     *
+     * @param stat The statistic to be queried
+     * @return The value of the queried statistic
+     */
+    public double getStatistic(Statistic stat) {
+        Metrics.StatsQueryEvent event = new Metrics.StatsQueryEvent();
+        event.begin();
+        long start = Metrics.start();
+        // Kept up to date as the history changes, see UserStats
+        UserStats stats = history.stats();
+        double value = switch (stat) {
+            // #correct questions divided by #total questions answered
+            case MEAN -> stats.mean();
+            // The middle of the sorted list of correctly answered questions
+            case MEDIAN -> stats.median();
+            case LOWER_QUARTILE -> stats.percentile(0.25);
+            case UPPER_QUARTILE -> stats.percentile(0.75);
+            case TOTAL_CORRECT -> stats.totalCorrect();
+            case TOTAL_ANSWERED -> stats.totalAnswered();
+        };
+        Metrics.record(Metrics.Operation.STATS_QUERY, start);
+        if (event.shouldCommit()) {
+            event.user = name;
+            event.query = stat.name();
+            event.commit();
+        }
+        return value;
+    }
+
+    /**
+     * Calculates the standard deviation of all users' answer means.
+     *
+     * @return The standard deviation of all users
+     */
+    public static double stdDev() {
+        Metrics.StatsQueryEvent event = new Metrics.StatsQueryEvent();
+        event.begin();
+        long start = Metrics.start();
+        double stdDev = UserAggregates.shared().stdDev();
+        Metrics.record(Metrics.Operation.LEADERBOARD, start);
+        if (event.shouldCommit()) {
+            event.query = "STD_DEV";
+            event.commit();
+        }
+        return stdDev;
+    }
+
+    /**
+     * Returns a list of the means of all users, as of each user's last save.
+     *
+     * @return ArrayList of means
+     */
+    public static ArrayList<Double> userMeans() {
+        // Each index will hold the mean of a user
+        ArrayList<Double> means = new ArrayList<>();
+        // Read from the snapshots alone, rather than loading every user and their journals
+        UserStore.shared().scan(null, null, (name, stored) -> {
+            History.Snapshot snapshot = HistoryJournal.decodeHistory(stored);
+            long answered = snapshot.totalAnswered();
+            means.add(answered == 0 ? 0 : (double) snapshot.totalCorrect() / answered);
+        });
+        return means;
+    }
+
+    /**
+     * @return The names of every user, in order
+     */
+    public static List<String> names() {
+        return UserStore.shared().names();
+    }
+
+
+    /**
+     * Returns a String representation of a leaderboard, comparing users by their means.
+     *
+     * @return String leaderboard
+     */
+    public static String leaderboard() {
+        Metrics.StatsQueryEvent event = new Metrics.StatsQueryEvent();
+        event.begin();
+        long start = Metrics.start();
+        String leaderboard = UserAggregates.shared().leaderboard(LEADERBOARD_SIZE);
+        Metrics.record(Metrics.Operation.LEADERBOARD, start);
+        if (event.shouldCommit()) {
+            event.query = "LEADERBOARD";
+            event.commit();
+        }
+        return leaderboard;
+    }
+}
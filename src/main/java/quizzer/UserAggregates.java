@@ -0,0 +1,237 @@
+package quizzer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * A persistent index of every user's totals, used for the leaderboard and population statistics.
+ * <p>
+ * The index is updated whenever a user finishes a quiz, rather than rebuilt by reading every user's history.
+ * Users are ranked in a {@link RankTree}, so top-K and rank queries cost O(log n),
+ * and running sums of the users' means make the population mean and standard deviation O(1).
+ * <p>
+ * On disk, each update is appended as a {@code name|answered|correct} line, and the last line for a user wins.
+ * The file is rewritten once it holds more than twice as many lines as there are users.
+ * If the file does not exist, it is rebuilt from the snapshots in the {@link UserStore}, as of each user's last save.
+ */
+public class UserAggregates {
+
+    /**
+     * A user's position on the leaderboard.
+     * Ties on the mean are broken by name, so users with equal scores are all kept.
+     */
+    private record Score(double mean, String name) {
+        static final Comparator<Score> ORDER = Comparator.comparingDouble(Score::mean).thenComparing(Score::name);
+    }
+
+    /**
+     * A user's totals, as reported by {@link User#getStatistic(Statistic)}.
+     */
+    private record Totals(long answered, long correct) {
+        double mean() {
+            return answered == 0 ? 0 : (double) correct / answered;
+        }
+    }
+
+    private static UserAggregates shared;
+
+    private final File file;
+    private final HashMap<String, Totals> totals = new HashMap<>();
+    private final RankTree<Score> ranks = new RankTree<>(Score.ORDER);
+    private double sumMeans;
+    private double sumSquaredMeans;
+    /**
+     * Number of lines in the file, used to decide when to compact it
+     */
+    private int lines;
+
+    /**
+     * Opens the index stored in the given file, building it from `users` if the file doesn't exist.
+     *
+     * @param file  File in which the index is saved
+     * @param users Store of every user, used to build a missing index
+     */
+    public UserAggregates(File file, UserStore users) {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        } else {
+            rebuild(users);
+        }
+    }
+
+    /**
+     * @return The index shared by the whole app, stored in GameData
+     */
+    public static synchronized UserAggregates shared() {
+        if (shared == null) {
+            shared = new UserAggregates(GameData.file("aggregates.txt"), UserStore.shared());
+        }
+        return shared;
+    }
+
+    /**
+     * Records a user's latest totals, replacing any previous totals for that user.
+     *
+     * @param name     The user's username
+     * @param answered Total questions answered by the user
+     * @param correct  Total questions answered correctly by the user
+     */
+    public synchronized void update(String name, long answered, long correct) {
+        put(name, new Totals(answered, correct));
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write(name + "|" + answered + "|" + correct + "\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        lines++;
+        if (lines > 2 * totals.size()) compact();
+    }
+
+    /**
+     * @return The number of users in the index
+     */
+    public synchronized int users() {
+        return totals.size();
+    }
+
+    /**
+     * @return The mean of all users' means
+     */
+    public synchronized double mean() {
+        int n = totals.size();
+        return n == 0 ? 0 : sumMeans / n;
+    }
+
+    /**
+     * @return The standard deviation of all users' means
+     */
+    public synchronized double stdDev() {
+        int n = totals.size();
+        if (n == 0) return 0;
+        double mu = sumMeans / n;
+        // E[x^2] - E[x]^2, clamped since rounding can push it slightly below zero
+        return Math.sqrt(Math.max(0, sumSquaredMeans / n - mu * mu));
+    }
+
+    /**
+     * Returns a user's position on the leaderboard.
+     *
+     * @param name The user's username
+     * @return The user's rank, where 1 is the best score, or 0 if the user is not in the index
+     */
+    public synchronized int rank(String name) {
+        Totals t = totals.get(name);
+        if (t == null) return 0;
+        return ranks.size() - ranks.countLess(new Score(t.mean(), name));
+    }
+
+    /**
+     * @param name The user's username
+     * @return The percentage of other users with a lower mean than the given user
+     */
+    public synchronized double percentile(String name) {
+        Totals t = totals.get(name);
+        if (t == null || totals.size() < 2) return 0;
+        // Compare against the lowest possible key with this mean, so ties don't count as lower
+        int lower = ranks.countLess(new Score(t.mean(), ""));
+        return 100.0 * lower / (totals.size() - 1);
+    }
+
+    /**
+     * Returns a String representation of the top of the leaderboard, comparing users by their means.
+     *
+     * @param limit Maximum number of users to show
+     * @return String leaderboard
+     */
+    public synchronized String leaderboard(int limit) {
+        StringBuilder builder = new StringBuilder("User \t Score\n");
+        builder.append("---- \t -----\n");
+        for (Score score : ranks.largest(limit)) {
+            builder.append(String.format("%s \t %.2f%n", score.name(), score.mean()));
+        }
+        return builder.toString();
+    }
+
+    private void put(String name, Totals updated) {
+        Totals old = totals.put(name, updated);
+        if (old != null) {
+            ranks.remove(new Score(old.mean(), name));
+            sumMeans -= old.mean();
+            sumSquaredMeans -= old.mean() * old.mean();
+        }
+        ranks.add(new Score(updated.mean(), name));
+        sumMeans += updated.mean();
+        sumSquaredMeans += updated.mean() * updated.mean();
+    }
+
+    private void load() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            reader.lines().forEach(line -> {
+                // Usernames may contain '|', so split from the right
+                int second = line.lastIndexOf('|');
+                int first = line.lastIndexOf('|', second - 1);
+                if (first < 0) return;
+                try {
+                    put(line.substring(0, first), new Totals(
+                            Long.parseLong(line.substring(first + 1, second)),
+                            Long.parseLong(line.substring(second + 1))));
+                    lines++;
+                } catch (NumberFormatException ignored) {
+                    // A line cut short by a crash, the user's previous line still stands
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Recompute the sums from scratch, rather than trusting many incremental updates
+        resum();
+    }
+
+    private void rebuild(UserStore users) {
+        long start = Metrics.start();
+        // Users are read in name order, which after the store's last compaction is the order of its file.
+        // Only their snapshots are read, as of their last save, rather than loading each user and their journals
+        users.scan(null, null, (name, stored) -> {
+            History.Snapshot snapshot = HistoryJournal.decodeHistory(stored);
+            // Only users who have finished a round are ranked, as by update()
+            if (snapshot.rounds() == 0) return;
+            put(name, new Totals(snapshot.totalAnswered(), snapshot.totalCorrect()));
+        });
+        compact();
+        Metrics.record(Metrics.Operation.LEADERBOARD_REBUILD, start);
+    }
+
+    private void resum() {
+        sumMeans = 0;
+        sumSquaredMeans = 0;
+        for (Totals t : totals.values()) {
+            sumMeans += t.mean();
+            sumSquaredMeans += t.mean() * t.mean();
+        }
+    }
+
+    /**
+     * Rewrites the file with one line per user, replacing it atomically.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void compact() {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temp))) {
+            totals.forEach((name, t) -> writer.println(name + "|" + t.answered() + "|" + t.correct()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        lines = totals.size();
+        resum();
+    }
+}
@@ -0,0 +1,74 @@
+package quizzer;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one shared {@link User} per username for the whole process,
+ * so that sessions playing as the same user update the same history.
+ * <p>
+ * Users are held weakly, so once no session, save or server connection holds a user they are dropped,
+ * and are loaded again from the {@link UserStore} and their journal the next time they are asked for.
+ */
+public class UserRegistry {
+
+    private static final ConcurrentHashMap<String, Entry> users = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<User> collected = new ReferenceQueue<>();
+
+    /**
+     * A user, and the name they are registered under, so the entry can be removed once they are collected.
+     */
+    private static final class Entry extends WeakReference<User> {
+        private final String name;
+
+        Entry(String name, User user) {
+            super(user, collected);
+            this.name = name;
+        }
+    }
+
+    private UserRegistry() {
+    }
+
+    /**
+     * Returns the user with the given name, loading them on first use.
+     *
+     * @param name The user's username
+     * @return The process-wide instance for that user
+     */
+    public static User get(String name) {
+        expunge();
+        Entry entry = users.get(name);
+        User user = entry == null ? null : entry.get();
+        if (user != null) return user;
+        // Held strongly here, as the entry alone would let the new user be collected before it is returned
+        User[] loaded = new User[1];
+        users.compute(name, (key, existing) -> {
+            loaded[0] = existing == null ? null : existing.get();
+            if (loaded[0] != null) return existing;
+            loaded[0] = new User(key);
+            return new Entry(key, loaded[0]);
+        });
+        return loaded[0];
+    }
+
+    /**
+     * @return The number of users currently loaded
+     */
+    public static int size() {
+        expunge();
+        return users.size();
+    }
+
+    /**
+     * Removes the entries of users who have been collected.
+     */
+    private static void expunge() {
+        for (Reference<? extends User> reference; (reference = collected.poll()) != null; ) {
+            Entry entry = (Entry) reference;
+            users.remove(entry.name, entry);
+        }
+    }
+}
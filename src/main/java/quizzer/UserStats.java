@@ -0,0 +1,95 @@
+package quizzer;
+
+/**
+ * Running statistics over a user's question history, kept up to date as the history changes.
+ * <p>
+ * Totals are held as running sums, so the mean and totals cost O(1).
+ * Wrong-answer counts are kept in a {@link RankTree}, so the median and other percentiles cost O(log n).
+ * Queries do not allocate. All methods are synchronized, since sessions may share a user.
+ * <p>
+ * Statistics follow the history's model: each question in the history was asked once per round.
+ */
+public class UserStats {
+
+    private long rounds;
+    private long questions;
+    /**
+     * Sum of the wrong-answer counts of every question
+     */
+    private long wrongs;
+    private final RankTree<Integer> wrongCounts = new RankTree<>(Integer::compare);
+
+    /**
+     * Records that the number of rounds played has changed.
+     *
+     * @param rounds The new number of rounds
+     */
+    synchronized void setRounds(long rounds) {
+        this.rounds = rounds;
+    }
+
+    /**
+     * Records that a question's wrong-answer count has changed.
+     *
+     * @param old     The previous count, or null if the question is new
+     * @param updated The new count, or null if the question was removed
+     */
+    synchronized void update(Integer old, Integer updated) {
+        if (old != null) {
+            wrongCounts.remove(old);
+            wrongs -= old;
+            questions--;
+        }
+        if (updated != null) {
+            wrongCounts.add(updated);
+            wrongs += updated;
+            questions++;
+        }
+    }
+
+    /**
+     * @return How many questions have been answered, counting each round separately
+     */
+    public synchronized long totalAnswered() {
+        return rounds * questions;
+    }
+
+    /**
+     * @return How many questions have been answered correctly, counting each round separately
+     */
+    public synchronized long totalCorrect() {
+        return totalAnswered() - wrongs;
+    }
+
+    /**
+     * @return The fraction of all answers that were correct
+     */
+    public synchronized double mean() {
+        long answered = totalAnswered();
+        return answered == 0 ? 0 : (double) totalCorrect() / answered;
+    }
+
+    /**
+     * @return The median fraction of rounds in which a question was answered correctly
+     */
+    public synchronized double median() {
+        return percentile(0.5);
+    }
+
+    /**
+     * Returns the given percentile of the fraction of rounds in which each question was answered correctly.
+     * The value at position {@code floor(p * n)} of the sorted fractions is used,
+     * so {@code percentile(0.5)} is the upper median.
+     *
+     * @param p The percentile, from 0 to 1
+     * @return The fraction of rounds answered correctly at that percentile
+     */
+    public synchronized double percentile(double p) {
+        if (questions == 0 || rounds == 0) return 0;
+        int n = (int) questions;
+        int index = Math.min(n - 1, (int) (p * n));
+        // Sorting the correct counts ascending is sorting the wrong counts descending
+        int wrong = wrongCounts.select(n - 1 - index);
+        return (double) (rounds - wrong) / rounds;
+    }
+}
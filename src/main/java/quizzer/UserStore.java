@@ -0,0 +1,487 @@
+package quizzer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps every user's saved data in one file, as a sorted index from username to a record.
+ * <p>
+ * The file is divided into {@value #PAGE_SIZE}-byte pages. Records are only ever appended, each starting on a
+ * page of its own, so writing a user never touches the pages of another, or their own previous record:
+ * <pre>{@code
+ * int length, byte kind, short nameLength, name, value, int checksum}</pre>
+ * The index of every user's latest record is kept in memory, and is itself written as a record every
+ * {@value #CHECKPOINT_RECORDS} writes. Page 0 holds two copies of the header, naming the last index written;
+ * a checkpoint fills in the older copy, so a crash part way through leaves the other intact.
+ * On opening, the index is read and the records written since it are replayed,
+ * stopping at the first record cut short by a crash.
+ * <p>
+ * Records replaced since the last checkpoint are left in place. Once they take up more pages than the live records,
+ * the checkpoint rewrites the file instead, with the users in name order so that scans read it front to back.
+ * <p>
+ * Users saved in the older per-user files can be moved into the store with {@link #main}.
+ * All methods are synchronized, except {@link #scan}, which only locks the store while reading.
+ */
+public class UserStore implements Closeable {
+
+    static final int MAGIC = 0x51555352; // "QUSR"
+    static final int VERSION = 1;
+    static final int PAGE_SIZE = 256;
+    /**
+     * Offsets of the two header copies in page 0
+     */
+    private static final int[] HEADERS = {0, PAGE_SIZE / 2};
+    private static final int HEADER_SIZE = 32;
+    /**
+     * Records written between checkpoints
+     */
+    static final int CHECKPOINT_RECORDS = 1024;
+    /**
+     * The file is not rewritten while it is smaller than this many pages
+     */
+    private static final int MIN_COMPACT_PAGES = 1024;
+    /**
+     * Users read under each lock of a scan
+     */
+    private static final int SCAN_BATCH = 64;
+    /**
+     * Bytes in a record besides its name and value
+     */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 2 + 4;
+
+    /**
+     * Record kinds
+     */
+    private static final byte USER = 'U';
+    private static final byte REMOVED = 'D';
+    private static final byte INDEX = 'X';
+
+    /**
+     * Where a record is stored.
+     */
+    private record Extent(int page, int pages) {
+    }
+
+    /**
+     * A record read back from the file.
+     */
+    private record Record(byte kind, String name, byte[] value, int pages) {
+    }
+
+    private static UserStore shared;
+
+    private final File file;
+    private FileChannel channel;
+    private final TreeMap<String, Extent> index = new TreeMap<>();
+    /**
+     * Next page to append to
+     */
+    private int pageCount;
+    /**
+     * Pages of the records in the index
+     */
+    private long livePages;
+    private Extent indexExtent;
+    private long sequence;
+    private int sinceCheckpoint;
+
+    /**
+     * Opens the store, creating it if needed.
+     *
+     * @param file The store's file
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public UserStore(File file) {
+        this.file = file;
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try {
+            channel = open(file);
+            if (channel.size() == 0) {
+                pageCount = 1;
+                writeHeader(channel, 0, null);
+                channel.force(false);
+            } else {
+                load();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The store for the data folder
+     */
+    public static synchronized UserStore shared() {
+        if (shared == null) shared = new UserStore(GameData.file("users.db"));
+        return shared;
+    }
+
+    /**
+     * Moves users from the per-user files of older versions into the store for the data folder.
+     * <p>
+     * Usage: {@code java quizzer.UserStore [dataFolder]}
+     */
+    public static void main(String[] args) {
+        if (args.length > 0) System.setProperty(GameData.PROPERTY, args[0]);
+        long start = System.nanoTime();
+        try (UserStore store = shared()) {
+            int migrated = HistoryJournal.migrate(store, GameData.file("UserHistory/"), GameData.file("UserSchedule/"));
+            System.out.printf("Migrated %d users into %s in %.1f s, %d users stored%n",
+                    migrated, store.file, (System.nanoTime() - start) / 1e9, store.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param name The user's username
+     * @return The user's record, or null if they have none
+     */
+    public synchronized byte[] get(String name) {
+        Extent extent = index.get(name);
+        return extent == null ? null : read(name, extent);
+    }
+
+    public synchronized boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * Replaces a user's record. It is safe from a crash of the process once this returns,
+     * and from a crash of the machine once {@link #sync()} has been called.
+     *
+     * @param name  The user's username
+     * @param value The user's new record
+     */
+    public synchronized void put(String name, byte[] value) {
+        Extent extent = append(USER, name, value);
+        Extent old = index.put(name, extent);
+        livePages += extent.pages() - (old == null ? 0 : old.pages());
+        written();
+    }
+
+    /**
+     * Deletes a user's record, if they have one.
+     */
+    public synchronized void remove(String name) {
+        Extent old = index.get(name);
+        if (old == null) return;
+        append(REMOVED, name, new byte[0]);
+        index.remove(name);
+        livePages -= old.pages();
+        written();
+    }
+
+    /**
+     * Forces every write so far to the disk.
+     */
+    public synchronized void sync() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The number of users stored
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return The name of every user stored, in order
+     */
+    public synchronized List<String> names() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * Calls the action with each user in a range of names, in order, along with their record.
+     * <p>
+     * Records are read a batch at a time, and the action is called with the store unlocked,
+     * so it may use the store itself. Users added or removed during the scan may or may not be seen.
+     *
+     * @param from   The first name in the range, or null to start at the first user
+     * @param to     The name after the range, which is not included, or null to continue to the last user
+     * @param action Called with each user's name and record
+     */
+    public void scan(String from, String to, BiConsumer<String, byte[]> action) {
+        String last = null;
+        List<String> names = new ArrayList<>(SCAN_BATCH);
+        List<byte[]> values = new ArrayList<>(SCAN_BATCH);
+        while (true) {
+            synchronized (this) {
+                SortedMap<String, Extent> range = last != null ? index.tailMap(last, false)
+                        : from != null ? index.tailMap(from, true) : index;
+                for (Map.Entry<String, Extent> entry : range.entrySet()) {
+                    if (names.size() == SCAN_BATCH || to != null && entry.getKey().compareTo(to) >= 0) break;
+                    names.add(entry.getKey());
+                    values.add(read(entry.getKey(), entry.getValue()));
+                }
+            }
+            for (int i = 0; i < names.size(); i++) action.accept(names.get(i), values.get(i));
+            if (names.size() < SCAN_BATCH) return;
+            last = names.get(names.size() - 1);
+            names.clear();
+            values.clear();
+        }
+    }
+
+    /**
+     * Writes the index, so that reopening the store doesn't replay the records written since the last one.
+     * Rewrites the whole file instead if most of its pages hold replaced records.
+     */
+    public synchronized void checkpoint() {
+        try {
+            long deadPages = pageCount - 1 - livePages - (indexExtent == null ? 0 : indexExtent.pages());
+            if (deadPages > livePages && pageCount > MIN_COMPACT_PAGES) {
+                compact();
+            } else {
+                Extent written = append(INDEX, "", encodeIndex(index));
+                channel.force(false);
+                writeHeader(channel, ++sequence, written);
+                channel.force(false);
+                indexExtent = written;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sinceCheckpoint = 0;
+    }
+
+    /**
+     * @return The size of the file, in pages
+     */
+    public synchronized int pages() {
+        return pageCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        if (sinceCheckpoint > 0) checkpoint();
+        channel.close();
+    }
+
+    private void written() {
+        if (++sinceCheckpoint >= CHECKPOINT_RECORDS) checkpoint();
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Reads the index named by the newest intact header, then replays the records written after it.
+     */
+    private void load() throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        channel.read(page, 0);
+        int start = 1;
+        boolean found = false;
+        for (int offset : HEADERS) {
+            page.position(offset);
+            int magic = page.getInt();
+            int version = page.getInt();
+            int pageSize = page.getInt();
+            long headerSequence = page.getLong();
+            int indexPage = page.getInt();
+            int indexPages = page.getInt();
+            int checksum = page.getInt();
+            if (magic != MAGIC || checksum != checksum(page.array(), offset, HEADER_SIZE - 4)) continue;
+            if (version != VERSION || pageSize != PAGE_SIZE) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+            if (found && headerSequence < sequence) continue;
+            found = true;
+            sequence = headerSequence;
+            indexExtent = indexPage == 0 ? null : new Extent(indexPage, indexPages);
+        }
+        if (!found) throw new IOException("Not a user store: " + file);
+        index.clear();
+        livePages = 0;
+        if (indexExtent != null) {
+            Record record = readRecord(indexExtent.page());
+            if (record == null || record.kind() != INDEX) throw new IOException("Damaged index in " + file);
+            decodeIndex(record.value());
+            start = indexExtent.page() + indexExtent.pages();
+        }
+        int end = (int) (channel.size() / PAGE_SIZE);
+        pageCount = start;
+        while (pageCount < end) {
+            Record record = readRecord(pageCount);
+            if (record == null) break;
+            Extent extent = new Extent(pageCount, record.pages());
+            if (record.kind() == USER) {
+                Extent old = index.put(record.name(), extent);
+                livePages += extent.pages() - (old == null ? 0 : old.pages());
+            } else if (record.kind() == REMOVED) {
+                Extent old = index.remove(record.name());
+                if (old != null) livePages -= old.pages();
+            }
+            // An index with no header pointing to it was cut short by a crash, and is ignored
+            pageCount += record.pages();
+            sinceCheckpoint++;
+        }
+        // Drop whatever follows the last whole record, so new records aren't appended after garbage
+        channel.truncate((long) pageCount * PAGE_SIZE);
+    }
+
+    /**
+     * Writes every user's latest record into a new file in name order, then swaps it in.
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        TreeMap<String, Extent> moved = new TreeMap<>();
+        int next = 1;
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, Extent> entry : index.entrySet()) {
+                Extent extent = entry.getValue();
+                ByteBuffer pages = ByteBuffer.allocate(extent.pages() * PAGE_SIZE);
+                channel.read(pages, (long) extent.page() * PAGE_SIZE);
+                pages.flip();
+                out.write(pages, (long) next * PAGE_SIZE);
+                moved.put(entry.getKey(), new Extent(next, extent.pages()));
+                next += extent.pages();
+            }
+            ByteBuffer record = encodeRecord(INDEX, "", encodeIndex(moved));
+            Extent written = new Extent(next, record.remaining() / PAGE_SIZE);
+            out.write(record, (long) next * PAGE_SIZE);
+            writeHeader(out, sequence + 1, written);
+            out.force(false);
+            next += written.pages();
+            indexExtent = written;
+        }
+        // The old file is untouched until the move, so a crash leaves one or the other
+        channel.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(file);
+        sequence++;
+        index.clear();
+        index.putAll(moved);
+        pageCount = next;
+    }
+
+    private Extent append(byte kind, String name, byte[] value) {
+        ByteBuffer record = encodeRecord(kind, name, value);
+        Extent extent = new Extent(pageCount, record.remaining() / PAGE_SIZE);
+        try {
+            channel.write(record, (long) pageCount * PAGE_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pageCount += extent.pages();
+        return extent;
+    }
+
+    /**
+     * @return The record, padded to a whole number of pages
+     */
+    private static ByteBuffer encodeRecord(byte kind, String name, byte[] value) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        if (key.length > 0xFFFF) throw new IllegalArgumentException("Username is too long");
+        int length = RECORD_OVERHEAD + key.length + value.length;
+        ByteBuffer record = ByteBuffer.allocate((length + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE);
+        record.putInt(value.length).put(kind).putShort((short) key.length).put(key).put(value);
+        record.putInt(checksum(record.array(), 0, record.position()));
+        record.clear();
+        return record;
+    }
+
+    /**
+     * @return The record starting at the page, or null if it is damaged or cut short
+     */
+    private Record readRecord(int page) throws IOException {
+        long position = (long) page * PAGE_SIZE;
+        ByteBuffer head = ByteBuffer.allocate(7);
+        if (channel.read(head, position) < head.capacity()) return null;
+        head.flip();
+        int length = head.getInt();
+        byte kind = head.get();
+        int nameLength = Short.toUnsignedInt(head.getShort());
+        long total = (long) RECORD_OVERHEAD + nameLength + length;
+        if (length < 0 || kind != USER && kind != REMOVED && kind != INDEX || position + total > channel.size()) {
+            return null;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) total);
+        channel.read(bytes, position);
+        int checksum = bytes.getInt((int) total - 4);
+        if (checksum != checksum(bytes.array(), 0, (int) total - 4)) return null;
+        String name = new String(bytes.array(), 7, nameLength, StandardCharsets.UTF_8);
+        byte[] value = Arrays.copyOfRange(bytes.array(), 7 + nameLength, 7 + nameLength + length);
+        return new Record(kind, name, value, (int) ((total + PAGE_SIZE - 1) / PAGE_SIZE));
+    }
+
+    private byte[] read(String name, Extent extent) {
+        try {
+            Record record = readRecord(extent.page());
+            if (record == null || record.kind() != USER || !record.name().equals(name)) {
+                throw new IOException("Damaged record for " + name + " in " + file);
+            }
+            return record.value();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encodeIndex(TreeMap<String, Extent> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entries.size() * 24);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Extent> entry : entries.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(key.length);
+                out.write(key);
+                out.writeInt(entry.getValue().page());
+                out.writeInt(entry.getValue().pages());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void decodeIndex(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            for (int i = in.readInt(); i > 0; i--) {
+                byte[] key = new byte[in.readUnsignedShort()];
+                in.readFully(key);
+                Extent extent = new Extent(in.readInt(), in.readInt());
+                index.put(new String(key, StandardCharsets.UTF_8), extent);
+                livePages += extent.pages();
+            }
+        }
+    }
+
+    /**
+     * Writes the header copy that the given sequence number selects.
+     *
+     * @param indexExtent The index the header points to, or null if none has been written
+     */
+    private static void writeHeader(FileChannel out, long sequence, Extent indexExtent) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(PAGE_SIZE).putLong(sequence);
+        header.putInt(indexExtent == null ? 0 : indexExtent.page()).putInt(indexExtent == null ? 0 : indexExtent.pages());
+        header.putInt(checksum(header.array(), 0, header.position()));
+        header.flip();
+        out.write(header, HEADERS[(int) (sequence % 2)]);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,1329 @@
+package quizzer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Tests {
+    public static void main(String[] args) {
+        testMean();
+        testMedian();
+        testLoaderCache();
+        testSampling();
+        testCompiledBank();
+        testAggregates();
+        testIncrementalStats();
+        testJournal();
+        testCredentials();
+        testCredentialThroughput();
+        testServer();
+        testQuizSession();
+        testConcurrentHistory();
+        testLatencyHistogram();
+        testMetrics();
+        testBulkImport();
+        testSchedule();
+        testQuestionIds();
+        testSearch();
+        testUserStore();
+        testDifficultyAnalytics();
+        testHotReload();
+        testTimedQuiz();
+        testHistoryWriter();
+        testSessionTrace();
+        testGeneratedTopic();
+        testNearDuplicates();
+    }
+
+    public static void testMean() {
+        User user = initTestUser();
+        var history = user.history;
+        assert user.getStatistic(Statistic.MEAN) == 0.5;
+        history.replace("1", 0);
+        assert user.getStatistic(Statistic.MEAN) == 0.75;
+        history.replace("2", 0);
+        assert user.getStatistic(Statistic.MEAN) == 1.0;
+        for (int id : history.ids()) {
+            history.replace(id, 1);
+        }
+        assert user.getStatistic(Statistic.MEAN) == 0.0;
+    }
+
+    public static void testMedian() {
+        User user = initTestUser();
+        var history = user.history;
+        assert user.getStatistic(Statistic.MEDIAN) == 1.0;
+        history.replace("3", 1);
+        assert user.getStatistic(Statistic.MEDIAN) == 0.0;
+        history.replace("4", 1);
+        assert user.getStatistic(Statistic.MEDIAN) == 0.0;
+    }
+
+    public static void testLoaderCache() {
+        QuestionLoader loader = new QuestionLoader(new File("res/questions/"), 1);
+        var first = loader.getEntries("CS");
+        assert loader.getEntries("CS") == first;
+        assert loader.cacheHits() == 1 && loader.cacheMisses() == 1;
+        // A cache of size 1 evicts CS when Maths is loaded
+        loader.getEntries("Maths");
+        assert loader.getEntries("CS") != first;
+        assert loader.cacheMisses() == 3;
+        try {
+            first.clear();
+            assert false : "Shared question lists must be immutable";
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    public static void testSampling() {
+        QuestionLoader loader = new QuestionLoader(new File("res/questions/"));
+        var all = loader.getEntries("Maths").stream().map(Question::question).toList();
+        var sample = new QuestionLoader(new File("res/questions/")).sampleEntries("Maths", 3, new Random(1));
+        assert sample.size() == 3;
+        assert sample.stream().map(Question::question).distinct().count() == 3;
+        assert sample.stream().allMatch(q -> all.contains(q.question()));
+        // Asking for more than the topic holds returns the whole topic
+        assert loader.sampleEntries("Maths", 100, new Random(1)).size() == all.size();
+        var tiers = loader.sampleByDifficulty("Maths", 1, new Random(1));
+        tiers.forEach((difficulty, questions) -> {
+            assert questions.size() <= 1;
+            assert questions.stream().allMatch(q -> q.difficulty() == difficulty);
+        });
+
+        // Malformed lines don't take places in the sample from valid ones
+        File dir = new File("GameData/TestSampling/");
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        try (FileWriter writer = new FileWriter(new File(dir, "Mixed.txt"))) {
+            for (int i = 0; i < 20; i++) {
+                writer.write("Empty field " + i + "?||B|C|D|NOVICE\n");
+                writer.write("Too many " + i + "?|A|B|C|D|NOVICE|tag|more\n");
+                writer.write("No tags " + i + "?|A|B|C|D|NOVICE| , \n");
+                writer.write("Bad difficulty " + i + "?|A|B|C|D|EASY\n");
+                writer.write("Too few " + i + "?|A|B|NOVICE\n");
+            }
+            for (int i = 0; i < 3; i++) writer.write("Valid " + i + "?|A|B|C|D|NOVICE\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var mixed = new QuestionLoader(dir);
+        for (int seed = 0; seed < 20; seed++) {
+            assert mixed.sampleEntries("Mixed", 3, new Random(seed)).size() == 3;
+            assert mixed.sampleByDifficulty("Mixed", 3, new Random(seed)).get(Question.Difficulty.NOVICE).size() == 3;
+        }
+    }
+
+    public static void testCompiledBank() {
+        File compiled = new File("GameData/TestCompiled/");
+        File source = new File("res/questions/CS.txt");
+        int count = BankCompiler.compile(source, new File(compiled, "CS.qbank"));
+        var text = new QuestionLoader(new File("res/questions/"), new File("GameData/Missing/"), 1).getEntries("CS");
+        var bank = new QuestionLoader(new File("res/questions/"), compiled, 1).getEntries("CS");
+        assert bank instanceof CompiledBank;
+        assert count == text.size() && bank.size() == text.size();
+        for (int i = 0; i < text.size(); i++) {
+            assert bank.get(i).toString().equals(text.get(i).toString());
+        }
+        // A bank compiled from an older version of the source is ignored
+        assert CompiledBank.open(new File(compiled, "CS.qbank"), new File("res/questions/Maths.txt")) == null;
+    }
+
+    public static void testAggregates() {
+        File file = new File("GameData/TestAggregates/aggregates.txt");
+        File users = new File("GameData/TestAggregates/users.db");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        users.delete();
+        var empty = new UserStore(users);
+        var aggregates = new UserAggregates(file, empty);
+        aggregates.update("a", 4, 2);
+        aggregates.update("b", 4, 2);
+        aggregates.update("c", 4, 4);
+        aggregates.update("c", 4, 0);
+        aggregates.update("c", 4, 4);
+        // Users with the same score are all kept
+        assert aggregates.leaderboard(10).lines().count() == 5;
+        assert aggregates.rank("c") == 1;
+        assert aggregates.percentile("c") == 100.0;
+        assert aggregates.percentile("a") == 0.0;
+        // Means are 0.5, 0.5 and 1
+        double mu = 2.0 / 3.0;
+        double expected = Math.sqrt((2 * (0.5 - mu) * (0.5 - mu) + (1 - mu) * (1 - mu)) / 3);
+        assert Math.abs(aggregates.stdDev() - expected) < 1e-9;
+        var reloaded = new UserAggregates(file, empty);
+        assert reloaded.users() == 3 && reloaded.rank("c") == 1;
+        assert Math.abs(reloaded.stdDev() - expected) < 1e-9;
+    }
+
+    public static void testIncrementalStats() {
+        Random random = new Random(42);
+        History history = new History();
+        history.setRounds(20);
+        for (int i = 0; i < 2000; i++) {
+            String key = String.valueOf(random.nextInt(300));
+            if (random.nextBoolean()) history.increment(key);
+            else history.putIfAbsent(key, 0);
+        }
+        // Recompute from scratch, the way getStatistic used to
+        int rounds = history.rounds();
+        List<Integer> corrects = new ArrayList<>();
+        history.forEach((id, v) -> corrects.add(rounds - v));
+        Collections.sort(corrects);
+        int total = corrects.stream().mapToInt(Integer::intValue).sum();
+        UserStats stats = history.stats();
+        assert stats.totalAnswered() == (long) rounds * corrects.size();
+        assert stats.totalCorrect() == total;
+        assert stats.mean() == (double) total / (rounds * corrects.size());
+        assert stats.median() == (double) corrects.get(corrects.size() / 2) / rounds;
+        assert stats.percentile(0.25) == (double) corrects.get(corrects.size() / 4) / rounds;
+    }
+
+    public static void testJournal() {
+        String name = "journal-test";
+        freshUser(name);
+        User user = new User(name);
+        user.recordAnswer("a", false);
+        user.recordAnswer("b", true);
+        user.recordAnswer("a", false);
+        user.recordRound();
+        // Replaying the journal restores the history without the history file being written
+        User recovered = new User(name);
+        assert recovered.history.snapshot().equals(user.history.snapshot());
+        assert recovered.history.getOrDefault("a", 0) == 2;
+        assert recovered.history.rounds() == 1;
+        // A record torn by a crash is ignored
+        try (FileWriter writer = new FileWriter("GameData/UserJournal/" + name + ".0.log", true)) {
+            writer.write("W|0000");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        assert new User(name).history.snapshot().equals(user.history.snapshot());
+        // Compaction writes a snapshot and removes the journals it covers
+        try {
+            recovered.save().get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        assert !new File("GameData/UserJournal/" + name + ".0.log").exists();
+        User compacted = new User(name);
+        assert compacted.history.snapshot().equals(user.history.snapshot());
+        compacted.recordRound();
+        assert new User(name).history.rounds() == 2;
+
+        // Answers recorded after recovering from a torn record are kept, rather than written after it
+        String torn = "journal-torn-test";
+        freshUser(torn);
+        new User(torn).recordAnswer("a", false);
+        try (FileWriter writer = new FileWriter("GameData/UserJournal/" + torn + ".0.log", true)) {
+            writer.write("w|0000");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        User afterCrash = new User(torn);
+        assert afterCrash.history.getOrDefault("a", 0) == 1;
+        afterCrash.recordAnswer("b", false);
+        User again = new User(torn);
+        assert again.history.getOrDefault("a", 0) == 1 && again.history.getOrDefault("b", 0) == 1;
+    }
+
+    public static void testCredentials() {
+        File dir = new File("GameData/TestCredentials/");
+        File index = new File(dir, "credentials.idx");
+        File legacy = new File(dir, "users.txt");
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        //noinspection ResultOfMethodCallIgnored
+        index.delete();
+        try (FileWriter writer = new FileWriter(legacy)) {
+            writer.write("old," + "first".hashCode() + "\n");
+            writer.write("old," + "second".hashCode() + "\n");
+            writer.write("x".repeat(CredentialStore.MAX_NAME_BYTES + 1) + "," + "long".hashCode() + "\n");
+            writer.write("corrupt,not a hash\n");
+            writer.write("after," + "third".hashCode() + "\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try (var store = new CredentialStore(index, legacy, 1000, 2)) {
+            assert store.register("alice", "secret").join();
+            assert !store.register("alice", "other").join();
+            String token = store.login("alice", "secret").join();
+            assert token != null;
+            assert "alice".equals(store.authenticate(token));
+            assert store.login("alice", "wrong").join() == null;
+            assert store.login("nobody", "secret").join() == null;
+            // Imported accounts keep the last password in the old file
+            assert store.login("old", "first").join() == null;
+            assert store.login("old", "second").join() != null;
+            // Names too long for a slot are left out of the import
+            assert !store.exists("x".repeat(CredentialStore.MAX_NAME_BYTES + 1));
+            // as are corrupt lines, without stopping the rest
+            assert !store.exists("corrupt") && store.login("after", "third").join() != null;
+            // Enough users to grow the table a few times
+            for (int i = 0; i < 200; i++) store.register("user" + i, "pw" + i).join();
+            for (int i = 0; i < 200; i++) assert store.exists("user" + i);
+            store.logout(token);
+            assert store.authenticate(token) == null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try (var store = new CredentialStore(index, legacy, 1000, 2)) {
+            assert store.login("alice", "secret").join() != null;
+            assert store.login("user150", "pw150").join() != null;
+            // The imported account was upgraded on its first login
+            assert store.login("old", "second").join() != null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void testCredentialThroughput() {
+        File index = new File("GameData/TestCredentials/throughput.idx");
+        //noinspection ResultOfMethodCallIgnored
+        index.delete();
+        int threads = Runtime.getRuntime().availableProcessors();
+        try (var store = new CredentialStore(index, new File("GameData/TestCredentials/none.txt"), 20_000, threads)) {
+            store.register("bench", "password").join();
+            String token = store.login("bench", "password").join();
+            int requests = threads * 32;
+            long[] latencies = new long[requests];
+            List<CompletableFuture<String>> logins = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                long submitted = System.nanoTime();
+                int n = i;
+                logins.add(store.login("bench", "password")
+                        .whenComplete((t, e) -> latencies[n] = System.nanoTime() - submitted));
+            }
+            // Token checks must not wait behind the queued hashes
+            long tokenStart = System.nanoTime();
+            for (int i = 0; i < 1000; i++) assert "bench".equals(store.authenticate(token));
+            long tokenNanos = (System.nanoTime() - tokenStart) / 1000;
+            logins.forEach(f -> {
+                assert f.join() != null;
+            });
+            long elapsed = System.nanoTime() - start;
+            Arrays.sort(latencies);
+            // Every login was hashed and timed, within the time the whole batch took
+            assert latencies[0] > 0 && latencies[requests - 1] <= elapsed : Arrays.toString(latencies);
+            assert tokenNanos < 1_000_000 : tokenNanos + " ns per token check";
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void testServer() {
+        File index = new File("GameData/TestCredentials/server.idx");
+        //noinspection ResultOfMethodCallIgnored
+        index.delete();
+        var store = new CredentialStore(index, new File("GameData/TestCredentials/none.txt"), 1000, 2);
+        var loader = new QuestionLoader(new File("res/questions/"));
+        try (var server = new QuizServer(0, loader, new Login(store))) {
+            server.start();
+            int players = 50;
+            var clients = Executors.newFixedThreadPool(players);
+            List<CompletableFuture<String>> games = new ArrayList<>();
+            for (int i = 0; i < players; i++) {
+                String name = "server-test-" + i;
+                games.add(CompletableFuture.supplyAsync(() -> {
+                    try (var client = new QuizClient(server.port())) {
+                        assert client.request("REGISTER " + name + " pw").equals("OK");
+                        assert client.request("LOGIN " + name + " wrong").startsWith("ERR");
+                        assert client.request("LOGIN " + name + " pw").startsWith("OK ");
+                        assert client.request("TOPICS").contains("Maths");
+                        String end = client.play("Maths", Gamemode.QUICK, 0);
+                        assert client.request("STATS").startsWith("OK ");
+                        assert client.request("QUIT").equals("BYE");
+                        return end;
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, clients));
+            }
+            int questions = loader.getEntries("Maths").size();
+            for (var game : games) {
+                String[] end = game.join().split(" ");
+                assert end[0].equals("END") && Integer.parseInt(end[2]) == questions;
+            }
+            clients.shutdown();
+            try (var client = new QuizClient(server.port())) {
+                assert client.request("START Maths RANDOM").startsWith("ERR");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void testQuizSession() {
+        User user = new User("session-test");
+        var loader = new QuestionLoader(new File("res/questions/"));
+        var questions = loader.getEntries("CS");
+        int rounds = user.history.rounds();
+        QuizSession session = new Quiz("CS", user, loader, null).start(Gamemode.ESCALATION);
+        assert session.size() == questions.size();
+        var first = session.nextPrompt();
+        // Prompting again without answering returns the same question and option order
+        assert session.nextPrompt().equals(first);
+        var result = session.submitAnswer(0);
+        assert result.correct() == (first.options().indexOf(answerTo(questions, first.question())) == 0);
+        // Serialize half way through, then resume and finish
+        QuizSession resumed;
+        try {
+            var bytes = new ByteArrayOutputStream();
+            try (var out = new ObjectOutputStream(bytes)) {
+                out.writeObject(session);
+            }
+            try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                resumed = ((QuizSession) in.readObject()).resume(user);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        int correct = result.correct() ? 1 : 0;
+        while (!resumed.isFinished()) {
+            var prompt = resumed.nextPrompt();
+            int answer = prompt.options().indexOf(answerTo(questions, prompt.question()));
+            assert resumed.submitAnswer(answer).correct();
+            correct++;
+        }
+        assert resumed.summary().correct() == correct && resumed.summary().total() == questions.size();
+        assert user.history.rounds() == rounds + 1;
+        try {
+            resumed.nextPrompt();
+            assert false : "A finished session has no more prompts";
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    /**
+     * Forgets a user's saved history and journals, so a test starts them from nothing.
+     */
+    private static void freshUser(String name) {
+        UserStore.shared().remove(name);
+        for (File f : Objects.requireNonNullElse(new File("GameData/UserJournal/").listFiles(), new File[0])) {
+            //noinspection ResultOfMethodCallIgnored
+            if (f.getName().startsWith(name + ".")) f.delete();
+        }
+    }
+
+    private static String answerTo(List<Question> questions, String question) {
+        return questions.stream().filter(q -> q.question().equals(question)).findFirst().orElseThrow().answer();
+    }
+
+    public static void testConcurrentHistory() {
+        String name = "concurrent-test";
+        freshUser(name);
+        User user = UserRegistry.get(name);
+        assert UserRegistry.get(name) == user;
+        int writers = 8;
+        int answers = 5000;
+        AtomicLong started = new AtomicLong();
+        AtomicLong completed = new AtomicLong();
+        AtomicBoolean done = new AtomicBoolean();
+        var pool = Executors.newFixedThreadPool(writers + 1);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int seed = w;
+            tasks.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < answers; i++) {
+                    started.incrementAndGet();
+                    user.recordAnswer("q" + random.nextInt(500), false);
+                    completed.incrementAndGet();
+                }
+            }));
+        }
+        // Each snapshot must contain every answer completed before it started, and none not yet started
+        tasks.add(pool.submit(() -> {
+            while (!done.get()) {
+                long before = completed.get();
+                long total = user.history.snapshot().wrongs().sum();
+                long after = started.get();
+                assert before <= total && total <= after : before + " <= " + total + " <= " + after;
+            }
+        }));
+        try {
+            for (int i = 0; i < writers; i++) tasks.get(i).get();
+            done.set(true);
+            tasks.get(writers).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        pool.shutdown();
+        user.recordRound();
+        var snapshot = user.history.snapshot();
+        assert snapshot.wrongs().sum() == writers * answers && snapshot.rounds() == 1;
+        assert user.history.stats().totalAnswered() == snapshot.size();
+        // Every answer was saved
+        try {
+            user.save().get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        assert new User(name).history.snapshot().equals(snapshot);
+        // Users no longer held by anything are dropped from the registry
+        String idle = name + "-idle";
+        WeakReference<User> dropped = new WeakReference<>(UserRegistry.get(idle));
+        for (int i = 0; i < 20 && dropped.get() != null; i++) System.gc();
+        assert dropped.get() == null;
+        assert UserRegistry.get(idle).name().equals(idle);
+        UserStore.shared().remove(idle);
+    }
+
+    public static void testLatencyHistogram() {
+        var histogram = new LatencyHistogram();
+        assert histogram.percentile(0.5) == 0;
+        for (int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+        assert histogram.count() == 1000;
+        assert histogram.mean() == 500_500;
+        assert histogram.max() == 1_000_000;
+        // Within the 1/32 bucket width of the exact percentiles
+        assert Math.abs(histogram.percentile(0.5) - 500_000) <= 500_000 / 32;
+        assert Math.abs(histogram.percentile(0.99) - 990_000) <= 990_000 / 32;
+        assert histogram.percentile(1) == 1_000_000;
+        // Small values are exact, and the largest value has a bucket
+        histogram.reset();
+        histogram.record(5);
+        histogram.record(Long.MAX_VALUE);
+        assert histogram.percentile(0.5) == 5;
+        assert histogram.percentile(1) == Long.MAX_VALUE;
+    }
+
+    public static void testMetrics() {
+        User user = new User("metrics-test");
+        var loader = new QuestionLoader(new File("res/questions/"), 1);
+        // Nothing is recorded while metrics are off
+        Metrics.reset();
+        Metrics.setEnabled(false);
+        QuizSession off = new Quiz("Maths", user, loader, null).start(Gamemode.QUICK);
+        off.submitAnswer(0);
+        user.getStatistic(Statistic.MEAN);
+        assert Metrics.latency(Metrics.Operation.ANSWER).count() == 0;
+        assert Metrics.latency(Metrics.Operation.STATS_QUERY).count() == 0;
+
+        Metrics.setEnabled(true);
+        try {
+            QuizSession session = new Quiz("CS", user, loader, null).start(Gamemode.RANDOM);
+            String question = session.nextPrompt().question();
+            session.submitAnswer(0);
+            user.getStatistic(Statistic.MEAN);
+            User.leaderboard();
+            assert Metrics.latency(Metrics.Operation.TOPIC_LOAD).count() == 1;
+            assert Metrics.latency(Metrics.Operation.ANSWER).count() == 1;
+            assert Metrics.latency(Metrics.Operation.JOURNAL_WRITE).count() >= 1;
+            assert Metrics.latency(Metrics.Operation.STATS_QUERY).count() == 1;
+            assert Metrics.latency(Metrics.Operation.LEADERBOARD).count() == 1;
+            assert Metrics.slowestQuestions(10).get(0).endsWith(question);
+            // And the same numbers over JMX
+            Metrics.register();
+            var server = ManagementFactory.getPlatformMBeanServer();
+            var name = new ObjectName(Metrics.OBJECT_NAME);
+            assert (Boolean) server.getAttribute(name, "Enabled");
+            Object count = server.invoke(name, "count", new Object[]{"ANSWER"}, new String[]{String.class.getName()});
+            assert (Long) count == 1;
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.setEnabled(false);
+            Metrics.reset();
+        }
+    }
+
+    public static void testBulkImport() {
+        File dir = new File("GameData/TestImport/");
+        File input = new File(dir, "in/Dump.txt");
+        File out = new File(dir, "out/");
+        //noinspection ResultOfMethodCallIgnored
+        input.getParentFile().mkdirs();
+        var lines = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) lines.add("Question " + i + "?|A" + i + "|B" + i + "|C" + i + "|D" + i + "|NOVICE");
+        lines.set(10, "Too|few|fields|NOVICE");
+        lines.set(20, "Q?|A|B|C|D|IMPOSSIBLE");
+        lines.set(30, "Q?|A|B|a|D|EXPERT");
+        lines.set(40, "  QUESTION   5? |A|B|C|D|EXPERT");
+        lines.set(50, "");
+        lines.set(60, "Windows line?|A|B|C|D|EXPERT\r");
+        try (FileWriter writer = new FileWriter(input)) {
+            for (String line : lines) writer.write(line + "\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // A tiny chunk size, so the file is split many times and line numbers must carry across chunks
+        BulkImporter.Report report;
+        try (var importer = new BulkImporter(4, 64)) {
+            report = importer.importTopics(List.of(input), out, new File(dir, "compiled/"));
+        }
+        var result = report.topics().get(0);
+        assert result.topic().equals("Dump") && result.lines() == 200;
+        assert result.malformed() == 2 && result.invalid() == 1 && result.duplicates() == 1;
+        assert result.imported() == 200 - 1 - 2 - 1 - 1;
+        var issues = report.issues();
+        assert issues.size() == 4;
+        assert issues.get(0).line() == 11 && issues.get(0).problem() == BulkImporter.Problem.MALFORMED;
+        assert issues.get(1).line() == 21 && issues.get(1).detail().contains("IMPOSSIBLE");
+        assert issues.get(2).line() == 31 && issues.get(2).problem() == BulkImporter.Problem.INVALID;
+        assert issues.get(3).line() == 41 && issues.get(3).detail().endsWith("line 6");
+
+        var loader = new QuestionLoader(out, new File(dir, "compiled/"), 1);
+        var imported = loader.getEntries("Dump");
+        assert imported instanceof CompiledBank && imported.size() == result.imported();
+        // Five lines before it were dropped
+        assert imported.get(55).question().equals("Windows line?");
+
+        // The loader skips bad lines rather than failing, and a missing topic is an exception rather than an exit
+        var fast = new QuestionLoader(input.getParentFile(), new File(dir, "missing/"), 1);
+        assert fast.getEntries("Dump").size() == 200 - 1 - 2;
+        try {
+            fast.getEntries("Nothing");
+            assert false : "Missing topics should throw";
+        } catch (UncheckedIOException ignored) {
+        }
+    }
+
+    public static void testSchedule() {
+        long now = 1_000_000_000_000L;
+        var schedule = new ReviewSchedule();
+        // SM-2 intervals: 1 day, 6 days, then times the ease, which a correct answer leaves as it is
+        schedule.review("T", "a", true, now);
+        assert schedule.due("T", "a") == now + ReviewSchedule.DAY;
+        schedule.review("T", "a", true, now);
+        assert schedule.due("T", "a") == now + 6 * ReviewSchedule.DAY;
+        schedule.review("T", "a", true, now);
+        assert schedule.due("T", "a") == now + 15 * ReviewSchedule.DAY;
+        // A wrong answer brings the question back within minutes
+        schedule.review("T", "b", true, now);
+        schedule.review("T", "b", false, now);
+        assert schedule.due("T", "b") == now + ReviewSchedule.RELEARN_MINUTES * 60 * 1000L;
+        assert schedule.nextDue("T").equals("b") && schedule.due("Other", "b") == -1;
+
+        var questions = new ArrayList<Question>();
+        for (int i = 0; i < 6; i++) questions.add(new Question("q" + i + "|A|B|C|D|NOVICE"));
+        schedule.review("T", "q4", true, now);
+        schedule.review("T", "q2", false, now);
+        schedule.review("T", "q5", false, now - 1);
+        // Cards for questions no longer in the topic are skipped
+        var order = schedule.order("T", questions, now + ReviewSchedule.DAY / 2);
+        var texts = new ArrayList<String>();
+        for (Question q : order) texts.add(q.question());
+        // Due soonest first, then never answered in file order, then not yet due
+        assert texts.equals(List.of("q5", "q2", "q0", "q1", "q3", "q4")) : texts;
+        // The order is fixed when made, even if the schedule changes while it is read
+        var live = schedule.order("T", questions, now + ReviewSchedule.DAY / 2);
+        assert live.get(0).question().equals("q5");
+        schedule.review("T", "q0", true, now);
+        schedule.review("T", "q5", true, now);
+        for (int i = 0; i < live.size(); i++) assert live.get(i).question().equals(texts.get(i));
+        // Repeats of an answered question's text follow everything else, in file order
+        var repeated = new ArrayList<Question>();
+        for (int i = 0; i < 5000; i++) repeated.add(new Question((i == 2 ? "s" : "q4") + "|A|B|C|D|NOVICE"));
+        var repeats = schedule.order("T", repeated, now);
+        assert repeats.get(0) == repeated.get(2) && repeats.get(1) == repeated.get(0);
+        for (int i = 2; i < repeats.size(); i++) assert repeats.get(i) == repeated.get(i == 2 ? 1 : i);
+
+        // The schedule is journalled with the history, and survives compaction
+        String name = "schedule-test";
+        freshUser(name);
+        User user = new User(name);
+        user.recordAnswer("CS", "x", true);
+        user.recordAnswer("CS", "y", false);
+        user.recordAnswer("z", false);
+        assert user.schedule.size() == 2;
+        User recovered = new User(name);
+        assert recovered.schedule.snapshot().equals(user.schedule.snapshot());
+        try {
+            user.save().get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        user.recordAnswer("CS", "x", true);
+        User compacted = new User(name);
+        assert compacted.schedule.due("CS", "x") == user.schedule.due("CS", "x");
+        assert new HashSet<>(compacted.schedule.snapshot()).equals(new HashSet<>(user.schedule.snapshot()));
+        assert compacted.history.snapshot().equals(user.history.snapshot());
+    }
+
+    public static void testQuestionIds() {
+        File file = new File("GameData/TestIds.txt");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        // Find two texts with the same hash
+        var seen = new HashMap<Integer, String>();
+        String first = null;
+        String second = null;
+        for (int i = 0; second == null; i++) {
+            String text = "Question " + i + "?";
+            first = seen.put(QuestionIds.hash(text), text);
+            if (first != null) second = text;
+        }
+        var ids = new QuestionIds(file);
+        int a = ids.id(first);
+        int b = ids.id(second);
+        assert a == QuestionIds.hash(first) && b != a && ids.id(first) == a && ids.id(second) == b;
+        assert ids.question(b).equals(second);
+        // Ids are remembered, so each question keeps its id even if seen first next time
+        var reloaded = new QuestionIds(file);
+        assert reloaded.id(second) == b && reloaded.id(first) == a;
+        // Ids don't depend on the order questions are first seen in across runs:
+        // a question given its hash while alone keeps it once a colliding question is seen first
+        File orderFile = new File("GameData/TestIdOrder.txt");
+        //noinspection ResultOfMethodCallIgnored
+        orderFile.delete();
+        assert new QuestionIds(orderFile).id(second) == QuestionIds.hash(second);
+        var later = new QuestionIds(orderFile);
+        assert later.id(first) != QuestionIds.hash(first) && later.id(second) == QuestionIds.hash(second);
+
+        // A history file in the old text format is migrated to the binary one
+        String name = "migrate-test";
+        File legacy = new File("GameData/UserHistory/" + name + ".txt");
+        freshUser(name);
+        //noinspection ResultOfMethodCallIgnored
+        legacy.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(legacy)) {
+            writer.write(HistoryJournal.HEADER + "0\n");
+            for (int i = 0; i < 100; i++) {
+                writer.write("Which of the following is the answer to question " + i + "?|" + i % 3 + "\n");
+            }
+            writer.write("Rounds|4\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        long legacySize = legacy.length();
+        User user = new User(name);
+        byte[] migrated = UserStore.shared().get(name);
+        assert !legacy.exists() && migrated != null;
+        assert migrated.length * 5 < legacySize : migrated.length + " vs " + legacySize;
+        assert user.history.rounds() == 4 && user.history.size() == 100;
+        assert user.history.getOrDefault("Which of the following is the answer to question 5?", -1) == 2;
+        assert new User(name).history.snapshot().equals(user.history.snapshot());
+        assert user.getStatistic(Statistic.TOTAL_ANSWERED) == 400;
+    }
+
+    public static void testSearch() {
+        // Tags are an optional seventh field
+        var tagged = new Question("Which problem is hard?|LWE|RSA|DES|MD5|EXPERT|crypto, Post-Quantum");
+        assert Arrays.equals(tagged.tags(), new String[]{"crypto", "Post-Quantum"});
+        assert tagged.toLine().equals("Which problem is hard?|LWE|RSA|DES|MD5|EXPERT|crypto,Post-Quantum");
+        assert Question.difficultyOf(tagged.toLine()) == Question.Difficulty.EXPERT;
+        assert new Question("Q?|A|B|C|D|NOVICE").tags().length == 0;
+        try {
+            new Question("Q?|A|B|C|D|NOVICE|tag|more");
+            assert false : "Eight fields should be rejected";
+        } catch (Question.FormatException ignored) {
+        }
+
+        File dir = new File("GameData/TestSearch/");
+        File topics = new File(dir, "questions/");
+        //noinspection ResultOfMethodCallIgnored
+        topics.mkdirs();
+        try (FileWriter crypto = new FileWriter(new File(topics, "Crypto.txt"));
+             FileWriter maths = new FileWriter(new File(topics, "Maths.txt"))) {
+            crypto.write("What is a lattice?|A grid of points|A tree|A ring|A field|NOVICE|crypto\n");
+            crypto.write("Which problem is hard?|LWE|RSA|DES|MD5|EXPERT|crypto,post-quantum\n");
+            crypto.write("What does AES stand for?|Advanced Encryption Standard|A|B|C|NOVICE\n");
+            maths.write("What is a lattice in order theory?|A partial order with meets and joins|A|B|C|EXPERT\n");
+            maths.write("What are eigenvalues?|Scalars|Vectors|Matrices|Bases|INTERMEDIATE|linear-algebra\n");
+            maths.write("What is an eigenvector?|A vector scaled by a matrix|A|B|C|INTERMEDIATE|linear-algebra\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        var loader = new QuestionLoader(topics, new File(dir, "compiled/"), 1);
+        var found = loader.search("lattice");
+        assert found.size() == 2;
+        assert found.stream().map(Question::question).toList().containsAll(
+                List.of("What is a lattice?", "What is a lattice in order theory?"));
+        assert loader.search("eigen*").size() == 2;
+        assert loader.search("#linear-algebra").size() == 2;
+        assert loader.search("lattice #crypto").size() == 1;
+        // Answers are indexed too, and words are matched case-insensitively
+        assert loader.search("ENCRYPTION").get(0).question().equals("What does AES stand for?");
+        assert loader.search("nothing").isEmpty() && loader.search("  ").isEmpty();
+
+        // A search quiz plays like a topic
+        var user = new User("search-test");
+        var quiz = new Quiz("Search: lattice|grid", found, user, null);
+        assert quiz.questions(Gamemode.ESCALATION).get(0).difficulty() == Question.Difficulty.NOVICE;
+        assert quiz.questions(Gamemode.QUICK).size() == 2 && quiz.questions(Gamemode.QUICK_ESCALATION).size() == 2;
+        // Answers are scheduled in the topics the questions were found in, not under the search
+        var session = quiz.start(Gamemode.REDEMPTION);
+        while (!session.isFinished()) {
+            session.nextPrompt();
+            session.submitAnswer(0);
+        }
+        assert user.schedule.due("Crypto", "What is a lattice?") > 0;
+        assert user.schedule.due("Maths", "What is a lattice in order theory?") > 0;
+        assert user.schedule.due("Search: lattice|grid", "What is a lattice?") < 0;
+        assert quiz.questions(Gamemode.REDEMPTION).size() == 2;
+
+        // A new version of a topic replaces the old one
+        var index = new QuestionIndex();
+        index.add("T", 1, List.of(new Question("Old lattice?|A|B|C|D|NOVICE")));
+        index.add("T", 1, List.of(new Question("Ignored, same version?|A|B|C|D|NOVICE")));
+        assert index.search("ignored").isEmpty();
+        index.add("T", 2, List.of(new Question("Q?|A|B|C|D|NOVICE"), new Question("New lattice?|A|B|C|D|NOVICE")));
+        assert index.search("lattice").equals(List.of(new QuestionIndex.Hit("T", 1)));
+        assert index.search("old").isEmpty();
+        // Found questions come from the version that was indexed, and remember their topic
+        var lattice = (QuestionIndex.Found) index.find("lattice").get(0);
+        assert lattice.question().equals("New lattice?") && lattice.topic().equals("T");
+
+        // Compiled banks keep the tags
+        File bank = new File(dir, "compiled/Crypto.qbank");
+        BankCompiler.compile(new File(topics, "Crypto.txt"), bank);
+        var compiled = new QuestionLoader(topics, new File(dir, "compiled/"), 1).getEntries("Crypto");
+        assert compiled instanceof CompiledBank;
+        assert Arrays.equals(compiled.get(1).tags(), new String[]{"crypto", "post-quantum"});
+        assert compiled.get(2).tags().length == 0;
+    }
+
+    public static User initTestUser() {
+        User user = new User("test");
+        var history = user.history;
+        history.setRounds(1);
+        history.put("1", 1);
+        history.put("2", 1);
+        history.put("3", 0);
+        history.put("4", 0);
+        return user;
+    }
+
+    public static void testUserStore() {
+        File dir = new File("GameData/TestStore/");
+        File file = new File(dir, "users.db");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        UserStore store = new UserStore(file);
+        for (int i = 0; i < 300; i++) store.put("user" + i, ("record " + i).getBytes());
+        store.put("user7", new byte[1000]);
+        store.remove("user8");
+        assert store.size() == 299 && store.get("user8") == null && store.get("user7").length == 1000;
+        assert new String(store.get("user42")).equals("record 42");
+        // Names are scanned in order, and the end of a range is left out
+        List<String> scanned = new ArrayList<>();
+        store.scan("user1", "user2", (name, value) -> scanned.add(name));
+        assert scanned.size() == 111 && scanned.get(0).equals("user1") && scanned.get(1).equals("user10") : scanned;
+        List<String> all = new ArrayList<>();
+        store.scan(null, null, (name, value) -> all.add(name));
+        assert all.equals(store.names()) && all.size() == 299;
+
+        // Records written since the last checkpoint are replayed, and a record torn by a crash is ignored
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        store = new UserStore(file);
+        store.put("fresh", new byte[10]);
+        // Left open, as if the process had died
+        store.put("torn", new byte[600]);
+        try (var raf = new java.io.RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 200);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        store = new UserStore(file);
+        assert store.size() == 300 && store.contains("fresh") && !store.contains("torn");
+        assert new String(store.get("user299")).equals("record 299");
+        store.remove("fresh");
+
+        // Rewriting users over and over checkpoints, then rewrites the file once most of it is replaced records
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 300; i++) store.put("user" + i, ("record " + i + " round " + round).getBytes());
+        }
+        // 6000 records were written, but replaced ones are only kept until the next rewrite
+        assert store.pages() < 2 * 300 + 2 * UserStore.CHECKPOINT_RECORDS : store.pages();
+        store = new UserStore(file);
+        assert store.size() == 300 && new String(store.get("user5")).equals("record 5 round 19");
+
+        // Per-user files from older versions are moved into the store
+        File historyDir = new File(dir, "UserHistory/");
+        File scheduleDir = new File(dir, "UserSchedule/");
+        //noinspection ResultOfMethodCallIgnored
+        historyDir.mkdirs();
+        //noinspection ResultOfMethodCallIgnored
+        scheduleDir.mkdirs();
+        try (FileWriter history = new FileWriter(new File(historyDir, "old.txt"));
+             FileWriter schedule = new FileWriter(new File(scheduleDir, "old.txt"))) {
+            history.write(HistoryJournal.HEADER + "3\nWhat is 1?|2\nRounds|5\n");
+            schedule.write(HistoryJournal.HEADER + "2\n100|1|2.5|1|Maths|What is 1?\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        assert HistoryJournal.migrate(store, historyDir, scheduleDir) == 1;
+        assert Objects.requireNonNull(historyDir.list()).length == 0 && Objects.requireNonNull(scheduleDir.list()).length == 0;
+        History history = new History();
+        ReviewSchedule schedule = new ReviewSchedule();
+        new HistoryJournal("old", store, new File(dir, "UserJournal/")).recover(history, schedule);
+        assert history.rounds() == 5 && history.getOrDefault("What is 1?", 0) == 2;
+        assert schedule.due("Maths", "What is 1?") == 100;
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void testDifficultyAnalytics() {
+        File dir = new File("GameData/TestAnalytics/");
+        File topics = new File(dir, "questions/");
+        File file = new File(dir, "users.db");
+        //noinspection ResultOfMethodCallIgnored
+        topics.mkdirs();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        try (FileWriter writer = new FileWriter(new File(topics, "Calibration.txt"))) {
+            writer.write("Labelled hard, answered easily?|A|B|C|D|EXPERT\n");
+            writer.write("Labelled easy, usually missed?|A|B|C|D|NOVICE\n");
+            writer.write("Labelled right?|A|B|C|D|INTERMEDIATE\n");
+            writer.write("Rarely asked?|A|B|C|D|NOVICE\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        UserStore store = new UserStore(file);
+        for (int i = 0; i < 1000; i++) {
+            History history = new History();
+            history.setRounds(10);
+            history.put("Labelled hard, answered easily?", i % 5 == 0 ? 1 : 0);
+            // Better users, with a higher i % 5, miss it less
+            history.put("Labelled easy, usually missed?", 10 - i % 5);
+            history.put("Labelled right?", 3 + i % 3);
+            if (i < 5) history.put("Rarely asked?", 9);
+            store.put("user" + i, HistoryJournal.encode(history.snapshot(), 0, List.of(), 0));
+        }
+        var loader = new QuestionLoader(topics);
+        var report = new DifficultyAnalytics(4).analyse(store, loader);
+        assert report.users() == 1000 && report.entries() == 3005 && report.questions().size() == 4;
+        var easy = report.questions().get(0);
+        var hard = report.questions().get(1);
+        var rare = report.questions().get(3);
+        assert easy.measured() == Question.Difficulty.NOVICE && easy.missedBy() == 0.2;
+        assert Math.abs(easy.correctRate() - 0.98) < 1e-9;
+        assert hard.measured() == Question.Difficulty.EXPERT && hard.discrimination() > 0.5 : hard;
+        assert report.questions().get(2).measured() == Question.Difficulty.INTERMEDIATE;
+        assert rare.measured() == null && rare.users() == 5;
+        assert report.flagged().equals(List.of(easy, hard));
+        // The totals don't depend on how users were spread over threads
+        var serial = new DifficultyAnalytics(1).analyse(store, loader);
+        for (int i = 0; i < 4; i++) {
+            var a = report.questions().get(i);
+            var b = serial.questions().get(i);
+            assert a.wrongs() == b.wrongs() && a.answers() == b.answers() && a.measured() == b.measured();
+            assert Math.abs(a.discrimination() - b.discrimination()) < 1e-9;
+        }
+
+        // Measured tiers replace the labels when ordering by difficulty
+        File tiersFile = new File(dir, "difficulty.txt");
+        report.writeTiers(tiersFile);
+        var tiers = new DifficultyTiers(tiersFile);
+        assert tiers.size() == 3;
+        assert tiers.of(easy.question()) == Question.Difficulty.NOVICE;
+        assert tiers.of(hard.question()) == Question.Difficulty.EXPERT;
+        assert tiers.of(rare.question()) == Question.Difficulty.NOVICE;
+        // Without measured tiers, questions aren't given ids just to find their labels
+        var unmeasured = new DifficultyTiers(new File(dir, "missing.txt"));
+        Question keyless = new Question("Q?", "A", new String[]{"B", "C", "D"}, Question.Difficulty.EXPERT) {
+            @Override
+            public String historyKey() {
+                throw new AssertionError("Looked up an id");
+            }
+        };
+        assert unmeasured.of(keyless) == Question.Difficulty.EXPERT;
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void testHotReload() {
+        File topics = new File("GameData/TestReload/questions/");
+        //noinspection ResultOfMethodCallIgnored
+        topics.mkdirs();
+        for (File f : Objects.requireNonNullElse(topics.listFiles(), new File[0])) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+        File changing = new File(topics, "Changing.txt");
+        File added = new File(topics, "Added.txt");
+        try (FileWriter a = new FileWriter(changing); FileWriter b = new FileWriter(new File(topics, "Steady.txt"))) {
+            a.write("Old question?|A|B|C|D|NOVICE\n");
+            b.write("Steady question?|A|B|C|D|NOVICE\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        var loader = new QuestionLoader(topics, new File("GameData/TestReload/compiled/"), 8);
+        var watcher = loader.watch();
+        try (watcher) {
+            var before = loader.getEntries("Changing");
+            var steady = loader.getEntries("Steady");
+            long misses = loader.cacheMisses();
+            try (FileWriter a = new FileWriter(changing, true); FileWriter b = new FileWriter(added)) {
+                a.write("New question?|A|B|C|D|EXPERT\n");
+                b.write("Added question?|A|B|C|D|NOVICE\n");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (loader.getEntries("Changing").size() != 2 || loader.listTopics().length != 3) {
+                assert System.currentTimeMillis() < deadline : "Changes were not picked up";
+                Thread.sleep(10);
+            }
+            // A quiz holding the old list keeps it, and only the changed topic was read again
+            assert before.size() == 1 && before.get(0).question().equals("Old question?");
+            assert loader.getEntries("Steady") == steady;
+            assert loader.cacheMisses() <= misses + 2 : loader.cacheMisses() - misses;
+            assert Arrays.asList(loader.listTopics()).equals(List.of("Added", "Changing", "Steady"));
+            //noinspection ResultOfMethodCallIgnored
+            added.delete();
+            while (loader.listTopics().length != 2) {
+                assert System.currentTimeMillis() < deadline : "Removal was not picked up";
+                Thread.sleep(10);
+            }
+            // Replacing a file with one of the same size and modification time is still a change
+            File steadyFile = new File(topics, "Steady.txt");
+            File replacement = new File(topics, "Steady.tmp");
+            Files.writeString(replacement.toPath(), "Stable question?|A|B|C|D|NOVICE\n");
+            assert replacement.length() == steadyFile.length();
+            //noinspection ResultOfMethodCallIgnored
+            replacement.setLastModified(steadyFile.lastModified());
+            Files.move(replacement.toPath(), steadyFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            while (!loader.getEntries("Steady").get(0).question().equals("Stable question?")) {
+                assert System.currentTimeMillis() < deadline : "Replacement was not picked up";
+                Thread.sleep(10);
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void testTimedQuiz() {
+        // A tiny wheel, so the later timeouts need several turns
+        var wheel = new TimingWheel(1, 4);
+        long start = System.nanoTime();
+        List<Integer> fired = Collections.synchronizedList(new ArrayList<>());
+        long[] late = new long[1];
+        wheel.schedule(30, () -> {
+            late[0] = System.nanoTime() - start;
+            fired.add(30);
+        });
+        wheel.schedule(2, () -> fired.add(2));
+        wheel.schedule(15, () -> fired.add(15)).cancel();
+        try {
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (wheel.pending() > 0) {
+                assert System.currentTimeMillis() < deadline : "Timeouts did not fire";
+                Thread.sleep(5);
+            }
+            assert fired.equals(List.of(2, 30)) : fired;
+            assert late[0] >= 30_000_000 : "Ran early";
+
+            String name = "timed-test";
+            freshUser(name);
+            User user = new User(name);
+            var questions = new QuestionLoader(new File("res/questions/")).getEntries("CS").subList(0, 3);
+            var session = new QuizSession("CS", Gamemode.TIMED, questions, user, new Random(1),
+                    new QuizSession.Limits(100, 0));
+            session.nextPrompt();
+            var answered = session.submitAnswer(0);
+            assert !answered.expired() && answered.millis() < 100;
+            // Left unanswered, the question is counted as wrong when it runs out, and the late answer is ignored
+            var second = session.nextPrompt();
+            deadline = System.currentTimeMillis() + 5_000;
+            while (user.history.getOrDefault(second.question(), 0) == 0) {
+                assert System.currentTimeMillis() < deadline : "Question did not run out";
+                Thread.sleep(5);
+            }
+            var timedOut = session.submitAnswer(0);
+            assert timedOut.expired() && !timedOut.correct() && timedOut.millis() >= 100;
+            assert session.nextPrompt().number() == 3;
+
+            // Running out of time for the round ends it after the question being asked
+            int rounds = user.history.rounds();
+            var round = new QuizSession("CS", Gamemode.TIMED, questions, user, new Random(2),
+                    new QuizSession.Limits(0, 50));
+            round.nextPrompt();
+            while (!round.isFinished()) {
+                assert System.currentTimeMillis() < deadline : "Round did not run out";
+                Thread.sleep(5);
+            }
+            assert round.submitAnswer(0).expired();
+            assert round.summary().total() == 1 && round.summary().correct() == 0;
+            assert user.history.rounds() == rounds + 1;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void testHistoryWriter() {
+        List<User> users = new ArrayList<>();
+        for (String name : List.of("writer-a", "writer-b")) {
+            freshUser(name);
+            User user = new User(name);
+            user.recordAnswer(name + " question", false);
+            users.add(user);
+        }
+        var writer = new HistoryWriter(HistoryWriter.Durability.SHUTDOWN, 0);
+        var first = writer.queue(users.get(0));
+        users.get(0).recordAnswer("writer-a again", false);
+        // Queued twice, but written once with the latest history
+        assert writer.queue(users.get(0)) == first;
+        writer.queue(users.get(1));
+        try {
+            Thread.sleep(50);
+            assert writer.queueDepth() == 2 && writer.batches() == 0 && !first.isDone();
+            writer.close();
+            assert first.isDone() && writer.queueDepth() == 0;
+            assert writer.batches() == 1 && writer.written() == 2 : writer.batches() + " " + writer.written();
+            for (User user : users) {
+                assert new User(user.name()).history.snapshot().equals(user.history.snapshot());
+            }
+            // Once closed, users are written straight away
+            users.get(1).recordAnswer("writer-b again", true);
+            assert writer.queue(users.get(1)).isDone() && writer.batches() == 2;
+            assert new User("writer-b").history.getOrDefault("writer-b again", -1) == 0;
+
+            var interval = HistoryWriter.forPolicy("interval:20");
+            assert interval.durability() == HistoryWriter.Durability.INTERVAL;
+            interval.queue(users.get(0)).get(5, TimeUnit.SECONDS);
+            interval.close();
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            HistoryWriter.forPolicy("sometimes");
+            assert false : "Unknown policies are rejected";
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    public static void testSessionTrace() {
+        String name = "trace-test";
+        freshUser(name);
+        File file = new File("GameData/TestTrace/trace.bin");
+        var loader = new QuestionLoader(new File("res/questions/"));
+        var questions = loader.getEntries("CS").subList(0, 3);
+        User user = UserRegistry.get(name);
+        List<QuizSession.Prompt> prompts = new ArrayList<>();
+        SessionTrace.record(file);
+        try {
+            var session = new QuizSession("CS", Gamemode.QUICK, questions, user, new Random(3));
+            for (int i = 0; i < 3; i++) {
+                var prompt = session.nextPrompt();
+                prompts.add(prompt);
+                int correct = prompt.options().indexOf(answerTo(questions, prompt.question()));
+                // Only the second question is answered wrongly
+                session.submitAnswer(i == 1 ? (correct + 1) % 4 : correct);
+            }
+            // Abandoned after its first question is shown
+            new QuizSession("CS", Gamemode.RANDOM, questions, user, new Random(4)).nextPrompt();
+        } finally {
+            SessionTrace.stop();
+        }
+        assert SessionTrace.current() == null;
+
+        var sessions = SessionTrace.read(file);
+        assert sessions.size() == 2 && sessions.get(1).events().size() == 1;
+        var played = sessions.get(0);
+        assert played.user().equals(name) && played.topic().equals("CS") && played.mode().equals("QUICK");
+        assert played.questions().length == 3 && played.questions()[0] == questions.get(0).id();
+        assert played.events().size() == 6;
+        for (int i = 0; i < 3; i++) {
+            var shown = (SessionTrace.Shown) played.events().get(2 * i);
+            var answered = (SessionTrace.Answered) played.events().get(2 * i + 1);
+            var possibilities = questions.get(i).possibilities();
+            for (int option = 0; option < 4; option++) {
+                assert prompts.get(i).options().get(option).equals(possibilities.get(shown.order()[option]));
+            }
+            assert answered.number() == i + 1 && answered.correct() == (i != 1) && !answered.expired();
+            assert answered.micros() >= shown.micros() && answered.thinkMicros() >= 0;
+        }
+
+        // Replaying answers the same questions the same way, whatever order the options are shuffled into
+        int wrongs = user.history.getOrDefault(questions.get(1).question(), 0);
+        var replay = new TraceReplay(0, 2, 7);
+        replay.run(sessions, loader);
+        assert replay.replayed() == 2 && replay.skipped() == 0 && replay.differing() == 0 && replay.answers() == 3;
+        assert user.history.getOrDefault(questions.get(1).question(), 0) == wrongs + 1;
+
+        // A trace cut short loses only its last record
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var cut = SessionTrace.read(file);
+        assert cut.size() == 2 && cut.get(1).events().isEmpty();
+
+        // A session carries on when the trace it was recording to is finished mid-round
+        SessionTrace.record(file);
+        var unfinished = new QuizSession("CS", Gamemode.QUICK, questions, user, new Random(5));
+        var first = unfinished.nextPrompt();
+        SessionTrace.stop();
+        unfinished.submitAnswer(first.options().indexOf(answerTo(questions, first.question())));
+        SessionTrace.record(new File("GameData/TestTrace/next.bin"));
+        try {
+            while (!unfinished.isFinished()) unfinished.submitAnswer(0);
+        } finally {
+            SessionTrace.stop();
+        }
+        var stopped = SessionTrace.read(file);
+        assert stopped.size() == 1 && stopped.get(0).events().size() == 1;
+        assert SessionTrace.read(new File("GameData/TestTrace/next.bin")).isEmpty();
+    }
+
+    public static void testGeneratedTopic() {
+        String name = "generated-test";
+        freshUser(name);
+        File dir = new File("GameData/TestGenerated/");
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        try (FileWriter writer = new FileWriter(new File(dir, "Sums.gen"))) {
+            writer.write("What is {a} mod {b}?|mod|a=10..99,b=2..9|NOVICE\n");
+            writer.write("Not a template\n");
+            writer.write("What is {x} times {y}?|multiply|x=1..1000000000,y=1..1000000000|EXPERT\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var loader = new QuestionLoader(dir);
+        assert List.of(loader.listTopics()).contains("Sums") && loader.isGenerated("Sums");
+        var topic = (GeneratedTopic) loader.getEntries("Sums");
+        assert loader.getEntries("Sums") == topic;
+        // Far more questions than fit in a list, so only as many as an int can index
+        assert topic.size() == Integer.MAX_VALUE && topic.countOf(Question.Difficulty.NOVICE) == 90 * 8;
+        for (int i = 0; i < 90 * 8; i++) {
+            Question question = topic.get(i);
+            String[] numbers = question.question().replaceAll("[^0-9 ]", "").trim().split(" +");
+            long answer = Long.parseLong(numbers[0]) % Long.parseLong(numbers[1]);
+            assert question.answer().equals(Long.toString(answer)) && question.difficulty() == Question.Difficulty.NOVICE;
+            assert new HashSet<>(question.possibilities()).size() == 4;
+        }
+        // The same index makes the same question, options and all, in any loader
+        Question big = topic.get(Integer.MAX_VALUE - 1);
+        assert big.toLine().equals(new QuestionLoader(dir).getEntries("Sums").get(Integer.MAX_VALUE - 1).toLine());
+        assert big.difficulty() == Question.Difficulty.EXPERT;
+        var first = topic.stream(5).limit(50).map(Question::toLine).toList();
+        assert first.equals(topic.stream(5).parallel().limit(50).map(Question::toLine).toList());
+        assert !first.equals(topic.stream(6).limit(50).map(Question::toLine).toList());
+        var tiers = loader.sampleByDifficulty("Sums", 10, new Random(1));
+        assert tiers.get(Question.Difficulty.EXPERT).size() == 10 && tiers.get(Question.Difficulty.INTERMEDIATE).isEmpty();
+        assert tiers.get(Question.Difficulty.NOVICE).stream().allMatch(q -> q.difficulty() == Question.Difficulty.NOVICE);
+        assert loader.search("mod").isEmpty();
+
+        // Questions of a template whose values have as many digits share one history
+        Question a = topic.get(0), b = topic.get(1);
+        assert !a.question().equals(b.question()) && a.historyKey().equals(b.historyKey()) && a.id() == b.id();
+        assert !a.historyKey().equals(big.historyKey());
+        // but not with a template of the same text at another difficulty, even for the same values
+        var times = new GeneratedTopic(List.of(
+                GeneratedTopic.Template.parse("What is {a} times {b}?|multiply|a=2..12,b=2..12|NOVICE"),
+                GeneratedTopic.Template.parse("What is {a} times {b}?|multiply|a=11..99,b=11..99|INTERMEDIATE")));
+        Question easy = times.get(9 + 9 * 11), hard = times.get(11 * 11);
+        assert easy.question().equals("What is 11 times 11?") && easy.question().equals(hard.question());
+        assert !easy.historyKey().equals(hard.historyKey());
+        User user = UserRegistry.get(name);
+        user.recordAnswer("Sums", a, false);
+        user.recordAnswer("Sums", b, false);
+        assert user.history.getOrDefault(a.historyKey(), 0) == 2 && user.history.size() == 1;
+        assert user.schedule.due("Sums", a.historyKey()) >= 0;
+        // Whole-topic gamemodes ask a sample rather than ordering billions of questions
+        var quiz = new Quiz("Sums", user, loader, null);
+        assert quiz.questions(Gamemode.RANDOM).size() == Quiz.QUICK_LENGTH;
+        assert quiz.questions(Gamemode.REDEMPTION).size() == Quiz.QUICK_LENGTH;
+        assert quiz.questions(Gamemode.ESCALATION).size() == 2 * Quiz.QUICK_ESCALATION_LENGTH;
+    }
+
+    public static void testNearDuplicates() {
+        String[] words = {"lattice", "graph", "prime", "vector", "kernel", "cache", "stack", "queue", "tree", "set",
+                "proof", "limit", "matrix", "binary", "search", "hash", "heap", "loop", "field", "ring"};
+        Random random = new Random(11);
+        List<Question> questions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder text = new StringBuilder("Question " + i + ":");
+            for (int w = 0; w < 8; w++) text.append(' ').append(words[random.nextInt(words.length)]);
+            questions.add(new Question(text + "?", "A", new String[]{"B", "C", "D"}, Question.Difficulty.NOVICE));
+        }
+        // Copies of the first hundred that differ in case, punctuation and spacing, or in a word
+        for (int i = 0; i < 100; i++) {
+            String text = questions.get(i).question();
+            String copy = i % 2 == 0 ? text.toUpperCase().replace(":", " -").replace("?", "!!")
+                    : text.replaceFirst("Question", "Questions");
+            questions.add(new Question(copy, "A", new String[]{"B", "C", "D"}, Question.Difficulty.NOVICE));
+        }
+        var dedup = new NearDuplicates(NearDuplicates.DEFAULT_THRESHOLD);
+        var kept = dedup.distinct(questions);
+        assert kept.equals(questions.subList(0, 5000));
+        // Questions that share a stem but not their answers are kept
+        var stems = List.of(
+                new Question("Which of the following is true?", "Paris is in France",
+                        new String[]{"Paris is in Spain", "Rome is in France", "Rome is in Spain"}, Question.Difficulty.NOVICE),
+                new Question("Which of the following is true?", "Bits are binary digits",
+                        new String[]{"Bytes are four bits", "Words are one bit", "Nibbles are two bytes"},
+                        Question.Difficulty.NOVICE),
+                new Question("What is 47 mod 6?", "5", new String[]{"7", "4", "6"}, Question.Difficulty.NOVICE),
+                new Question("What is 48 mod 6?", "0", new String[]{"8", "1", "2"}, Question.Difficulty.NOVICE));
+        assert dedup.distinct(stems).equals(stems);
+
+        File dir = new File("GameData/TestDedup/");
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        try (FileWriter first = new FileWriter(new File(dir, "First.txt"));
+             FileWriter second = new FileWriter(new File(dir, "Second.txt"))) {
+            first.write("What is a lattice?|A grid|A tree|A ring|A field|NOVICE\n");
+            first.write("Which sort is stable?|Merge sort|Quick sort|Heap sort|Shell sort|NOVICE\n");
+            first.write("what is a  LATTICE|A grid|A tree|A ring|A field|NOVICE\n");
+            second.write("What is a lattice ?|A grid of points|A tree|A ring|A field|NOVICE\n");
+            second.write("What is a heap?|A tree|A list|A map|A set|NOVICE\n");
+            second.write("Which of the following is true?|Paris is in France|Paris is in Spain|Rome is in France|Rome is in Spain|NOVICE\n");
+            second.write("Which of the following is true?|Bits are binary digits|Bytes are four bits|Words are one bit|Nibbles are two bytes|NOVICE\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Within a topic at load time
+        var loader = new QuestionLoader(dir);
+        loader.setNearDuplicates(dedup);
+        assert loader.getEntries("First").size() == 2;
+        assert loader.sampleEntries("First", 5, new Random(1)).size() == 2;
+        // Across topics, merging the files
+        File report = new File(dir, "duplicates.tsv");
+        var result = dedup.search(dir, report, true);
+        assert result.questions() == 7 && result.clusters() == 1 && result.duplicates() == 2;
+        try {
+            var lines = Files.readAllLines(report.toPath());
+            assert lines.size() == 4 && lines.get(1).startsWith("1\tFirst\t1\t1.00\tWhat is a lattice?");
+            assert Files.readAllLines(new File(dir, "First.txt").toPath()).size() == 2;
+            var second = Files.readAllLines(new File(dir, "Second.txt").toPath());
+            assert second.size() == 3 && second.get(0).startsWith("What is a heap?");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        assert dedup.search(dir, report, false).duplicates() == 0;
+    }
+}